@@ -311,6 +311,7 @@ public class Kernel {
         // stop API and p2p
         api.stop();
         p2p.stop();
+        channelMgr.stop();
 
         // stop pending manager and node manager
         pendingMgr.stop();
@@ -12,6 +12,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.semux.Kernel;
 import org.semux.api.http.HttpChannelInitializer;
 import org.semux.api.http.HttpHandler;
+import org.semux.config.Config;
+import org.semux.net.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,8 +22,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 
@@ -86,18 +87,28 @@ public class SemuxApiService {
         try {
             this.ip = ip;
             this.port = port;
-            bossGroup = new NioEventLoopGroup(1, factory);
-            workerGroup = new NioEventLoopGroup(0, factory);
+            Config config = kernel.getConfig();
+            Transport transport = Transport.select(config.netEpoll());
+            bossGroup = transport.newEventLoopGroup(1, factory);
+            workerGroup = transport.newEventLoopGroup(config.apiThreads(), factory);
 
             ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+            b.group(bossGroup, workerGroup).channel(transport.serverChannelClass())
                     .handler(new LoggingHandler(LogLevel.INFO)).childHandler(new HttpChannelInitializer() {
                         public HttpHandler initHandler() {
                             return new HttpHandler(kernel, apiHandler);
                         }
                     });
 
-            logger.info("Starting API server: address = {}:{}", ip, port);
+            if (config.apiReusePort()) {
+                if (transport == Transport.EPOLL) {
+                    b.option(EpollChannelOption.SO_REUSEPORT, true);
+                } else {
+                    logger.warn("api.reusePort requires the epoll transport, ignored");
+                }
+            }
+
+            logger.info("Starting API server: address = {}:{}, transport = {}", ip, port, transport);
             channel = b.bind(ip, port).sync().channel();
 
             // allow larger messages for local contract calls.
@@ -48,6 +48,7 @@ import org.semux.api.v2.model.GetAccountTransactionsResponse;
 import org.semux.api.v2.model.GetAccountVotesResponse;
 import org.semux.api.v2.model.GetAccountsResponse;
 import org.semux.api.v2.model.GetBlockResponse;
+import org.semux.api.v2.model.GetConsensusMetricsResponse;
 import org.semux.api.v2.model.GetDelegateResponse;
 import org.semux.api.v2.model.GetDelegatesResponse;
 import org.semux.api.v2.model.GetInfoResponse;
@@ -70,6 +71,8 @@ import org.semux.api.v2.model.TransactionResultType;
 import org.semux.api.v2.model.VerifyMessageResponse;
 import org.semux.api.v2.server.SemuxApi;
 import org.semux.config.Config;
+import org.semux.consensus.SemuxBft;
+import org.semux.consensus.SemuxSync;
 import org.semux.core.Amount;
 import org.semux.core.Block;
 import org.semux.core.Blockchain;
@@ -225,11 +228,7 @@ public final class SemuxApiImpl implements SemuxApi {
             Account account = kernel.getBlockchain().getAccountState().getAccount(addressBytes);
             int transactionCount = kernel.getBlockchain().getTransactionCount(account.getAddress());
             int internalTransactionCount = kernel.getBlockchain().getInternalTransactionCount(account.getAddress());
-            int pendingTransactionCount = (int) kernel.getPendingManager()
-                    .getPendingTransactions().parallelStream()
-                    .map(pendingTransaction -> pendingTransaction.transaction)
-                    .filter(tx -> Arrays.equals(tx.getFrom(), addressBytes) || Arrays.equals(tx.getTo(), addressBytes))
-                    .count();
+            int pendingTransactionCount = kernel.getPendingManager().getPendingTransactionCount(addressBytes);
 
             GetAccountResponse resp = new GetAccountResponse();
             resp.setResult(TypeFactory.accountType(account, transactionCount, internalTransactionCount,
@@ -347,12 +346,8 @@ public final class SemuxApiImpl implements SemuxApi {
 
             GetAccountPendingTransactionsResponse resp = new GetAccountPendingTransactionsResponse();
             resp.setResult(kernel.getPendingManager()
-                    .getPendingTransactions().parallelStream()
-                    .map(pendingTransaction -> pendingTransaction.transaction)
-                    .filter(tx -> Arrays.equals(tx.getFrom(), addressBytes) || Arrays.equals(tx.getTo(), addressBytes))
-                    .skip(fromInt)
-                    .limit(toInt - fromInt)
-                    .map(TypeFactory::transactionType)
+                    .getPendingTransactions(addressBytes, fromInt, toInt).stream()
+                    .map(pendingTransaction -> TypeFactory.transactionType(pendingTransaction.transaction))
                     .collect(Collectors.toList()));
             return success(resp);
         } catch (IllegalArgumentException ex) {
@@ -449,6 +444,18 @@ public final class SemuxApiImpl implements SemuxApi {
         return success(resp);
     }
 
+    @Override
+    public Response getConsensusMetrics() {
+        if (!(kernel.getBftManager() instanceof SemuxBft)) {
+            return badRequest("Consensus metrics are not available");
+        }
+
+        GetConsensusMetricsResponse resp = new GetConsensusMetricsResponse();
+        resp.setResult(TypeFactory.consensusMetricsType(((SemuxBft) kernel.getBftManager()).getMetrics()));
+
+        return success(resp);
+    }
+
     @Override
     public Response getInfo() {
         GetInfoResponse resp = new GetInfoResponse();
@@ -477,7 +484,7 @@ public final class SemuxApiImpl implements SemuxApi {
     @Override
     public Response getPeers() {
         GetPeersResponse resp = new GetPeersResponse();
-        resp.setResult(kernel.getChannelManager().getActivePeers().parallelStream()
+        resp.setResult(kernel.getChannelManager().getActiveChannels().parallelStream()
                 .map(TypeFactory::peerType)
                 .collect(Collectors.toList()));
 
@@ -778,6 +785,11 @@ public final class SemuxApiImpl implements SemuxApi {
             result.setStartingHeight(String.valueOf(progress.getStartingHeight()));
             result.setCurrentHeight(String.valueOf(progress.getCurrentHeight()));
             result.setTargetHeight(String.valueOf(progress.getTargetHeight()));
+            if (kernel.getSyncManager() instanceof SemuxSync) {
+                result.setStages(((SemuxSync) kernel.getSyncManager()).getStages().stream()
+                        .map(TypeFactory::syncStageType)
+                        .collect(Collectors.toList()));
+            }
         } else {
             result.setSyncing(false);
         }
@@ -12,7 +12,9 @@ import static org.semux.core.TransactionType.DELEGATE;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -21,14 +23,19 @@ import org.semux.Kernel;
 import org.semux.api.v2.model.AccountType;
 import org.semux.api.v2.model.AccountVoteType;
 import org.semux.api.v2.model.BlockType;
+import org.semux.api.v2.model.ConsensusMetricsType;
 import org.semux.api.v2.model.DelegateType;
+import org.semux.api.v2.model.HistogramType;
 import org.semux.api.v2.model.InfoType;
 import org.semux.api.v2.model.InternalTransactionType;
 import org.semux.api.v2.model.LogInfoType;
 import org.semux.api.v2.model.PeerType;
+import org.semux.api.v2.model.SyncStageType;
 import org.semux.api.v2.model.TransactionLimitsType;
 import org.semux.api.v2.model.TransactionResultType;
 import org.semux.api.v2.model.TransactionType;
+import org.semux.consensus.ConsensusMetrics;
+import org.semux.consensus.SemuxSync;
 import org.semux.core.Amount;
 import org.semux.core.Block;
 import org.semux.core.Blockchain;
@@ -38,7 +45,12 @@ import org.semux.core.TransactionResult;
 import org.semux.core.state.Account;
 import org.semux.core.state.Delegate;
 import org.semux.crypto.Hex;
+import org.semux.net.Channel;
 import org.semux.net.Peer;
+import org.semux.net.TrafficStats;
+import org.semux.net.msg.MessageCode;
+import org.semux.net.msg.MessageQueue;
+import org.semux.util.Histogram;
 import org.semux.vm.client.SemuxInternalTransaction;
 
 public class TypeFactory {
@@ -120,6 +132,26 @@ public class TypeFactory {
                 .pendingTransactions(kernel.getPendingManager().getPendingTransactions().size());
     }
 
+    public static ConsensusMetricsType consensusMetricsType(ConsensusMetrics metrics) {
+        return new ConsensusMetricsType()
+                .viewChanges(String.valueOf(metrics.getViewChanges()))
+                .histograms(metrics.getHistograms().stream()
+                        .map(TypeFactory::histogramType)
+                        .collect(Collectors.toList()));
+    }
+
+    public static HistogramType histogramType(Histogram histogram) {
+        return new HistogramType()
+                .name(histogram.getName())
+                .count(String.valueOf(histogram.getCount()))
+                .min(String.valueOf(histogram.getMin()))
+                .max(String.valueOf(histogram.getMax()))
+                .mean(String.valueOf(Math.round(histogram.getMean())))
+                .p50(String.valueOf(histogram.getValueAtPercentile(50)))
+                .p90(String.valueOf(histogram.getValueAtPercentile(90)))
+                .p99(String.valueOf(histogram.getValueAtPercentile(99)));
+    }
+
     public static PeerType peerType(Peer peer) {
         return new PeerType()
                 .ip(peer.getIp())
@@ -129,7 +161,36 @@ public class TypeFactory {
                 .peerId(Hex.PREF + peer.getPeerId())
                 .latestBlockNumber(String.valueOf(peer.getLatestBlockNumber()))
                 .latency(String.valueOf(peer.getLatency()))
-                .capabilities(Arrays.asList(peer.getCapabilities()));
+                .capabilities(Arrays.asList(peer.getCapabilities()))
+                .rtt(String.valueOf(peer.getStats().getRtt()))
+                .throughput(String.valueOf(peer.getStats().getBytesPerSecond()))
+                .failureRate(peer.getStats().getFailureRate())
+                .inFlight(peer.getStats().getInFlight());
+    }
+
+    public static PeerType peerType(Channel channel) {
+        MessageQueue queue = channel.getMessageQueue();
+        TrafficStats traffic = channel.getTrafficStats();
+        return peerType(channel.getRemotePeer())
+                .queueSize(queue.size())
+                .queueLatency(String.valueOf(queue.getLatency().getValueAtPercentile(99)))
+                .bytesIn(String.valueOf(traffic.getBytesIn()))
+                .bytesOut(String.valueOf(traffic.getBytesOut()))
+                .messagesIn(messageCounts(traffic.getMessagesIn()))
+                .messagesOut(messageCounts(traffic.getMessagesOut()));
+    }
+
+    private static Map<String, String> messageCounts(Map<MessageCode, Long> counts) {
+        Map<String, String> map = new LinkedHashMap<>();
+        counts.forEach((code, n) -> map.put(code.name(), String.valueOf(n)));
+        return map;
+    }
+
+    public static SyncStageType syncStageType(SemuxSync.Stage stage) {
+        return new SyncStageType()
+                .name(stage.getName())
+                .processed(String.valueOf(stage.getProcessed()))
+                .backlog(stage.getBacklog());
     }
 
     public static TransactionLimitsType transactionLimitsType(Kernel kernel,
@@ -13,6 +13,7 @@ import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingArgumentException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.ParseException;
 import org.semux.Kernel;
@@ -20,6 +21,7 @@ import org.semux.Launcher;
 import org.semux.config.Config;
 import org.semux.config.Constants;
 import org.semux.config.exception.ConfigException;
+import org.semux.core.BlockArchive;
 import org.semux.core.BlockchainImpl;
 import org.semux.core.Genesis;
 import org.semux.core.Wallet;
@@ -122,6 +124,26 @@ public class SemuxCli extends Launcher {
                 .hasArg(true).optionalArg(true).argName("to").type(String.class)
                 .build();
         addOption(reindexOption);
+
+        Option exportBlocksOption = Option.builder()
+                .longOpt(SemuxOption.EXPORT_BLOCKS.toString())
+                .desc(CliMessages.get("ExportBlocksDescription"))
+                .hasArgs().numberOfArgs(3).optionalArg(true).argName("file [first] [last]").type(String.class)
+                .build();
+        addOption(exportBlocksOption);
+
+        Option importBlocksOption = Option.builder()
+                .longOpt(SemuxOption.IMPORT_BLOCKS.toString())
+                .desc(CliMessages.get("ImportBlocksDescription"))
+                .hasArg(true).numberOfArgs(1).optionalArg(false).argName("file").type(String.class)
+                .build();
+        addOption(importBlocksOption);
+
+        Option validateVotesOption = Option.builder()
+                .longOpt(SemuxOption.VALIDATE_VOTES.toString())
+                .desc(CliMessages.get("ValidateVotesDescription"))
+                .build();
+        addOption(validateVotesOption);
     }
 
     public void start(String[] args) throws ParseException, IOException {
@@ -155,6 +177,17 @@ public class SemuxCli extends Launcher {
         } else if (cmd.hasOption(SemuxOption.REINDEX.toString())) {
             reindex(cmd.getOptionValue(SemuxOption.REINDEX.toString()));
 
+        } else if (cmd.hasOption(SemuxOption.EXPORT_BLOCKS.toString())) {
+            String[] values = cmd.getOptionValues(SemuxOption.EXPORT_BLOCKS.toString());
+            if (values == null) {
+                throw new MissingArgumentException(getOptions().getOption(SemuxOption.EXPORT_BLOCKS.toString()));
+            }
+            exportBlocks(values[0].trim(), values.length > 1 ? values[1] : null, values.length > 2 ? values[2] : null);
+
+        } else if (cmd.hasOption(SemuxOption.IMPORT_BLOCKS.toString())) {
+            importBlocks(cmd.getOptionValue(SemuxOption.IMPORT_BLOCKS.toString()).trim(),
+                    cmd.hasOption(SemuxOption.VALIDATE_VOTES.toString()));
+
         } else {
             start();
         }
@@ -176,6 +209,40 @@ public class SemuxCli extends Launcher {
         BlockchainImpl.upgrade(config, dbFactory, to == null ? Long.MAX_VALUE : Long.parseLong(to));
     }
 
+    protected void exportBlocks(String file, String from, String to) {
+        Config config = getConfig();
+        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(config.chainDir());
+        long exported;
+        try {
+            BlockchainImpl chain = new BlockchainImpl(config, dbFactory);
+            exported = new BlockArchive(config, chain).exportBlocks(new File(file),
+                    from == null ? 1 : Long.parseLong(from.trim()),
+                    to == null ? Long.MAX_VALUE : Long.parseLong(to.trim()));
+        } finally {
+            dbFactory.close();
+        }
+
+        if (exported < 0) {
+            exit(SystemUtil.Code.FAILED_TO_EXPORT_BLOCKS);
+        }
+    }
+
+    protected void importBlocks(String file, boolean validateVotes) {
+        Config config = getConfig();
+        DatabaseFactory dbFactory = new LeveldbDatabase.LeveldbFactory(config.chainDir());
+        long imported;
+        try {
+            BlockchainImpl chain = new BlockchainImpl(config, dbFactory);
+            imported = new BlockArchive(config, chain).importBlocks(new File(file), validateVotes);
+        } finally {
+            dbFactory.close();
+        }
+
+        if (imported < 0) {
+            exit(SystemUtil.Code.FAILED_TO_IMPORT_BLOCKS);
+        }
+    }
+
     protected void start() throws IOException {
         // create/unlock wallet
         Wallet wallet = loadWallet().exists() ? loadAndUnlockWallet() : createNewWallet();
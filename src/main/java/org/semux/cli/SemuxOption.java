@@ -33,7 +33,13 @@ public enum SemuxOption {
 
     HD_WALLET("hdwallet"),
 
-    REINDEX("reindex");
+    REINDEX("reindex"),
+
+    EXPORT_BLOCKS("exportblocks"),
+
+    IMPORT_BLOCKS("importblocks"),
+
+    VALIDATE_VOTES("validatevotes");
 
     private final String name;
 
@@ -97,6 +97,16 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected List<String> netDnsSeedsMainNet = Collections
             .unmodifiableList(Arrays.asList("mainnet.semux.org", "mainnet.semux.net"));
     protected List<String> netDnsSeedsTestNet = Collections.singletonList("testnet.semux.org");
+    protected boolean netEpoll = false;
+    protected int netServerThreads = 4;
+    protected int netClientThreads = 4;
+    protected boolean netTcpNoDelay = true;
+    protected int netSendBufferSize = 0;
+    protected int netReceiveBufferSize = 0;
+    protected int netWriteBufferLowWaterMark = 32 * 1024;
+    protected int netWriteBufferHighWaterMark = 64 * 1024;
+    protected long netGlobalWriteLimit = 0;
+    protected long netChannelWriteLimit = 0;
 
     // =========================
     // Sync
@@ -107,6 +117,8 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected int syncMaxPendingBlocks = 2_000;
     protected boolean syncDisconnectOnInvalidBlock = false;
     protected boolean syncFastSync = false;
+    protected int syncMaxBlockRange = 64;
+    protected boolean syncHeaderFirst = false;
 
     // =========================
     // API
@@ -122,6 +134,8 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected String[] apiPrivateServices = {
             "node", "wallet"
     };
+    protected int apiThreads = 0;
+    protected boolean apiReusePort = false;
 
     // =========================
     // BFT consensus
@@ -132,6 +146,8 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected long bftPreCommitTimeout = 6000L;
     protected long bftCommitTimeout = 3000L;
     protected long bftFinalizeTimeout = 3000L;
+    protected boolean bftAdaptiveTimeout = false;
+    protected long bftMinTimeout = 1000L;
     protected long bftMaxBlockTimeDrift = TimeUnit.SECONDS.toMillis(30);
 
     // =========================
@@ -141,6 +157,9 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     protected int poolMaxTxGasLimit = 5_000_000;
     protected Amount poolMinTxGasPrice = Amount.of(10); // 10 NanoSEM = 10 Gwei
     protected long poolMaxTxTimeDrift = TimeUnit.HOURS.toMillis(2);
+    protected boolean poolJournalEnabled = true;
+    protected long poolMaxSize = 64L * 1024 * 1024;
+    protected int poolMaxAccountTransactions = 2048;
 
     // =========================
     // UI
@@ -362,7 +381,8 @@ public abstract class AbstractConfig implements Config, ChainSpec {
 
     @Override
     public CapabilityTreeSet getClientCapabilities() {
-        return CapabilityTreeSet.of(Capability.SEMUX, Capability.FAST_SYNC);
+        return CapabilityTreeSet.of(Capability.SEMUX, Capability.FAST_SYNC, Capability.TX_INVENTORY,
+                Capability.COMPACT_PROPOSAL, Capability.RANGE_SYNC);
     }
 
     @Override
@@ -445,6 +465,56 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return netDnsSeedsTestNet;
     }
 
+    @Override
+    public boolean netEpoll() {
+        return netEpoll;
+    }
+
+    @Override
+    public int netServerThreads() {
+        return netServerThreads;
+    }
+
+    @Override
+    public int netClientThreads() {
+        return netClientThreads;
+    }
+
+    @Override
+    public boolean netTcpNoDelay() {
+        return netTcpNoDelay;
+    }
+
+    @Override
+    public int netSendBufferSize() {
+        return netSendBufferSize;
+    }
+
+    @Override
+    public int netReceiveBufferSize() {
+        return netReceiveBufferSize;
+    }
+
+    @Override
+    public int netWriteBufferLowWaterMark() {
+        return netWriteBufferLowWaterMark;
+    }
+
+    @Override
+    public int netWriteBufferHighWaterMark() {
+        return netWriteBufferHighWaterMark;
+    }
+
+    @Override
+    public long netGlobalWriteLimit() {
+        return netGlobalWriteLimit;
+    }
+
+    @Override
+    public long netChannelWriteLimit() {
+        return netChannelWriteLimit;
+    }
+
     @Override
     public long syncDownloadTimeout() {
         return syncDownloadTimeout;
@@ -475,6 +545,16 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return syncFastSync;
     }
 
+    @Override
+    public int syncMaxBlockRange() {
+        return syncMaxBlockRange;
+    }
+
+    @Override
+    public boolean syncHeaderFirst() {
+        return syncHeaderFirst;
+    }
+
     @Override
     public boolean apiEnabled() {
         return apiEnabled;
@@ -510,6 +590,16 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return apiPrivateServices;
     }
 
+    @Override
+    public int apiThreads() {
+        return apiThreads;
+    }
+
+    @Override
+    public boolean apiReusePort() {
+        return apiReusePort;
+    }
+
     @Override
     public long bftNewHeightTimeout() {
         return bftNewHeightTimeout;
@@ -540,6 +630,16 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return bftFinalizeTimeout;
     }
 
+    @Override
+    public boolean bftAdaptiveTimeout() {
+        return bftAdaptiveTimeout;
+    }
+
+    @Override
+    public long bftMinTimeout() {
+        return bftMinTimeout;
+    }
+
     @Override
     public long bftMaxBlockTimeDrift() {
         return bftMaxBlockTimeDrift;
@@ -569,6 +669,21 @@ public abstract class AbstractConfig implements Config, ChainSpec {
         return poolMaxTxTimeDrift;
     }
 
+    @Override
+    public boolean poolJournalEnabled() {
+        return poolJournalEnabled;
+    }
+
+    @Override
+    public long poolMaxSize() {
+        return poolMaxSize;
+    }
+
+    @Override
+    public int poolMaxAccountTransactions() {
+        return poolMaxAccountTransactions;
+    }
+
     @Override
     public Locale uiLocale() {
         return uiLocale;
@@ -662,6 +777,36 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                 case "net.dnsSeeds.testNet":
                     netDnsSeedsTestNet = Arrays.asList(props.getProperty(name).trim().split(","));
                     break;
+                case "net.epoll":
+                    netEpoll = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
+                case "net.serverThreads":
+                    netServerThreads = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "net.clientThreads":
+                    netClientThreads = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "net.tcpNoDelay":
+                    netTcpNoDelay = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
+                case "net.sendBufferSize":
+                    netSendBufferSize = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "net.receiveBufferSize":
+                    netReceiveBufferSize = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "net.writeBufferLowWaterMark":
+                    netWriteBufferLowWaterMark = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "net.writeBufferHighWaterMark":
+                    netWriteBufferHighWaterMark = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "net.globalWriteLimit":
+                    netGlobalWriteLimit = Long.parseLong(props.getProperty(name).trim());
+                    break;
+                case "net.channelWriteLimit":
+                    netChannelWriteLimit = Long.parseLong(props.getProperty(name).trim());
+                    break;
 
                 case "sync.downloadTimeout":
                     syncDownloadTimeout = Long.parseLong(props.getProperty(name).trim());
@@ -681,6 +826,12 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                 case "sync.fastSync":
                     syncFastSync = Boolean.parseBoolean(props.getProperty(name).trim());
                     break;
+                case "sync.maxBlockRange":
+                    syncMaxBlockRange = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "sync.headerFirst":
+                    syncHeaderFirst = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
 
                 case "api.enabled":
                     apiEnabled = Boolean.parseBoolean(props.getProperty(name).trim());
@@ -707,6 +858,12 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                             .map(String::trim)
                             .toArray(String[]::new);
                     break;
+                case "api.threads":
+                    apiThreads = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                case "api.reusePort":
+                    apiReusePort = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
                 case "ui.locale": {
                     // ui.locale must be in format of en_US ([language]_[country])
                     String[] localeComponents = props.getProperty(name).trim().split("_");
@@ -739,6 +896,26 @@ public abstract class AbstractConfig implements Config, ChainSpec {
                     poolMaxTxTimeDrift = Integer.parseInt(props.getProperty(name).trim());
                     break;
                 }
+                case "txpool.journalEnabled": {
+                    poolJournalEnabled = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
+                }
+                case "txpool.maxSize": {
+                    poolMaxSize = Long.parseLong(props.getProperty(name).trim());
+                    break;
+                }
+                case "txpool.maxAccountTransactions": {
+                    poolMaxAccountTransactions = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                }
+                case "bft.adaptiveTimeout": {
+                    bftAdaptiveTimeout = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
+                }
+                case "bft.minTimeout": {
+                    bftMinTimeout = Long.parseLong(props.getProperty(name).trim());
+                    break;
+                }
                 default:
                     logger.error("Unsupported option: {} = {}", name, props.getProperty(name));
                     break;
@@ -750,6 +927,10 @@ public abstract class AbstractConfig implements Config, ChainSpec {
     }
 
     private void validate() {
+        if (netWriteBufferLowWaterMark < 0 || netWriteBufferLowWaterMark > netWriteBufferHighWaterMark) {
+            throw new ConfigException("net.writeBufferLowWaterMark must be between 0 and net.writeBufferHighWaterMark");
+        }
+
         if (apiEnabled) {
             if ("YOUR_API_USERNAME".equals(apiUsername) || "YOUR_API_PASSWORD".equals(apiPassword)) {
                 throw new ConfigException("Please change your API username/password from the default values.");
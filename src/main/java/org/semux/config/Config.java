@@ -223,6 +223,83 @@ public interface Config {
      */
     List<String> netDnsSeedsTestNet();
 
+    /**
+     * Returns whether to use the native epoll transport for the P2P and API
+     * servers, when it's available. NIO is used otherwise.
+     *
+     * @return
+     */
+    boolean netEpoll();
+
+    /**
+     * Returns the number of event loop threads of the P2P server.
+     *
+     * @return
+     */
+    int netServerThreads();
+
+    /**
+     * Returns the number of event loop threads of the P2P client.
+     *
+     * @return
+     */
+    int netClientThreads();
+
+    /**
+     * Returns whether to disable Nagle's algorithm on P2P connections.
+     *
+     * @return
+     */
+    boolean netTcpNoDelay();
+
+    /**
+     * Returns the socket send buffer size of P2P connections, in bytes, or 0 for
+     * the system default.
+     *
+     * @return
+     */
+    int netSendBufferSize();
+
+    /**
+     * Returns the socket receive buffer size of P2P connections, in bytes, or 0
+     * for the size of a frame.
+     *
+     * @return
+     */
+    int netReceiveBufferSize();
+
+    /**
+     * Returns the number of pending outbound bytes below which a P2P connection
+     * becomes writable again.
+     *
+     * @return
+     */
+    int netWriteBufferLowWaterMark();
+
+    /**
+     * Returns the number of pending outbound bytes above which a P2P connection
+     * stops being writable.
+     *
+     * @return
+     */
+    int netWriteBufferHighWaterMark();
+
+    /**
+     * Returns the max outbound bandwidth of all P2P connections, in bytes per
+     * second, or 0 for unlimited. Consensus and prioritized messages are exempt.
+     *
+     * @return
+     */
+    long netGlobalWriteLimit();
+
+    /**
+     * Returns the max outbound bandwidth of each P2P connection, in bytes per
+     * second, or 0 for unlimited. Consensus and prioritized messages are exempt.
+     *
+     * @return
+     */
+    long netChannelWriteLimit();
+
     // =========================
     // Sync
     // =========================
@@ -270,6 +347,23 @@ public interface Config {
      */
     boolean syncFastSync();
 
+    /**
+     * Returns the max number of blocks requested from a peer at once, if the peer
+     * supports range download.
+     *
+     * @return
+     */
+    int syncMaxBlockRange();
+
+    /**
+     * Returns whether to download a verified skeleton of block headers before
+     * the block bodies. It only applies with FAST_SYNC, and falls back to block
+     * sync when no peer supports RANGE_SYNC.
+     *
+     * @return
+     */
+    boolean syncHeaderFirst();
+
     // =========================
     // API
     // =========================
@@ -323,6 +417,22 @@ public interface Config {
      */
     String[] apiPrivateServices();
 
+    /**
+     * Returns the number of event loop threads of the API server, or 0 for the
+     * Netty default.
+     *
+     * @return
+     */
+    int apiThreads();
+
+    /**
+     * Returns whether to set SO_REUSEPORT on the API listener. It requires the
+     * epoll transport.
+     *
+     * @return
+     */
+    boolean apiReusePort();
+
     // =========================
     // BFT consensus
     // =========================
@@ -370,6 +480,22 @@ public interface Config {
      */
     long bftFinalizeTimeout();
 
+    /**
+     * Returns whether the PROPOSE, VALIDATE and PRE_COMMIT states advance as soon
+     * as they reach the quorum, with timeouts adapted to the observed latency.
+     *
+     * @return
+     */
+    boolean bftAdaptiveTimeout();
+
+    /**
+     * Returns the lower bound of adaptive timeouts. The upper bounds are the
+     * static timeouts of each state.
+     *
+     * @return
+     */
+    long bftMinTimeout();
+
     /**
      * Returns the maximum time drift of a block time in the future.
      *
@@ -410,6 +536,29 @@ public interface Config {
      */
     long poolMaxTxTimeDrift();
 
+    /**
+     * Returns whether pending transactions are journaled to disk and restored on
+     * restart.
+     *
+     * @return
+     */
+    boolean poolJournalEnabled();
+
+    /**
+     * Returns the max estimated memory held by pending transactions, in bytes.
+     *
+     * @return
+     */
+    long poolMaxSize();
+
+    /**
+     * Returns the max number of pending and future-nonce transactions from a
+     * single sender.
+     *
+     * @return
+     */
+    int poolMaxAccountTransactions();
+
     // =========================
     // UI
     // =========================
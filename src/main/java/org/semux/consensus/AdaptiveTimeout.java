@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+/**
+ * Estimates the timeout of a consensus phase from the observed time to reach
+ * the quorum, with an exponentially weighted moving average. The timeout is a
+ * multiple of the estimate, bounded by the given min and max, and it backs off
+ * whenever the phase times out without a quorum.
+ */
+public class AdaptiveTimeout {
+
+    private static final double ALPHA = 0.2;
+    private static final double MULTIPLIER = 3.0;
+
+    private final long min;
+    private final long max;
+
+    private double estimate;
+
+    /**
+     * Creates an adaptive timeout, which starts at the max.
+     *
+     * @param min
+     *            the min timeout in milliseconds
+     * @param max
+     *            the max timeout in milliseconds
+     */
+    public AdaptiveTimeout(long min, long max) {
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.estimate = this.max / MULTIPLIER;
+    }
+
+    /**
+     * Records the time it took the phase to reach the quorum.
+     *
+     * @param latency
+     *            the latency in milliseconds
+     */
+    public synchronized void onQuorum(long latency) {
+        estimate += ALPHA * (latency - estimate);
+    }
+
+    /**
+     * Backs off after the phase timed out.
+     */
+    public synchronized void onTimeout() {
+        estimate = Math.min(estimate * 2, max / MULTIPLIER);
+    }
+
+    /**
+     * Returns the current timeout.
+     *
+     * @return the timeout in milliseconds
+     */
+    public synchronized long get() {
+        return Math.max(min, Math.min(max, Math.round(estimate * MULTIPLIER)));
+    }
+
+    /**
+     * Returns the estimated latency of the phase.
+     *
+     * @return the latency in milliseconds
+     */
+    public synchronized long getEstimate() {
+        return Math.round(estimate);
+    }
+}
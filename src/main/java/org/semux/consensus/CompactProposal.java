@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+import org.semux.core.BlockHeader;
+import org.semux.core.Transaction;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * A compact form of {@link Proposal}, which refers to the transactions by short
+ * IDs, so that the receivers can rebuild the proposal from their pending
+ * transactions. The transactions that the receivers are unlikely to have are
+ * included in full.
+ * <p>
+ * The proof and the block header are kept as they were signed, so the rebuilt
+ * proposal can be verified against the original signature.
+ */
+public class CompactProposal {
+
+    /**
+     * The max number of transactions in a proposal.
+     */
+    public static final int MAX_TRANSACTIONS = 64 * 1024;
+
+    private final byte[] proof;
+    private final byte[] blockHeader;
+    private final long[] shortIds;
+    private final byte[] signature;
+
+    private final long height;
+    private final int view;
+    private final byte[] blockHash;
+
+    // the transactions found so far, and which of them came from the local pool
+    private final Transaction[] transactions;
+    private final BitSet fromPool;
+
+    /**
+     * Creates a compact proposal.
+     *
+     * @param proposal
+     *            a signed proposal
+     * @param prefill
+     *            selects the transactions to include in full
+     */
+    public CompactProposal(Proposal proposal, Predicate<Transaction> prefill) {
+        SimpleDecoder dec = new SimpleDecoder(proposal.getEncoded());
+        this.proof = dec.readBytes();
+        this.blockHeader = dec.readBytes();
+        this.signature = proposal.getSignature().toBytes();
+
+        List<Transaction> txs = proposal.getTransactions();
+        this.shortIds = new long[txs.size()];
+        this.transactions = new Transaction[txs.size()];
+        this.fromPool = new BitSet();
+        for (int i = 0; i < txs.size(); i++) {
+            shortIds[i] = shortId(txs.get(i).getHash());
+            if (prefill.test(txs.get(i))) {
+                transactions[i] = txs.get(i);
+            }
+        }
+
+        this.height = proposal.getHeight();
+        this.view = proposal.getView();
+        this.blockHash = proposal.getBlockHeader().getHash();
+    }
+
+    /**
+     * Parses a compact proposal from byte array.
+     *
+     * @param bytes
+     */
+    public CompactProposal(byte[] bytes) {
+        SimpleDecoder dec = new SimpleDecoder(bytes);
+        this.proof = dec.readBytes();
+        this.blockHeader = dec.readBytes();
+        this.signature = dec.readBytes();
+
+        int n = dec.readInt();
+        if (n < 0 || n > MAX_TRANSACTIONS) {
+            throw new IllegalArgumentException("Invalid number of transactions: " + n);
+        }
+        this.shortIds = new long[n];
+        for (int i = 0; i < n; i++) {
+            shortIds[i] = dec.readLong();
+        }
+
+        this.transactions = new Transaction[n];
+        this.fromPool = new BitSet();
+        for (int i = 0, size = dec.readInt(); i < size && i < n; i++) {
+            int index = dec.readInt();
+            transactions[index] = Transaction.fromBytes(dec.readBytes());
+        }
+
+        Proof p = Proof.fromBytes(proof);
+        this.height = p.getHeight();
+        this.view = p.getView();
+        this.blockHash = BlockHeader.fromBytes(blockHeader).getHash();
+    }
+
+    public byte[] toBytes() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(proof);
+        enc.writeBytes(blockHeader);
+        enc.writeBytes(signature);
+
+        enc.writeInt(shortIds.length);
+        for (long id : shortIds) {
+            enc.writeLong(id);
+        }
+
+        List<Integer> prefilled = new ArrayList<>();
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] != null && !fromPool.get(i)) {
+                prefilled.add(i);
+            }
+        }
+        enc.writeInt(prefilled.size());
+        for (int i : prefilled) {
+            enc.writeInt(i);
+            enc.writeBytes(transactions[i].toBytes());
+        }
+
+        return enc.toBytes();
+    }
+
+    /**
+     * Fills the missing transactions from the given pool.
+     *
+     * @param pool
+     *            looks up a pending transaction by short ID
+     * @return the indices of the transactions still missing
+     */
+    public synchronized List<Integer> fill(LongFunction<Transaction> pool) {
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] == null && (transactions[i] = pool.apply(shortIds[i])) != null) {
+                fromPool.set(i);
+            }
+        }
+
+        return getMissing();
+    }
+
+    /**
+     * Fills the transaction at the given index.
+     *
+     * @param index
+     * @param tx
+     * @return true if the transaction matches the short ID, otherwise false
+     */
+    public synchronized boolean fill(int index, Transaction tx) {
+        if (index < 0 || index >= transactions.length || shortIds[index] != shortId(tx.getHash())) {
+            return false;
+        }
+
+        transactions[index] = tx;
+        fromPool.clear(index);
+        return true;
+    }
+
+    /**
+     * Discards the transactions filled from the local pool, in case of a short ID
+     * collision.
+     *
+     * @return the indices of the discarded transactions
+     */
+    public synchronized List<Integer> discardPoolTransactions() {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = fromPool.nextSetBit(0); i >= 0; i = fromPool.nextSetBit(i + 1)) {
+            transactions[i] = null;
+            indices.add(i);
+        }
+        fromPool.clear();
+        return indices;
+    }
+
+    /**
+     * Returns the indices of the missing transactions.
+     *
+     * @return
+     */
+    public synchronized List<Integer> getMissing() {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] == null) {
+                indices.add(i);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Rebuilds the proposal, once all transactions are filled.
+     *
+     * @return the proposal, whose signature is not verified yet
+     */
+    public synchronized Proposal toProposal() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(proof);
+        enc.writeBytes(blockHeader);
+        enc.writeInt(transactions.length);
+        for (Transaction tx : transactions) {
+            enc.writeBytes(tx.toBytes());
+        }
+
+        return new Proposal(enc.toBytes(), signature);
+    }
+
+    public long getHeight() {
+        return height;
+    }
+
+    public int getView() {
+        return view;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public int size() {
+        return shortIds.length;
+    }
+
+    /**
+     * Returns the short ID of a transaction, which is the first 8 bytes of its
+     * hash.
+     *
+     * @param hash
+     * @return
+     */
+    public static long shortId(byte[] hash) {
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = (id << 8) | (hash[i] & 0xffL);
+        }
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactProposal [height = " + height + ", view = " + view + ", # txs = " + shortIds.length
+                + ", # missing = " + Arrays.stream(transactions).filter(tx -> tx == null).count() + "]";
+    }
+}
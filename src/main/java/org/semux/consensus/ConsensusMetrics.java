@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.semux.consensus.SemuxBft.State;
+import org.semux.util.Histogram;
+import org.semux.util.TimeUtil;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Collects the timing of the consensus phases into latency histograms, and
+ * emits them as JFR events when a flight recording is running.
+ * <p>
+ * The per-height and per-view bookkeeping is only updated from the consensus
+ * thread; the histograms can be read from any thread.
+ */
+public class ConsensusMetrics {
+
+    private final Map<State, Histogram> states = new EnumMap<>(State.class);
+    private final Map<VoteType, Histogram> quorums = new EnumMap<>(VoteType.class);
+    private final Histogram firstProposal = new Histogram("first_proposal");
+    private final Histogram proposalBuild = new Histogram("proposal_build");
+    private final Histogram proposalValidation = new Histogram("proposal_validation");
+    private final AtomicLong viewChanges = new AtomicLong(0);
+
+    private long height;
+    private int view;
+    private long heightStart;
+    private long viewStart;
+    private boolean proposed;
+    private final Set<VoteType> quorumsReached = EnumSet.noneOf(VoteType.class);
+
+    public ConsensusMetrics() {
+        for (State s : State.values()) {
+            states.put(s, new Histogram("state_" + s.name().toLowerCase()));
+        }
+        for (VoteType t : VoteType.values()) {
+            quorums.put(t, new Histogram("quorum_" + t.name().toLowerCase()));
+        }
+    }
+
+    /**
+     * Records the time spent in a state.
+     *
+     * @param state
+     * @param duration
+     *            the duration in milliseconds
+     */
+    public void onState(State state, long duration) {
+        states.get(state).record(duration);
+
+        StateEvent e = new StateEvent();
+        if (e.shouldCommit()) {
+            e.height = height;
+            e.view = view;
+            e.state = state.name();
+            e.duration = duration;
+            e.commit();
+        }
+    }
+
+    /**
+     * Starts timing a new height.
+     *
+     * @param height
+     */
+    public void onNewHeight(long height) {
+        this.height = height;
+        this.view = 0;
+        this.heightStart = this.viewStart = TimeUtil.currentTimeMillis();
+        this.proposed = false;
+        this.quorumsReached.clear();
+    }
+
+    /**
+     * Starts timing a view, counting a view change if the view number has
+     * increased. Re-entering the same view keeps the current timing.
+     *
+     * @param view
+     */
+    public void onView(int view) {
+        if (view == this.view && viewStart != 0) {
+            return;
+        }
+
+        if (view > this.view) {
+            viewChanges.incrementAndGet();
+
+            ViewChangeEvent e = new ViewChangeEvent();
+            if (e.shouldCommit()) {
+                e.height = height;
+                e.fromView = this.view;
+                e.toView = view;
+                e.commit();
+            }
+        }
+
+        this.view = view;
+        this.viewStart = TimeUtil.currentTimeMillis();
+        this.quorumsReached.clear();
+    }
+
+    /**
+     * Records the time to the first proposal of the current height.
+     */
+    public void onProposal() {
+        if (proposed || heightStart == 0) {
+            return;
+        }
+        proposed = true;
+
+        long duration = TimeUtil.currentTimeMillis() - heightStart;
+        firstProposal.record(duration);
+
+        ProposalEvent e = new ProposalEvent();
+        if (e.shouldCommit()) {
+            e.height = height;
+            e.view = view;
+            e.duration = duration;
+            e.commit();
+        }
+    }
+
+    /**
+     * Records the time to +2/3 votes of the given type, once per view.
+     *
+     * @param votes
+     *            the vote set of the current view
+     * @param type
+     */
+    public void onVotes(VoteSet votes, VoteType type) {
+        if (viewStart == 0 || quorumsReached.contains(type)
+                || !votes.isRejected() && !votes.anyApproved().isPresent()) {
+            return;
+        }
+        quorumsReached.add(type);
+
+        long duration = TimeUtil.currentTimeMillis() - viewStart;
+        quorums.get(type).record(duration);
+
+        QuorumEvent e = new QuorumEvent();
+        if (e.shouldCommit()) {
+            e.height = height;
+            e.view = view;
+            e.voteType = type.name();
+            e.duration = duration;
+            e.commit();
+        }
+    }
+
+    /**
+     * Records the time to build a block proposal.
+     *
+     * @param duration
+     *            the duration in milliseconds
+     */
+    public void onProposalBuilt(long duration) {
+        proposalBuild.record(duration);
+    }
+
+    /**
+     * Records the time to validate a block proposal.
+     *
+     * @param duration
+     *            the duration in milliseconds
+     */
+    public void onProposalValidated(long duration) {
+        proposalValidation.record(duration);
+    }
+
+    /**
+     * Stops timing until the next height, e.g. while syncing.
+     */
+    public void pause() {
+        this.heightStart = this.viewStart = 0;
+    }
+
+    /**
+     * Returns the number of view changes.
+     *
+     * @return
+     */
+    public long getViewChanges() {
+        return viewChanges.get();
+    }
+
+    /**
+     * Returns all histograms, in a stable order.
+     *
+     * @return
+     */
+    public List<Histogram> getHistograms() {
+        List<Histogram> list = new ArrayList<>(states.values());
+        list.add(firstProposal);
+        list.addAll(quorums.values());
+        list.add(proposalBuild);
+        list.add(proposalValidation);
+        return Collections.unmodifiableList(list);
+    }
+
+    @Name("org.semux.consensus.State")
+    @Label("Consensus State")
+    @Category({ "Semux", "Consensus" })
+    @StackTrace(false)
+    static class StateEvent extends Event {
+        @Label("Height")
+        long height;
+
+        @Label("View")
+        int view;
+
+        @Label("State")
+        String state;
+
+        @Label("Time in State")
+        @Timespan(Timespan.MILLISECONDS)
+        long duration;
+    }
+
+    @Name("org.semux.consensus.Proposal")
+    @Label("First Proposal")
+    @Category({ "Semux", "Consensus" })
+    @StackTrace(false)
+    static class ProposalEvent extends Event {
+        @Label("Height")
+        long height;
+
+        @Label("View")
+        int view;
+
+        @Label("Time to Proposal")
+        @Timespan(Timespan.MILLISECONDS)
+        long duration;
+    }
+
+    @Name("org.semux.consensus.Quorum")
+    @Label("Vote Quorum")
+    @Category({ "Semux", "Consensus" })
+    @StackTrace(false)
+    static class QuorumEvent extends Event {
+        @Label("Height")
+        long height;
+
+        @Label("View")
+        int view;
+
+        @Label("Vote Type")
+        String voteType;
+
+        @Label("Time to Quorum")
+        @Timespan(Timespan.MILLISECONDS)
+        long duration;
+    }
+
+    @Name("org.semux.consensus.ViewChange")
+    @Label("View Change")
+    @Category({ "Semux", "Consensus" })
+    @StackTrace(false)
+    static class ViewChangeEvent extends Event {
+        @Label("Height")
+        long height;
+
+        @Label("From View")
+        int fromView;
+
+        @Label("To View")
+        int toView;
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.semux.consensus.SemuxBft.Event;
+import org.semux.crypto.Hash;
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+
+/**
+ * A bounded queue of BFT events, which are taken by priority: STOP and TIMEOUT
+ * first, then proposals and new views, new heights, votes of the current view,
+ * and votes of future views last.
+ * <p>
+ * Events for past heights or views, which the event loop would ignore anyway,
+ * are dropped, and so are duplicates of queued events. When the queue is full,
+ * the newest event of the lowest priority is dropped. STOP and TIMEOUT events
+ * are never dropped.
+ */
+public class EventQueue {
+
+    private static final int PRIORITIES = 5;
+
+    private final int capacity;
+
+    private final List<ArrayDeque<Event>> queues = new ArrayList<>();
+    private final Set<ByteArray> keys = new HashSet<>();
+    private int size = 0;
+
+    private long height = 0;
+    private int view = 0;
+
+    private final AtomicLong staleDropped = new AtomicLong(0);
+    private final AtomicLong duplicateDropped = new AtomicLong(0);
+    private final AtomicLong overflowDropped = new AtomicLong(0);
+
+    /**
+     * Creates an event queue.
+     *
+     * @param capacity
+     *            the max number of events, not counting STOP and TIMEOUT events
+     */
+    public EventQueue(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < PRIORITIES; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Adds an event, unless it's stale, a duplicate, or of a lower priority than
+     * all queued events while the queue is full.
+     *
+     * @param ev
+     * @return true if the event has been added, otherwise false
+     */
+    public synchronized boolean offer(Event ev) {
+        int priority = priority(ev);
+        if (priority == 0) {
+            queues.get(0).add(ev);
+            notifyAll();
+            return true;
+        }
+
+        if (isStale(ev)) {
+            staleDropped.incrementAndGet();
+            return false;
+        }
+
+        ByteArray key = key(ev);
+        if (key != null && keys.contains(key)) {
+            duplicateDropped.incrementAndGet();
+            return false;
+        }
+
+        if (size >= capacity && !evict(priority)) {
+            overflowDropped.incrementAndGet();
+            return false;
+        }
+
+        queues.get(priority).add(ev);
+        if (key != null) {
+            keys.add(key);
+        }
+        size++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Takes the event of the highest priority, waiting if necessary. Events which
+     * became stale while queued are dropped.
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized Event take() throws InterruptedException {
+        while (true) {
+            Event ev = poll();
+            if (ev == null) {
+                wait();
+            } else if (priority(ev) != 0 && isStale(ev)) {
+                staleDropped.incrementAndGet();
+            } else {
+                return ev;
+            }
+        }
+    }
+
+    /**
+     * Updates the current height and view, which determine the stale events.
+     *
+     * @param height
+     * @param view
+     */
+    public synchronized void update(long height, int view) {
+        this.height = height;
+        this.view = view;
+    }
+
+    /**
+     * Removes all events matching the given predicate.
+     *
+     * @param filter
+     */
+    public synchronized void removeIf(Predicate<Event> filter) {
+        for (int i = 0; i < PRIORITIES; i++) {
+            for (Iterator<Event> it = queues.get(i).iterator(); it.hasNext();) {
+                Event ev = it.next();
+                if (filter.test(ev)) {
+                    it.remove();
+                    removed(ev, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all events.
+     */
+    public synchronized void clear() {
+        queues.forEach(ArrayDeque::clear);
+        keys.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of queued events.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return size + queues.get(0).size();
+    }
+
+    /**
+     * Returns the number of events dropped for past heights or views.
+     *
+     * @return
+     */
+    public long getStaleDropped() {
+        return staleDropped.get();
+    }
+
+    /**
+     * Returns the number of duplicate events dropped.
+     *
+     * @return
+     */
+    public long getDuplicateDropped() {
+        return duplicateDropped.get();
+    }
+
+    /**
+     * Returns the number of events dropped because the queue was full.
+     *
+     * @return
+     */
+    public long getOverflowDropped() {
+        return overflowDropped.get();
+    }
+
+    private Event poll() {
+        for (int i = 0; i < PRIORITIES; i++) {
+            Event ev = queues.get(i).poll();
+            if (ev != null) {
+                removed(ev, i);
+                return ev;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evicts the newest event of the lowest priority, if lower than the given one.
+     */
+    private boolean evict(int priority) {
+        for (int i = PRIORITIES - 1; i > priority; i--) {
+            Event ev = queues.get(i).pollLast();
+            if (ev != null) {
+                removed(ev, i);
+                overflowDropped.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removed(Event ev, int priority) {
+        if (priority != 0) {
+            ByteArray key = key(ev);
+            if (key != null) {
+                keys.remove(key);
+            }
+            size--;
+        }
+    }
+
+    private int priority(Event ev) {
+        switch (ev.getType()) {
+        case STOP:
+        case TIMEOUT:
+            return 0;
+        case PROPOSAL:
+        case NEW_VIEW:
+            return 1;
+        case NEW_HEIGHT:
+            return 2;
+        case VOTE:
+            Vote v = ev.getData();
+            return v.getHeight() == height && v.getView() == view ? 3 : 4;
+        default:
+            return PRIORITIES - 1;
+        }
+    }
+
+    private boolean isStale(Event ev) {
+        switch (ev.getType()) {
+        case NEW_HEIGHT: {
+            long h = ev.getData();
+            return h <= height;
+        }
+        case NEW_VIEW: {
+            Proof p = ev.getData();
+            return isStale(p.getHeight(), p.getView());
+        }
+        case PROPOSAL: {
+            Proposal p = ev.getData();
+            return isStale(p.getHeight(), p.getView());
+        }
+        case VOTE: {
+            Vote v = ev.getData();
+            return isStale(v.getHeight(), v.getView());
+        }
+        default:
+            return false;
+        }
+    }
+
+    private boolean isStale(long height, int view) {
+        return height < this.height || height == this.height && view < this.view;
+    }
+
+    /**
+     * Returns the key which identifies duplicates of an event: the type, signer,
+     * height and view of proposals and votes, the height of new heights, and the
+     * proof of new views, as any valid one will do.
+     */
+    private ByteArray key(Event ev) {
+        byte[] type = { (byte) ev.getType().ordinal() };
+        switch (ev.getType()) {
+        case NEW_HEIGHT: {
+            long h = ev.getData();
+            return ByteArray.of(Bytes.merge(type, Bytes.of(h)));
+        }
+        case NEW_VIEW: {
+            Proof p = ev.getData();
+            return ByteArray.of(Bytes.merge(type, Hash.h256(p.toBytes())));
+        }
+        case PROPOSAL: {
+            Proposal p = ev.getData();
+            return ByteArray.of(Bytes.merge(type, Bytes.of(p.getHeight()), Bytes.of(p.getView()),
+                    p.getSignature().getAddress()));
+        }
+        case VOTE: {
+            Vote v = ev.getData();
+            return ByteArray.of(Bytes.merge(type, new byte[] { v.getType().toByte() }, Bytes.of(v.getHeight()),
+                    Bytes.of(v.getView()), v.getSignature().getAddress()));
+        }
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.semux.core.Block;
+import org.semux.net.Channel;
+
+/**
+ * The skeleton of the chain ahead of the local tip, built from block headers
+ * before the block bodies are downloaded.
+ * <p>
+ * Headers are linked to the tip in order, by their parent hashes. A linked
+ * header becomes verified once a later header of the same validator period,
+ * downloaded with its votes, passes the vote check. Only verified headers are
+ * used to download and check block bodies, so that a peer serving a forged
+ * skeleton is detected before any body is requested.
+ * <p>
+ * The headers are stored as blocks without transactions. This class is not
+ * thread-safe.
+ */
+public class HeaderSkeleton {
+
+    // headers which were received but are not connected to the tip yet
+    private final TreeMap<Long, Pair<Block, Channel>> unlinked = new TreeMap<>();
+
+    // headers which are connected to the tip by their parent hashes
+    private final TreeMap<Long, Pair<Block, Channel>> linked = new TreeMap<>();
+
+    private long tip;
+    private byte[] tipHash;
+
+    private long verified;
+    private byte[] verifiedHash;
+
+    /**
+     * Clears the skeleton and starts it from the given block.
+     *
+     * @param number
+     *            the number of the latest block in the chain
+     * @param hash
+     *            the hash of the latest block in the chain
+     */
+    public void reset(long number, byte[] hash) {
+        unlinked.clear();
+        linked.clear();
+        tip = verified = number;
+        tipHash = verifiedHash = hash;
+    }
+
+    /**
+     * Adds a received header.
+     *
+     * @param header
+     *            the header as a block, with votes if they were requested
+     * @param channel
+     *            the channel that sent the header
+     * @return true if the header was added, false if it is already known
+     */
+    public boolean add(Block header, Channel channel) {
+        long number = header.getNumber();
+        if (number <= tip || unlinked.containsKey(number)) {
+            return false;
+        }
+
+        unlinked.put(number, Pair.of(header, channel));
+        return true;
+    }
+
+    /**
+     * Links the received headers to the tip, as far as possible.
+     * <p>
+     * A header which does not link to a verified tip is certainly invalid, and its
+     * sender is returned. If the tip is not verified yet, either side could be
+     * wrong: the unverified part of the skeleton is dropped and downloaded again,
+     * and the forged side is caught by the vote check. The sender of the header
+     * which broke the link is still reported as a suspect, to be down-scored.
+     *
+     * @param suspects
+     *            the list to add the senders of headers which do not link to an
+     *            unverified tip to
+     * @return the channels which sent invalid headers
+     */
+    public List<Channel> link(List<Channel> suspects) {
+        List<Channel> bad = new ArrayList<>();
+
+        Pair<Block, Channel> p;
+        while ((p = unlinked.remove(tip + 1)) != null) {
+            Block header = p.getKey();
+
+            if (!header.getHeader().validate() || !Arrays.equals(header.getParentHash(), tipHash)) {
+                if (tip == verified) {
+                    bad.add(p.getValue());
+                    discard(p.getValue());
+                } else {
+                    suspects.add(p.getValue());
+                    rollback();
+                }
+                continue;
+            }
+
+            linked.put(header.getNumber(), p);
+            tip = header.getNumber();
+            tipHash = header.getHash();
+        }
+
+        return bad;
+    }
+
+    /**
+     * Verifies the votes of the latest linked header with votes, up to the given
+     * bound. On success, the header and all linked headers before it are verified.
+     * On failure, the unverified part of the skeleton is dropped.
+     *
+     * @param bound
+     *            the last block which can be verified with the current validator
+     *            set
+     * @param validator
+     *            the vote check
+     * @return the channel which sent a header with invalid votes, or null
+     */
+    public Channel verify(long bound, Predicate<Block> validator) {
+        if (bound <= verified) {
+            return null;
+        }
+
+        for (Map.Entry<Long, Pair<Block, Channel>> e : linked.subMap(verified, false, bound, true)
+                .descendingMap().entrySet()) {
+            Block header = e.getValue().getKey();
+            if (header.getVotes().isEmpty()) {
+                continue;
+            }
+
+            if (validator.test(header)) {
+                verified = header.getNumber();
+                verifiedHash = header.getHash();
+                return null;
+            } else {
+                Channel channel = e.getValue().getValue();
+                rollback();
+                discard(channel);
+                return channel;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the headers of the blocks which have been imported.
+     *
+     * @param number
+     *            the number of the latest block in the chain
+     */
+    public void prune(long number) {
+        linked.headMap(number, true).clear();
+        unlinked.headMap(number, true).clear();
+    }
+
+    /**
+     * Returns a verified header.
+     *
+     * @param number
+     * @return the header as a block, or null if it is not verified
+     */
+    public Block get(long number) {
+        if (number > verified) {
+            return null;
+        }
+
+        Pair<Block, Channel> p = linked.get(number);
+        return p == null ? null : p.getKey();
+    }
+
+    /**
+     * Returns whether a header has been received, linked or not.
+     *
+     * @param number
+     * @return
+     */
+    public boolean contains(long number) {
+        return linked.containsKey(number) || unlinked.containsKey(number);
+    }
+
+    /**
+     * Returns the number of the last linked header.
+     *
+     * @return
+     */
+    public long getTip() {
+        return tip;
+    }
+
+    /**
+     * Returns the number of the last verified header.
+     *
+     * @return
+     */
+    public long getVerified() {
+        return verified;
+    }
+
+    /**
+     * Returns the number of headers held, linked or not.
+     *
+     * @return
+     */
+    public int size() {
+        return linked.size() + unlinked.size();
+    }
+
+    private void rollback() {
+        linked.tailMap(verified, false).clear();
+        tip = verified;
+        tipHash = verifiedHash;
+    }
+
+    private void discard(Channel channel) {
+        unlinked.values().removeIf(p -> p.getValue() == channel);
+    }
+}
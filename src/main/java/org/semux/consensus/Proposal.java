@@ -117,6 +117,15 @@ public class Proposal {
         return signature;
     }
 
+    /**
+     * Returns the signed encoding of this proposal.
+     *
+     * @return
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
     public byte[] toBytes() {
         SimpleEncoder enc = new SimpleEncoder();
         enc.writeBytes(encoded);
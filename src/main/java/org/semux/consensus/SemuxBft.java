@@ -8,13 +8,24 @@ package org.semux.consensus;
 
 import static org.semux.core.Fork.UNIFORM_DISTRIBUTION;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.ethereum.vm.client.BlockStore;
@@ -27,6 +38,7 @@ import org.semux.core.BftManager;
 import org.semux.core.Block;
 import org.semux.core.BlockHeader;
 import org.semux.core.Blockchain;
+import org.semux.core.BlockchainListener;
 import org.semux.core.PendingManager;
 import org.semux.core.SyncManager;
 import org.semux.core.Transaction;
@@ -34,18 +46,22 @@ import org.semux.core.TransactionExecutor;
 import org.semux.core.TransactionResult;
 import org.semux.core.state.AccountState;
 import org.semux.core.state.DelegateState;
-import org.semux.crypto.Hash;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
 import org.semux.crypto.Key.Signature;
+import org.semux.net.Capability;
 import org.semux.net.Channel;
 import org.semux.net.ChannelManager;
+import org.semux.net.msg.EncodedMessage;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.MessageCode;
 import org.semux.net.msg.ReasonCode;
+import org.semux.net.msg.consensus.CompactProposalMessage;
+import org.semux.net.msg.consensus.GetProposalTransactionsMessage;
 import org.semux.net.msg.consensus.NewHeightMessage;
 import org.semux.net.msg.consensus.NewViewMessage;
 import org.semux.net.msg.consensus.ProposalMessage;
+import org.semux.net.msg.consensus.ProposalTransactionsMessage;
 import org.semux.net.msg.consensus.VoteMessage;
 import org.semux.util.ArrayUtil;
 import org.semux.util.ByteArray;
@@ -66,10 +82,13 @@ import com.github.benmanes.caffeine.cache.Caffeine;
  * maintained in the engine and are updated only by the event loop.
  * <p>
  * Asides the main event hub, there are complementary threads:
- * <code>timer</code> and <code>broadcaster</code>. The <code>timer</code>
- * thread emits a TIMEOUT event when the internal timer times out. The
- * <code>broadcaster</code> thread is responsible for relaying BFT messages to
- * peers.
+ * <code>timer</code>, <code>broadcaster</code>, <code>verifier</code> and
+ * <code>builder</code>. The <code>timer</code> thread emits a TIMEOUT event
+ * when the internal timer times out. The <code>broadcaster</code> thread is
+ * responsible for relaying BFT messages to peers. The <code>verifier</code>
+ * thread verifies the votes of incoming messages in batches, before they are
+ * delivered as events. The <code>builder</code> thread keeps a block template
+ * ready for when this node becomes the primary.
  * <p>
  * The BFT engine may be one of the following status:
  * <ul>
@@ -91,6 +110,11 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 public class SemuxBft implements BftManager {
     private static final Logger logger = LoggerFactory.getLogger(SemuxBft.class);
 
+    private static final long COMPACT_PROPOSAL_TIMEOUT = 2000;
+    private static final long COMPACT_PROPOSAL_RETRY = 500;
+
+    private static final int MAX_QUEUED_EVENTS = 16 * 1024;
+
     protected Kernel kernel;
     protected Config config;
 
@@ -105,19 +129,29 @@ public class SemuxBft implements BftManager {
 
     protected Timer timer;
     protected Broadcaster broadcaster;
-    protected BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    protected Verifier verifier;
+    protected Builder builder;
+    protected EventQueue events = new EventQueue(MAX_QUEUED_EVENTS);
 
     protected Status status;
     protected State state;
 
-    protected long height;
-    protected int view;
+    // also read by the block builder thread
+    protected volatile long height;
+    protected volatile int view;
     protected Proof proof;
     protected Proposal proposal;
 
-    protected Cache<ByteArray, Block> validBlocks = Caffeine.newBuilder().maximumSize(8).build();
+    protected Cache<ByteArray, ValidBlock> validBlocks = Caffeine.newBuilder().maximumSize(8).build();
+
+    // proposals broadcast recently, which are served to peers rebuilding them from
+    // compact proposals, and the compact proposals being rebuilt
+    protected Cache<ByteArray, Proposal> proposals = Caffeine.newBuilder().maximumSize(8).build();
+    protected Cache<ByteArray, ProposalRebuild> compactProposals = Caffeine.newBuilder().maximumSize(8)
+            .expireAfterWrite(COMPACT_PROPOSAL_TIMEOUT, TimeUnit.MILLISECONDS).build();
 
     protected List<String> validators;
+    protected ValidatorSet validatorSet;
     protected List<Channel> activeValidators;
     protected long lastUpdate;
 
@@ -125,6 +159,12 @@ public class SemuxBft implements BftManager {
     protected VoteSet precommitVotes;
     protected VoteSet commitVotes;
 
+    // adaptive timeouts of the states that advance on quorum, if enabled
+    protected Map<State, AdaptiveTimeout> timeouts = new EnumMap<>(State.class);
+    protected long stateStart;
+
+    protected ConsensusMetrics metrics = new ConsensusMetrics();
+
     public SemuxBft(Kernel kernel) {
         this.kernel = kernel;
         this.config = kernel.getConfig();
@@ -138,9 +178,18 @@ public class SemuxBft implements BftManager {
 
         this.timer = new Timer();
         this.broadcaster = new Broadcaster();
+        this.verifier = new Verifier();
+        this.builder = new Builder();
+        this.chain.addListener(builder);
 
         this.status = Status.STOPPED;
         this.state = State.NEW_HEIGHT;
+
+        if (config.bftAdaptiveTimeout()) {
+            timeouts.put(State.PROPOSE, new AdaptiveTimeout(config.bftMinTimeout(), config.bftProposeTimeout()));
+            timeouts.put(State.VALIDATE, new AdaptiveTimeout(config.bftMinTimeout(), config.bftValidateTimeout()));
+            timeouts.put(State.PRE_COMMIT, new AdaptiveTimeout(config.bftMinTimeout(), config.bftPreCommitTimeout()));
+        }
     }
 
     /**
@@ -155,6 +204,10 @@ public class SemuxBft implements BftManager {
             clearVotes();
             clearTimerAndEvents();
 
+            // the time spent syncing is not part of any state
+            stateStart = 0;
+            metrics.pause();
+
             // start syncing
             syncMgr.start(target);
 
@@ -221,6 +274,8 @@ public class SemuxBft implements BftManager {
             status = Status.RUNNING;
             timer.start();
             broadcaster.start();
+            verifier.start();
+            builder.start();
             logger.info("Semux BFT manager started");
 
             enterNewHeight();
@@ -240,6 +295,8 @@ public class SemuxBft implements BftManager {
 
             timer.stop();
             broadcaster.stop();
+            verifier.stop();
+            builder.stop();
 
             status = Status.STOPPED;
             Event ev = new Event(Type.STOP);
@@ -254,11 +311,20 @@ public class SemuxBft implements BftManager {
         return status == Status.RUNNING;
     }
 
+    /**
+     * Returns the timing metrics of the consensus phases.
+     *
+     * @return
+     */
+    public ConsensusMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Enter the NEW_HEIGHT state
      */
     protected void enterNewHeight() {
-        state = State.NEW_HEIGHT;
+        setState(State.NEW_HEIGHT);
 
         // update previous block
         Block prevBlock = chain.getLatestBlock();
@@ -268,6 +334,7 @@ public class SemuxBft implements BftManager {
         view = 0;
         proof = new Proof(height, view);
         proposal = null;
+        metrics.onNewHeight(height);
 
         // update validators
         updateValidators();
@@ -276,7 +343,11 @@ public class SemuxBft implements BftManager {
         clearVotes();
         clearTimerAndEvents();
 
+        events.update(height, view);
+
         logger.info("Entered new_height: height = {}, # validators = {}", height, validators.size());
+        logger.debug("Event queue: depth = {}, dropped = {} stale + {} duplicate + {} overflow", events.size(),
+                events.getStaleDropped(), events.getDuplicateDropped(), events.getOverflowDropped());
         if (isValidator()) {
             if (this.config.network() == Network.MAINNET && !SystemUtil.bench()) {
                 logger.error("You need to upgrade your computer to join the BFT consensus!");
@@ -286,9 +357,13 @@ public class SemuxBft implements BftManager {
         }
 
         // Broadcast NEW_HEIGHT messages to ALL peers.
-        NewHeightMessage msg = new NewHeightMessage(height);
-        for (Channel c : channelMgr.getActiveChannels()) {
-            c.getMessageQueue().sendMessage(msg);
+        EncodedMessage msg = EncodedMessage.of(new NewHeightMessage(height));
+        try {
+            for (Channel c : channelMgr.getActiveChannels()) {
+                c.getMessageQueue().sendMessage(msg.retainedDuplicate());
+            }
+        } finally {
+            msg.release();
         }
     }
 
@@ -296,8 +371,8 @@ public class SemuxBft implements BftManager {
      * Enter the PROPOSE state
      */
     protected void enterPropose() {
-        state = State.PROPOSE;
-        resetTimeout(config.bftProposeTimeout());
+        setState(State.PROPOSE);
+        resetTimeout(getTimeout(State.PROPOSE, config.bftProposeTimeout()));
 
         updateValidators();
 
@@ -308,13 +383,23 @@ public class SemuxBft implements BftManager {
             proposal = null;
             clearVotes();
         }
+        events.update(height, view);
+        metrics.onView(view);
 
         logger.info("Entered propose: height = {}, view = {}, primary = {}, # connected validators = 1 + {}", height,
                 view, isPrimary(), activeValidators.size());
 
         if (isPrimary()) {
             if (proposal == null) {
-                Block block = proposeBlock();
+                Block block = builder.getBlock(chain.getBlockHeader(height - 1));
+                if (block == null) {
+                    // only the blocks built while proposing are measured, not the templates
+                    long t1 = TimeUtil.currentTimeMillis();
+                    block = proposeBlock();
+                    metrics.onProposalBuilt(TimeUtil.currentTimeMillis() - t1);
+                } else {
+                    logger.debug("Using block template: # txs = {}", block.getTransactions().size());
+                }
                 proposal = new Proposal(proof, block.getHeader(), block.getTransactions());
                 proposal.sign(coinbase);
             }
@@ -322,20 +407,29 @@ public class SemuxBft implements BftManager {
             logger.debug("Proposing: {}", proposal);
             broadcaster.broadcast(new ProposalMessage(proposal));
         }
+        if (proposal != null) {
+            metrics.onProposal();
+        }
 
         // broadcast NEW_VIEW messages.
-        NewViewMessage msg = new NewViewMessage(proof);
-        for (Channel c : activeValidators) {
-            c.getMessageQueue().sendMessage(msg);
+        EncodedMessage msg = EncodedMessage.of(new NewViewMessage(proof));
+        try {
+            for (Channel c : activeValidators) {
+                c.getMessageQueue().sendMessage(msg.retainedDuplicate());
+            }
+        } finally {
+            msg.release();
         }
+
+        advance();
     }
 
     /**
      * Enter the VALIDATE state
      */
     protected void enterValidate() {
-        state = State.VALIDATE;
-        resetTimeout(config.bftValidateTimeout());
+        setState(State.VALIDATE);
+        resetTimeout(getTimeout(State.VALIDATE, config.bftValidateTimeout()));
         logger.info("Entered validate: proposal = {}, votes = {} {} {}", proposal != null, validateVotes,
                 precommitVotes, commitVotes);
 
@@ -350,15 +444,18 @@ public class SemuxBft implements BftManager {
 
         // always broadcast vote directly.
         validateVotes.addVote(vote);
+        metrics.onVotes(validateVotes, VoteType.VALIDATE);
         broadcaster.broadcast(new VoteMessage(vote));
+
+        advance();
     }
 
     /**
      * Enter the PRE_COMMIT state
      */
     protected void enterPreCommit() {
-        state = State.PRE_COMMIT;
-        resetTimeout(config.bftPreCommitTimeout());
+        setState(State.PRE_COMMIT);
+        resetTimeout(getTimeout(State.PRE_COMMIT, config.bftPreCommitTimeout()));
         logger.info("Entered pre_commit: proposal = {}, votes = {} {} {}", proposal != null, validateVotes,
                 precommitVotes, commitVotes);
 
@@ -370,14 +467,17 @@ public class SemuxBft implements BftManager {
 
         // always broadcast vote directly.
         precommitVotes.addVote(vote);
+        metrics.onVotes(precommitVotes, VoteType.PRECOMMIT);
         broadcaster.broadcast(new VoteMessage(vote));
+
+        advance();
     }
 
     /**
      * Enter the COMMIT state
      */
     protected void enterCommit() {
-        state = State.COMMIT;
+        setState(State.COMMIT);
         resetTimeout(config.bftCommitTimeout());
         logger.info("Entered commit: proposal = {}, votes = {} {} {}", proposal != null, validateVotes, precommitVotes,
                 commitVotes);
@@ -392,6 +492,7 @@ public class SemuxBft implements BftManager {
 
             // always broadcast vote directly.
             commitVotes.addVote(vote);
+            metrics.onVotes(commitVotes, VoteType.COMMIT);
             broadcaster.broadcast(new VoteMessage(vote));
         }
     }
@@ -405,14 +506,16 @@ public class SemuxBft implements BftManager {
             return;
         }
 
-        state = State.FINALIZE;
+        setState(State.FINALIZE);
         resetTimeout(config.bftFinalizeTimeout());
         logger.info("Entered finalize: proposal = {}, votes = {} {} {}", proposal != null, validateVotes,
                 precommitVotes, commitVotes);
 
         Optional<byte[]> blockHash = precommitVotes.anyApproved();
-        Block block;
-        if (blockHash.isPresent() && (block = validBlocks.getIfPresent(ByteArray.of(blockHash.get()))) != null) {
+        ValidBlock valid;
+        if (blockHash.isPresent() && (valid = validBlocks.getIfPresent(ByteArray.of(blockHash.get()))) != null) {
+            Block block = valid.block;
+
             // [1] update view and votes
             List<Signature> votes = new ArrayList<>();
             for (Vote vote : precommitVotes.getApprovals(blockHash.get())) {
@@ -421,9 +524,12 @@ public class SemuxBft implements BftManager {
             block.setView(view);
             block.setVotes(votes);
 
-            // [2] add the block to chain
+            // [2] add the block to chain, committing the state of validation
             logger.info(block.toString());
-            chain.importBlock(block, false);
+            chain.importBlock(block, valid.asTrack, valid.dsTrack);
+
+            // the other validated blocks are based on the previous state
+            validBlocks.invalidateAll();
         } else {
             sync(height + 1);
         }
@@ -435,6 +541,21 @@ public class SemuxBft implements BftManager {
         events.removeIf(e -> e.type == Type.TIMEOUT);
     }
 
+    /**
+     * Changes the state, recording the time spent in the previous one.
+     *
+     * @param next
+     */
+    protected void setState(State next) {
+        long now = TimeUtil.currentTimeMillis();
+        if (stateStart != 0) {
+            metrics.onState(state, now - stateStart);
+        }
+
+        state = next;
+        stateStart = now;
+    }
+
     protected void jumpToView(int view, Proof proof, Proposal proposal) {
         this.view = view;
         this.proof = proof;
@@ -484,7 +605,7 @@ public class SemuxBft implements BftManager {
                 && p.getView() > view && state != State.COMMIT && state != State.FINALIZE) {// larger view
 
             // check proof-of-unlock
-            VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, validators);
+            VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, validatorSet);
             vs.addVotes(p.getVotes());
             if (!vs.isRejected()) {
                 return;
@@ -507,7 +628,7 @@ public class SemuxBft implements BftManager {
 
             // check proof-of-unlock
             if (p.getView() != 0) {
-                VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, validators);
+                VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, validatorSet);
                 vs.addVotes(p.getProof().getVotes());
                 if (!vs.isRejected()) {
                     return;
@@ -523,6 +644,8 @@ public class SemuxBft implements BftManager {
 
             if (view == p.getView()) {
                 proposal = p;
+                metrics.onProposal();
+                advance();
             } else {
                 // switch view
                 logger.debug("Switching view because of PROPOSE message");
@@ -543,12 +666,15 @@ public class SemuxBft implements BftManager {
             switch (v.getType()) {
             case VALIDATE:
                 added = validateVotes.addVote(v);
+                metrics.onVotes(validateVotes, VoteType.VALIDATE);
                 break;
             case PRECOMMIT:
                 added = precommitVotes.addVote(v);
+                metrics.onVotes(precommitVotes, VoteType.PRECOMMIT);
                 break;
             case COMMIT:
                 added = commitVotes.addVote(v);
+                metrics.onVotes(commitVotes, VoteType.COMMIT);
                 if (commitVotes.anyApproved().isPresent()) {
                     // skip COMMIT state time out if +2/3 commit votes
                     enterFinalize();
@@ -559,6 +685,8 @@ public class SemuxBft implements BftManager {
             if (added) {
                 VoteMessage msg = new VoteMessage(v);
                 broadcaster.broadcast(msg);
+
+                advance();
             }
         }
     }
@@ -567,6 +695,11 @@ public class SemuxBft implements BftManager {
      * Timeout handler
      */
     protected void onTimeout() {
+        AdaptiveTimeout timeout = timeouts.get(state);
+        if (timeout != null) {
+            timeout.onTimeout();
+        }
+
         switch (state) {
         case NEW_HEIGHT:
             enterPropose();
@@ -593,6 +726,61 @@ public class SemuxBft implements BftManager {
         }
     }
 
+    /**
+     * Advances to the next state as soon as the current one has reached the
+     * quorum, if adaptive timeouts are enabled. The transitions are the same as
+     * on timeout; only the waiting is cut short.
+     */
+    protected void advance() {
+        AdaptiveTimeout timeout = timeouts.get(state);
+        if (timeout == null) {
+            return;
+        }
+
+        long latency = TimeUtil.currentTimeMillis() - stateStart;
+        switch (state) {
+        case PROPOSE:
+            if (proposal != null) {
+                // the primary doesn't wait for its own proposal
+                if (!isPrimary()) {
+                    timeout.onQuorum(latency);
+                }
+                enterValidate();
+            }
+            break;
+        case VALIDATE:
+            if (validateVotes.anyApproved().isPresent() || validateVotes.isRejected()) {
+                timeout.onQuorum(latency);
+                enterPreCommit();
+            }
+            break;
+        case PRE_COMMIT:
+            if (precommitVotes.anyApproved().isPresent()) {
+                timeout.onQuorum(latency);
+                enterCommit();
+            } else if (precommitVotes.isRejected()) {
+                timeout.onQuorum(latency);
+                enterPropose();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Returns the timeout of a state, adapted to the observed latency if enabled.
+     *
+     * @param state
+     * @param timeout
+     *            the static timeout of the state
+     * @return
+     */
+    protected long getTimeout(State state, long timeout) {
+        AdaptiveTimeout adaptive = timeouts.get(state);
+        return adaptive != null ? adaptive.get() : timeout;
+    }
+
     @Override
     public void onMessage(Channel channel, Message msg) {
         // only process BFT_NEW_HEIGHT message when not running
@@ -608,7 +796,7 @@ public class SemuxBft implements BftManager {
             channel.getRemotePeer().setLatestBlockNumber(m.getHeight() - 1);
 
             if (m.getHeight() > height) {
-                events.add(new Event(Type.NEW_HEIGHT, m.getHeight()));
+                events.offer(new Event(Type.NEW_HEIGHT, m.getHeight()));
             }
             break;
         }
@@ -619,9 +807,9 @@ public class SemuxBft implements BftManager {
             channel.getRemotePeer().setLatestBlockNumber(m.getHeight() - 1);
 
             if (m.getHeight() > height) {
-                events.add(new Event(Type.NEW_HEIGHT, m.getHeight()));
+                events.offer(new Event(Type.NEW_HEIGHT, m.getHeight()));
             } else if (m.getHeight() == height) {
-                events.add(new Event(Type.NEW_VIEW, m.getProof()));
+                verifier.verify(m.getProof().getVotes(), () -> events.offer(new Event(Type.NEW_VIEW, m.getProof())));
             }
             break;
         }
@@ -631,7 +819,7 @@ public class SemuxBft implements BftManager {
 
             if (p.getHeight() == height) {
                 if (p.validate()) {
-                    events.add(new Event(Type.PROPOSAL, m.getProposal()));
+                    verifier.verify(p.getProof().getVotes(), () -> events.offer(new Event(Type.PROPOSAL, p)));
                 } else {
                     logger.debug("Invalid proposal from {}", channel.getRemotePeer().getPeerId());
                     channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
@@ -639,17 +827,72 @@ public class SemuxBft implements BftManager {
             }
             break;
         }
+        case BFT_COMPACT_PROPOSAL: {
+            CompactProposalMessage m = (CompactProposalMessage) msg;
+            CompactProposal cp = m.getProposal();
+
+            // rebuild each compact proposal only once, regardless of the relays, which
+            // are kept as fallbacks for the missing transactions
+            if (cp.getHeight() == height) {
+                ProposalRebuild r = new ProposalRebuild(cp);
+                ProposalRebuild existing = compactProposals.asMap().putIfAbsent(ByteArray.of(cp.getBlockHash()), r);
+                if (existing == null) {
+                    verifier.execute(() -> fillProposal(channel, r));
+                } else {
+                    existing.addRelayer(channel);
+                }
+            }
+            break;
+        }
+        case BFT_GET_PROPOSAL_TRANSACTIONS: {
+            GetProposalTransactionsMessage m = (GetProposalTransactionsMessage) msg;
+            Proposal p = proposals.getIfPresent(ByteArray.of(m.getBlockHash()));
+
+            if (m.validate() && p != null) {
+                List<Integer> indices = new ArrayList<>();
+                List<Transaction> txs = new ArrayList<>();
+                for (int i : m.getIndices()) {
+                    if (i >= 0 && i < p.getTransactions().size()) {
+                        indices.add(i);
+                        txs.add(p.getTransactions().get(i));
+                    }
+                }
+                channel.getMessageQueue().sendMessage(new ProposalTransactionsMessage(m.getBlockHash(), indices, txs));
+            }
+            break;
+        }
+        case BFT_PROPOSAL_TRANSACTIONS: {
+            ProposalTransactionsMessage m = (ProposalTransactionsMessage) msg;
+            ProposalRebuild r = compactProposals.getIfPresent(ByteArray.of(m.getBlockHash()));
+
+            if (m.validate() && r != null && !r.proposal.getMissing().isEmpty()) {
+                for (int i = 0; i < m.getIndices().size(); i++) {
+                    if (!r.proposal.fill(m.getIndices().get(i), m.getTransactions().get(i))) {
+                        logger.debug("Invalid proposal transactions from {}", channel.getRemotePeer().getPeerId());
+                        channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+                        return;
+                    }
+                }
+
+                if (r.proposal.getMissing().isEmpty()) {
+                    verifier.execute(() -> rebuildProposal(channel, r));
+                }
+            }
+            break;
+        }
         case BFT_VOTE: {
             VoteMessage m = (VoteMessage) msg;
             Vote vote = m.getVote();
 
             if (vote.getHeight() == height) {
-                if (vote.revalidate()) {
-                    events.add(new Event(Type.VOTE, vote));
-                } else {
-                    logger.debug("Invalid vote from {}", channel.getRemotePeer().getPeerId());
-                    channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
-                }
+                verifier.verify(Collections.singletonList(vote), () -> {
+                    if (vote.validate()) {
+                        events.offer(new Event(Type.VOTE, vote));
+                    } else {
+                        logger.debug("Invalid vote from {}", channel.getRemotePeer().getPeerId());
+                        channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+                    }
+                });
             }
             break;
         }
@@ -659,19 +902,106 @@ public class SemuxBft implements BftManager {
         }
     }
 
+    /**
+     * Fills a compact proposal from the pending transactions, and either rebuilds
+     * it or requests the missing transactions from the peer it came from. It runs
+     * on the verifier thread.
+     *
+     * @param channel
+     *            the channel the compact proposal was received from
+     * @param r
+     *            the compact proposal being rebuilt
+     */
+    protected void fillProposal(Channel channel, ProposalRebuild r) {
+        List<Integer> missing = r.proposal.fill(pendingMgr::getTransactionByShortId);
+        if (missing.isEmpty()) {
+            rebuildProposal(channel, r);
+        } else {
+            requestProposalTransactions(channel, r, missing);
+        }
+    }
+
+    /**
+     * Rebuilds a compact proposal whose transactions are all filled, and delivers
+     * it as a full proposal. If the signature doesn't match, the transactions
+     * taken from the local pool may have colliding short IDs, so they are
+     * requested from the peer instead. It runs on the verifier thread.
+     *
+     * @param channel
+     *            the channel the last transactions were received from
+     * @param r
+     *            the compact proposal being rebuilt
+     */
+    protected void rebuildProposal(Channel channel, ProposalRebuild r) {
+        if (r.done) {
+            return;
+        }
+
+        Proposal p = r.proposal.toProposal();
+        if (p.validate()) {
+            r.done = true;
+            verifier.verify(p.getProof().getVotes(), () -> events.offer(new Event(Type.PROPOSAL, p)));
+            return;
+        }
+
+        List<Integer> discarded = r.proposal.discardPoolTransactions();
+        if (!discarded.isEmpty()) {
+            requestProposalTransactions(channel, r, discarded);
+        } else {
+            logger.debug("Invalid compact proposal from {}", channel.getRemotePeer().getPeerId());
+            channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+        }
+    }
+
+    /**
+     * Requests the missing transactions of a compact proposal from a peer.
+     *
+     * @param channel
+     * @param r
+     * @param missing
+     *            the indices of the missing transactions
+     */
+    protected void requestProposalTransactions(Channel channel, ProposalRebuild r, List<Integer> missing) {
+        r.onRequest(channel, TimeUtil.currentTimeMillis());
+        channel.getMessageQueue().sendMessage(new GetProposalTransactionsMessage(r.proposal.getBlockHash(), missing));
+    }
+
+    /**
+     * Requests the missing transactions of the compact proposals whose last
+     * request went unanswered from the next peer: another relayer of the compact
+     * proposal, or else another validator. It runs on the timer thread.
+     *
+     * @param now
+     */
+    protected void retryProposalTransactions(long now) {
+        for (ProposalRebuild r : compactProposals.asMap().values()) {
+            if (!r.isWaiting(now - COMPACT_PROPOSAL_RETRY)) {
+                continue;
+            }
+
+            List<Integer> missing = r.proposal.getMissing();
+            Channel next = missing.isEmpty() ? null : r.nextSource(activeValidators);
+            if (next != null) {
+                logger.debug("Requesting the transactions of {} from {}", r.proposal,
+                        next.getRemotePeer().getPeerId());
+                requestProposalTransactions(next, r, missing);
+            } else {
+                r.onRequest(null, 0);
+            }
+        }
+    }
+
     /**
      * Update the validator sets.
      */
     protected void updateValidators() {
         int maxValidators = config.spec().getNumberOfValidators(height);
 
-        validators = chain.getValidators();
         // if the chain is reporting a larger number of validators
         // then a configuration change has occurred (like a stuck testnet)
         // so honor the configuration value
-        if (validators.size() > maxValidators) {
-            validators = validators.subList(0, maxValidators);
-        }
+        validatorSet = chain.getValidatorSet().limit(maxValidators);
+        validators = validatorSet.toList();
         activeValidators = channelMgr.getActiveChannels(validators);
         lastUpdate = TimeUtil.currentTimeMillis();
     }
@@ -682,7 +1012,7 @@ public class SemuxBft implements BftManager {
      * @return
      */
     protected boolean isValidator() {
-        return validators.contains(coinbase.toAddressString());
+        return validatorSet.contains(coinbase.toAddress());
     }
 
     /**
@@ -718,16 +1048,16 @@ public class SemuxBft implements BftManager {
      * @return
      */
     protected boolean isFromValidator(Signature sig) {
-        return validators.contains(Hex.encode(Hash.h160(sig.getPublicKey())));
+        return validatorSet.contains(sig.getAddress());
     }
 
     /**
      * Reset all vote sets. This should be invoked whenever height or view changes.
      */
     protected void clearVotes() {
-        validateVotes = new VoteSet(VoteType.VALIDATE, height, view, validators);
-        precommitVotes = new VoteSet(VoteType.PRECOMMIT, height, view, validators);
-        commitVotes = new VoteSet(VoteType.COMMIT, height, view, validators);
+        validateVotes = new VoteSet(VoteType.VALIDATE, height, view, validatorSet);
+        precommitVotes = new VoteSet(VoteType.PRECOMMIT, height, view, validatorSet);
+        commitVotes = new VoteSet(VoteType.COMMIT, height, view, validatorSet);
     }
 
     /**
@@ -744,19 +1074,29 @@ public class SemuxBft implements BftManager {
      * @return the proposed block
      */
     protected Block proposeBlock() {
+        return proposeBlock(chain.getBlockHeader(height - 1));
+    }
+
+    /**
+     * Create a block on top of the given parent.
+     *
+     * @param parent
+     *            the header of the parent block
+     * @return the proposed block
+     */
+    protected Block proposeBlock(BlockHeader parent) {
         AccountState asTrack = chain.getAccountState().track();
         DelegateState dsTrack = chain.getDelegateState().track();
 
         long t1 = TimeUtil.currentTimeMillis();
 
         // construct block template
-        BlockHeader parent = chain.getBlockHeader(height - 1);
-        long number = height;
+        long number = parent.getNumber() + 1;
         byte[] prevHash = parent.getHash();
         long timestamp = TimeUtil.currentTimeMillis();
         timestamp = timestamp > parent.getTimestamp() ? timestamp : parent.getTimestamp() + 1;
         byte[] data = chain.constructBlockHeaderDataField();
-        BlockHeader tempHeader = new BlockHeader(height, coinbase.toAddress(), prevHash, timestamp, new byte[0],
+        BlockHeader tempHeader = new BlockHeader(number, coinbase.toAddress(), prevHash, timestamp, new byte[0],
                 new byte[0], new byte[0], data);
 
         // fetch pending transactions
@@ -863,8 +1203,9 @@ public class SemuxBft implements BftManager {
 
             long t2 = TimeUtil.currentTimeMillis();
             logger.debug("Block validation: # txs = {}, time = {} ms", transactions.size(), t2 - t1);
+            metrics.onProposalValidated(t2 - t1);
 
-            validBlocks.put(ByteArray.of(block.getHash()), block);
+            validBlocks.put(ByteArray.of(block.getHash()), new ValidBlock(block, asTrack, dsTrack));
             return true;
         } catch (Exception e) {
             logger.error("Unexpected exception during block proposal validation", e);
@@ -913,12 +1254,14 @@ public class SemuxBft implements BftManager {
             while (!Thread.currentThread().isInterrupted()) {
                 synchronized (this) {
                     if (timeout != -1 && timeout < TimeUtil.currentTimeMillis()) {
-                        events.add(new Event(Type.TIMEOUT));
+                        events.offer(new Event(Type.TIMEOUT));
                         timeout = -1;
                         continue;
                     }
                 }
 
+                retryProposalTransactions(TimeUtil.currentTimeMillis());
+
                 try {
                     Thread.sleep(10);
                 } catch (InterruptedException e) {
@@ -975,10 +1318,42 @@ public class SemuxBft implements BftManager {
                     List<Channel> channels = activeValidators;
                     if (channels != null) {
                         int[] indices = ArrayUtil.permutation(channels.size());
+                        List<Channel> targets = new ArrayList<>();
                         for (int i = 0; i < indices.length && i < config.netRelayRedundancy(); i++) {
                             Channel c = channels.get(indices[i]);
                             if (c.isActive()) {
-                                c.getMessageQueue().sendMessage(msg);
+                                targets.add(c);
+                            }
+                        }
+
+                        Message compact = null;
+                        if (msg instanceof ProposalMessage) {
+                            compact = compact(((ProposalMessage) msg).getProposal(), targets);
+                        }
+
+                        // each message is compressed once, when first needed
+                        EncodedMessage encoded = null;
+                        EncodedMessage encodedCompact = null;
+                        try {
+                            for (Channel c : targets) {
+                                if (compact != null && c.supports(Capability.COMPACT_PROPOSAL)) {
+                                    if (encodedCompact == null) {
+                                        encodedCompact = EncodedMessage.of(compact);
+                                    }
+                                    c.getMessageQueue().sendMessage(encodedCompact.retainedDuplicate());
+                                } else {
+                                    if (encoded == null) {
+                                        encoded = EncodedMessage.of(msg);
+                                    }
+                                    c.getMessageQueue().sendMessage(encoded.retainedDuplicate());
+                                }
+                            }
+                        } finally {
+                            if (encoded != null) {
+                                encoded.release();
+                            }
+                            if (encodedCompact != null) {
+                                encodedCompact.release();
                             }
                         }
                     }
@@ -1014,6 +1389,371 @@ public class SemuxBft implements BftManager {
                 logger.error("Failed to add a message to the broadcast queue: msg = {}", msg);
             }
         }
+
+        /**
+         * Makes a proposal available to peers rebuilding it, and returns its compact
+         * form for the targets which support it, including the transactions that any
+         * of them may not know.
+         *
+         * @param p
+         * @param targets
+         * @return the compact proposal message, or null if no target supports it
+         */
+        private Message compact(Proposal p, List<Channel> targets) {
+            proposals.put(ByteArray.of(p.getBlockHeader().getHash()), p);
+
+            List<Channel> capable = targets.stream()
+                    .filter(c -> c.supports(Capability.COMPACT_PROPOSAL))
+                    .collect(Collectors.toList());
+            if (capable.isEmpty()) {
+                return null;
+            }
+
+            return new CompactProposalMessage(new CompactProposal(p,
+                    tx -> capable.stream().anyMatch(c -> !c.isTransactionKnown(tx.getHash()))));
+        }
+    }
+
+    /**
+     * Verifies the votes of incoming messages off the network threads. Requests
+     * are collected into micro-batches, whose votes are verified in parallel
+     * chunks, each with a single batch verification if supported. The callback of
+     * a request runs on the verifier thread once its votes are verified; the
+     * results are memoized in the votes.
+     */
+    public class Verifier implements Runnable {
+        private static final int MAX_BATCH_SIZE = 256;
+        private static final int CHUNK_SIZE = 32;
+
+        private final BlockingQueue<VerifyRequest> queue = new LinkedBlockingQueue<>();
+
+        private ExecutorService pool;
+        private Thread t;
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    List<VerifyRequest> batch = new ArrayList<>();
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+                    List<Vote> votes = new ArrayList<>();
+                    for (VerifyRequest r : batch) {
+                        votes.addAll(r.votes);
+                    }
+                    verify(votes);
+
+                    for (VerifyRequest r : batch) {
+                        r.callback.run();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.warn("Unexpected exception in consensus verifier", e);
+                }
+            }
+        }
+
+        private void verify(List<Vote> votes) throws InterruptedException {
+            if (votes.size() <= CHUNK_SIZE) {
+                Vote.validateBatch(votes);
+                return;
+            }
+
+            List<Callable<Object>> tasks = new ArrayList<>();
+            for (int i = 0; i < votes.size(); i += CHUNK_SIZE) {
+                List<Vote> chunk = votes.subList(i, Math.min(votes.size(), i + CHUNK_SIZE));
+                tasks.add(Executors.callable(() -> Vote.validateBatch(chunk)));
+            }
+            pool.invokeAll(tasks);
+        }
+
+        public synchronized void start() {
+            if (t == null) {
+                AtomicInteger cnt = new AtomicInteger(0);
+                pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                        r -> new Thread(r, "bft-verifier-" + cnt.getAndIncrement()));
+
+                t = new Thread(this, "bft-verifier");
+                t.start();
+            }
+        }
+
+        public synchronized void stop() {
+            if (t != null) {
+                try {
+                    t.interrupt();
+                    t.join();
+                } catch (InterruptedException e) {
+                    logger.error("Failed to stop consensus verifier");
+                    Thread.currentThread().interrupt();
+                }
+                t = null;
+
+                pool.shutdownNow();
+                pool = null;
+                queue.clear();
+            }
+        }
+
+        /**
+         * Verifies the given votes asynchronously.
+         *
+         * @param votes
+         *            the votes to verify
+         * @param callback
+         *            the callback to run once the votes are verified
+         */
+        public void verify(List<Vote> votes, Runnable callback) {
+            if (!queue.offer(new VerifyRequest(votes, callback))) {
+                logger.error("Failed to add votes to the verification queue");
+            }
+        }
+
+        /**
+         * Runs a task on the verifier thread, e.g. to check a signature off the
+         * network threads.
+         *
+         * @param task
+         */
+        public void execute(Runnable task) {
+            verify(Collections.emptyList(), task);
+        }
+    }
+
+    /**
+     * Keeps a block template up to date in the background, so that the primary can
+     * sign and propose without executing transactions once its turn has started.
+     * The template is rebuilt when the chain advances, when the pending
+     * transactions change (at most once per <code>REBUILD_INTERVAL</code>), or
+     * when it gets older than <code>MAX_AGE</code>, which keeps its timestamp
+     * fresh. Nothing is built unless this node is the primary of the next height.
+     * <p>
+     * The template is dropped as soon as a block is imported, and a template whose
+     * build overlapped an import is discarded rather than published.
+     */
+    public class Builder implements Runnable, BlockchainListener {
+        private static final long POLL_INTERVAL = 20;
+        private static final long REBUILD_INTERVAL = 200;
+        private static final long MAX_AGE = 1000;
+
+        private volatile Template template;
+
+        // incremented on every imported block, guarded by this
+        private long generation;
+
+        private Thread t;
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    refresh();
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.warn("Unexpected exception in block builder", e);
+                }
+            }
+        }
+
+        /**
+         * Rebuilds the block template if it's outdated.
+         */
+        protected void refresh() {
+            long gen;
+            Block latest;
+            synchronized (this) {
+                gen = generation;
+                latest = chain.getLatestBlock();
+            }
+
+            if (!isUpcomingPrimary(latest.getNumber() + 1)) {
+                template = null;
+                return;
+            }
+
+            // read the version first, so that changes made while building are not missed
+            long version = pendingMgr.getVersion();
+            long now = TimeUtil.currentTimeMillis();
+
+            Template tpl = template;
+            if (tpl != null && Arrays.equals(tpl.block.getParentHash(), latest.getHash())
+                    && now - tpl.createdAt < (tpl.version == version ? MAX_AGE : REBUILD_INTERVAL)) {
+                return;
+            }
+
+            Block block = proposeBlock(latest.getHeader());
+            synchronized (this) {
+                if (gen == generation) {
+                    template = new Template(block, version, now);
+                }
+            }
+        }
+
+        /**
+         * Returns whether this node is the primary of the given height, in the
+         * current view if consensus is already at that height, otherwise in the
+         * first view. The height and the view are read without the consensus
+         * thread being paused, so the result is only a hint.
+         *
+         * @param number
+         * @return
+         */
+        protected boolean isUpcomingPrimary(long number) {
+            List<String> list = chain.getValidatorSet().limit(config.spec().getNumberOfValidators(number)).toList();
+            int v = height == number ? view : 0;
+            return config.spec()
+                    .getPrimaryValidator(list, number, v, chain.isForkActivated(UNIFORM_DISTRIBUTION, number))
+                    .equals(coinbase.toAddressString());
+        }
+
+        @Override
+        public synchronized void onBlockAdded(Block block) {
+            generation++;
+            template = null;
+        }
+
+        /**
+         * Returns the block template built on top of the given parent.
+         *
+         * @param parent
+         *            the header of the parent block
+         * @return the block, or null if no such template is available
+         */
+        public Block getBlock(BlockHeader parent) {
+            Template tpl = template;
+            return tpl != null && Arrays.equals(tpl.block.getParentHash(), parent.getHash()) ? tpl.block : null;
+        }
+
+        public synchronized void start() {
+            if (t == null) {
+                t = new Thread(this, "bft-builder");
+                t.start();
+            }
+        }
+
+        public synchronized void stop() {
+            if (t != null) {
+                try {
+                    t.interrupt();
+                    t.join();
+                } catch (InterruptedException e) {
+                    logger.error("Failed to stop consensus block builder");
+                    Thread.currentThread().interrupt();
+                }
+                t = null;
+                template = null;
+            }
+        }
+    }
+
+    /**
+     * A validated block proposal, along with the state overlays resulting from its
+     * execution on top of its parent.
+     */
+    protected static class ValidBlock {
+        private final Block block;
+        private final AccountState asTrack;
+        private final DelegateState dsTrack;
+
+        ValidBlock(Block block, AccountState asTrack, DelegateState dsTrack) {
+            this.block = block;
+            this.asTrack = asTrack;
+            this.dsTrack = dsTrack;
+        }
+    }
+
+    private static class Template {
+        private final Block block;
+        private final long version;
+        private final long createdAt;
+
+        Template(Block block, long version, long createdAt) {
+            this.block = block;
+            this.version = version;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * A compact proposal being rebuilt. Its missing transactions are requested
+     * from the peer it came from first, then from the other relayers in arrival
+     * order, and last from the other validators.
+     */
+    protected static class ProposalRebuild {
+        protected final CompactProposal proposal;
+
+        private final Deque<Channel> relayers = new ArrayDeque<>();
+        private final Set<Channel> requested = new HashSet<>();
+        private long requestedAt;
+
+        // set on the verifier thread, once rebuilt and verified
+        private volatile boolean done;
+
+        ProposalRebuild(CompactProposal proposal) {
+            this.proposal = proposal;
+        }
+
+        synchronized void addRelayer(Channel channel) {
+            if (!requested.contains(channel) && !relayers.contains(channel)) {
+                relayers.add(channel);
+            }
+        }
+
+        /**
+         * Records a request, or that there's no request pending if the channel is
+         * null.
+         */
+        synchronized void onRequest(Channel channel, long now) {
+            if (channel != null) {
+                requested.add(channel);
+            }
+            requestedAt = now;
+        }
+
+        /**
+         * Returns whether the last request was sent before the given time and is
+         * still waiting for an answer.
+         */
+        synchronized boolean isWaiting(long before) {
+            return !done && requestedAt != 0 && requestedAt < before;
+        }
+
+        /**
+         * Returns the next peer to request the missing transactions from, or null if
+         * all have been tried.
+         */
+        synchronized Channel nextSource(List<Channel> validators) {
+            Channel channel;
+            while ((channel = relayers.poll()) != null) {
+                if (channel.isActive() && !requested.contains(channel)) {
+                    return channel;
+                }
+            }
+            if (validators != null) {
+                for (Channel v : validators) {
+                    if (v.isActive() && !requested.contains(v)) {
+                        return v;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class VerifyRequest {
+        private final List<Vote> votes;
+        private final Runnable callback;
+
+        VerifyRequest(List<Vote> votes, Runnable callback) {
+            this.votes = votes;
+            this.callback = callback;
+        }
     }
 
     public static class Event {
@@ -14,7 +14,9 @@ import java.math.MathContext;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,14 +28,19 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -41,6 +48,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.semux.Kernel;
 import org.semux.config.Config;
 import org.semux.core.Block;
+import org.semux.core.BlockHeader;
 import org.semux.core.BlockPart;
 import org.semux.core.Blockchain;
 import org.semux.core.SyncManager;
@@ -48,12 +56,16 @@ import org.semux.net.Capability;
 import org.semux.net.Channel;
 import org.semux.net.ChannelManager;
 import org.semux.net.Peer;
+import org.semux.net.PeerStats;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.ReasonCode;
 import org.semux.net.msg.consensus.BlockMessage;
 import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.BlockRangeMessage;
 import org.semux.net.msg.consensus.GetBlockMessage;
 import org.semux.net.msg.consensus.GetBlockPartsMessage;
+import org.semux.net.msg.consensus.GetBlockRangeMessage;
+import org.semux.util.SimpleEncoder;
 import org.semux.util.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +78,10 @@ import org.slf4j.LoggerFactory;
  * synchronized and need to be executed by one single thread at anytime.
  * <p>
  * The download/unfinished/pending queues are protected by lock.
+ * <p>
+ * With header-first sync, a skeleton of headers is downloaded from several
+ * peers and verified first; the block bodies are then downloaded from any peer
+ * and checked against the verified headers.
  */
 public class SemuxSync implements SyncManager {
 
@@ -84,6 +100,24 @@ public class SemuxSync implements SyncManager {
     private static final ScheduledExecutorService timer2 = Executors.newSingleThreadScheduledExecutor(factory);
     private static final ScheduledExecutorService timer3 = Executors.newSingleThreadScheduledExecutor(factory);
 
+    private static final int VALIDATOR_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_VALIDATION_QUEUE = 1024;
+
+    // validates received blocks in parallel; when the queue is full, the network
+    // thread that delivered the block validates it, which slows down the peer
+    private static final ExecutorService validators = new ThreadPoolExecutor(VALIDATOR_THREADS,
+            VALIDATOR_THREADS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_VALIDATION_QUEUE),
+            new ThreadFactory() {
+                private final AtomicInteger cnt = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "sync-validator-" + cnt.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
     private final long DOWNLOAD_TIMEOUT;
 
     private final int MAX_QUEUED_JOBS;
@@ -104,15 +138,26 @@ public class SemuxSync implements SyncManager {
     private final TreeSet<Long> toDownload = new TreeSet<>();
 
     // Blocks which were requested but haven't been received
-    private final Map<Long, Long> toReceive = new HashMap<>();
+    private final Map<Long, Request> toReceive = new HashMap<>();
 
     // Blocks which were received but haven't been validated
+    private final AtomicInteger validating = new AtomicInteger();
+
+    // Blocks which were validated on their own, but not against the neighbours
     private final TreeSet<Pair<Block, Channel>> toValidate = new TreeSet<>(
             Comparator.comparingLong(o -> o.getKey().getNumber()));
 
-    // Blocks which were validated but haven't been imported
+    // Blocks which were linked by hashes but haven't been imported
     private final TreeMap<Long, Pair<Block, Channel>> toImport = new TreeMap<>();
 
+    // Headers to download, and requested but not received, for header-first sync
+    private final TreeSet<Long> headersToDownload = new TreeSet<>();
+    private final Map<Long, Request> headersToReceive = new HashMap<>();
+    private final AtomicLong latestQueuedHeader = new AtomicLong();
+
+    // Headers which were received, linked and verified
+    private final HeaderSkeleton skeleton = new HeaderSkeleton();
+
     private final Object lock = new Object();
 
     // current and target heights
@@ -125,7 +170,14 @@ public class SemuxSync implements SyncManager {
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
 
     // reset at the beginning of a sync task
-    private final Set<String> badPeers = new HashSet<>();
+    private final Set<String> badPeers = ConcurrentHashMap.newKeySet();
+    private volatile boolean headerFirst;
+
+    // the pipeline stages, in order
+    private final Stage headerStage = new Stage("headers", () -> headersToReceive.size());
+    private final Stage receiveStage = new Stage("receive", () -> toReceive.size());
+    private final Stage validateStage = new Stage("validate", validating::get);
+    private final Stage importStage = new Stage("import", () -> toValidate.size() + toImport.size());
 
     public SemuxSync(Kernel kernel) {
         this.config = kernel.getConfig();
@@ -137,6 +189,8 @@ public class SemuxSync implements SyncManager {
         this.MAX_QUEUED_JOBS = config.syncMaxQueuedJobs();
         this.MAX_PENDING_JOBS = config.syncMaxPendingJobs();
         this.MAX_PENDING_BLOCKS = config.syncMaxPendingBlocks();
+
+        this.headerFirst = config.syncFastSync() && config.syncHeaderFirst();
     }
 
     @Override
@@ -146,20 +200,35 @@ public class SemuxSync implements SyncManager {
 
             badPeers.clear();
 
+            // headers are only served in ranges, so fall back to block sync without
+            // any peer supporting RANGE_SYNC
+            headerFirst = config.syncFastSync() && config.syncHeaderFirst();
+            if (headerFirst && channelMgr.getActiveChannels().stream()
+                    .noneMatch(c -> c.supports(Capability.RANGE_SYNC) && isFastSyncSupported(c.getRemotePeer()))) {
+                logger.warn("No peer supports RANGE_SYNC, falling back from header-first sync to block sync");
+                headerFirst = false;
+            }
+
             logger.info("Syncing started, best known block = {}", targetHeight - 1);
 
             // [1] set up queues
             synchronized (lock) {
                 toDownload.clear();
+                toReceive.values().forEach(r -> r.getStats().onCancel(1));
                 toReceive.clear();
                 toValidate.clear();
                 toImport.clear();
+                headersToDownload.clear();
+                headersToReceive.clear();
+                skeleton.reset(chain.getLatestBlockNumber(), chain.getLatestBlock().getHash());
 
                 begin.set(chain.getLatestBlockNumber() + 1);
                 current.set(chain.getLatestBlockNumber() + 1);
                 target.set(targetHeight);
                 lastObserved.set(chain.getLatestBlockNumber());
                 latestQueuedTask.set(chain.getLatestBlockNumber());
+                latestQueuedHeader.set(chain.getLatestBlockNumber());
+                growHeaderQueue();
                 growToDownloadQueue();
             }
 
@@ -176,6 +245,10 @@ public class SemuxSync implements SyncManager {
                         toValidate.size(),
                         toImport.size());
                 lastObserved.set(newBlockNumber);
+                for (Stage stage : getStages()) {
+                    logger.info("Syncing stage {}: {} blocks per second, backlog = {}", stage.getName(),
+                            stage.sample() / 30, stage.getBacklog());
+                }
             }, 30, 30, TimeUnit.SECONDS);
 
             // [3] wait until the sync is done
@@ -221,8 +294,50 @@ public class SemuxSync implements SyncManager {
             if (toDownload.remove(block.getNumber())) {
                 growToDownloadQueue();
             }
-            toReceive.remove(block.getNumber());
-            toValidate.add(Pair.of(block, channel));
+            Request r = toReceive.remove(block.getNumber());
+            if (r != null && r.channel != channel) {
+                r.getStats().onCancel(1);
+            }
+        }
+        receiveStage.processed.incrementAndGet();
+
+        validating.incrementAndGet();
+        validators.execute(() -> {
+            try {
+                if (block.getNumber() <= chain.getLatestBlockNumber()) {
+                    return;
+                }
+
+                if (validateBlock(block)) {
+                    validateStage.processed.incrementAndGet();
+                    synchronized (lock) {
+                        toValidate.add(Pair.of(block, channel));
+                    }
+                } else {
+                    handleInvalidBlock(block, channel);
+                }
+            } finally {
+                validating.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Validates the parts of a block which don't depend on the chain state: the
+     * header hash, and the transaction signatures and root. The block is imported
+     * later without validating them again.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean validateBlock(Block block) {
+        try {
+            BlockHeader header = block.getHeader();
+            return header.validate()
+                    && block.validateTransactions(header, block.getTransactions(), config.network());
+        } catch (Exception e) {
+            logger.debug("Failed to validate block #{}", block.getNumber(), e);
+            return false;
         }
     }
 
@@ -236,7 +351,7 @@ public class SemuxSync implements SyncManager {
         case BLOCK: {
             BlockMessage blockMsg = (BlockMessage) msg;
             Block block = blockMsg.getBlock();
-            addBlock(block, channel);
+            onBlocks(channel, Collections.singletonList(block), msg.getBody().length, false);
             break;
         }
         case BLOCK_PARTS: {
@@ -245,34 +360,30 @@ public class SemuxSync implements SyncManager {
             List<BlockPart> parts = BlockPart.decode(blockPartsMsg.getParts());
             List<byte[]> data = blockPartsMsg.getData();
 
-            // sanity check
-            if (parts.size() != data.size()) {
-                logger.debug("Part set and data do not match");
-                break;
+            Block block = parseBlock(blockPartsMsg.getNumber(), parts, data);
+            if (block != null) {
+                onBlocks(channel, Collections.singletonList(block), msg.getBody().length, false);
             }
-
-            // parse the data
-            byte[] header = null, transactions = null, results = null, votes = null;
-            for (int i = 0; i < parts.size(); i++) {
-                if (parts.get(i) == BlockPart.HEADER) {
-                    header = data.get(i);
-                } else if (parts.get(i) == BlockPart.TRANSACTIONS) {
-                    transactions = data.get(i);
-                } else if (parts.get(i) == BlockPart.RESULTS) {
-                    results = data.get(i);
-                } else if (parts.get(i) == BlockPart.VOTES) {
-                    votes = data.get(i);
-                } else {
-                    // unknown
+            break;
+        }
+        case BLOCK_RANGE: {
+            BlockRangeMessage blockRangeMsg = (BlockRangeMessage) msg;
+            List<BlockPart> parts = BlockPart.decode(blockRangeMsg.getParts());
+
+            List<Block> blocks = new ArrayList<>();
+            long number = blockRangeMsg.getFrom();
+            for (List<byte[]> data : blockRangeMsg.getBlocks()) {
+                Block block = parseBlock(number++, parts, data);
+                if (block == null) {
+                    break;
                 }
+                blocks.add(block);
             }
 
-            // import block
-            try {
-                Block block = Block.fromComponents(header, transactions, results, votes);
-                addBlock(block, channel);
-            } catch (Exception e) {
-                logger.debug("Failed to parse a block from components", e);
+            if (parts.contains(BlockPart.HEADER) && !parts.contains(BlockPart.TRANSACTIONS)) {
+                onHeaders(channel, blocks);
+            } else {
+                onBlocks(channel, blocks, msg.getBody().length, true);
             }
             break;
         }
@@ -283,10 +394,196 @@ public class SemuxSync implements SyncManager {
         }
     }
 
+    /**
+     * Records the response time and throughput of the peer, and adds the received
+     * blocks.
+     *
+     * @param channel
+     * @param blocks
+     * @param bytes
+     *            the size of the message
+     * @param streaming
+     *            whether more blocks are streaming in for the same request
+     */
+    private void onBlocks(Channel channel, List<Block> blocks, int bytes, boolean streaming) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        synchronized (lock) {
+            long now = TimeUtil.currentTimeMillis();
+            long requested = now;
+            int matched = 0;
+            Set<Request> ranges = new HashSet<>();
+            for (Block block : blocks) {
+                Request r = toReceive.get(block.getNumber());
+                if (r != null && r.channel == channel) {
+                    requested = Math.min(requested, r.timestamp);
+                    ranges.add(r);
+                    matched++;
+                }
+            }
+            if (matched > 0) {
+                channel.getRemotePeer().getStats().onResponse(now - requested, bytes, matched);
+            }
+
+            // the rest of the ranges these blocks belong to is still streaming in
+            if (streaming) {
+                ranges.forEach(r -> r.timestamp = now);
+            }
+        }
+
+        for (Block block : blocks) {
+            addBlock(block, channel);
+        }
+    }
+
+    /**
+     * Adds received headers to the skeleton, links and verifies them, and queues
+     * the bodies of the verified blocks.
+     *
+     * @param channel
+     * @param headers
+     *            the headers, as blocks without transactions
+     */
+    private void onHeaders(Channel channel, List<Block> headers) {
+        if (headers.isEmpty()) {
+            return;
+        }
+
+        synchronized (lock) {
+            long now = TimeUtil.currentTimeMillis();
+            Set<Request> ranges = new HashSet<>();
+            for (Block header : headers) {
+                long n = header.getNumber();
+                if (n > latestQueuedHeader.get()) {
+                    continue;
+                }
+
+                headersToDownload.remove(n);
+                Request r = headersToReceive.remove(n);
+                if (r != null && r.channel == channel) {
+                    ranges.add(r);
+                }
+                if (skeleton.add(header, channel)) {
+                    headerStage.processed.incrementAndGet();
+                }
+            }
+
+            // the rest of the ranges these headers belong to is still streaming in
+            ranges.forEach(r -> r.timestamp = now);
+
+            int size = skeleton.size();
+            List<Channel> suspects = new ArrayList<>();
+            for (Channel c : skeleton.link(suspects)) {
+                logger.info("Invalid block header, peer = {}:{}", c.getRemoteIp(), c.getRemotePort());
+                handleBadPeer(c);
+            }
+            for (Channel c : suspects) {
+                logger.debug("Unlinked block header, peer = {}:{}", c.getRemoteIp(), c.getRemotePort());
+                c.getRemotePeer().getStats().onFailure(1);
+            }
+            verifyHeaders(skeleton.size() < size);
+        }
+    }
+
+    /**
+     * Verifies the skeleton as far as the current validator set allows, then
+     * queues the headers to download again and the bodies of the verified blocks.
+     * It must be called with the lock held.
+     *
+     * @param dropped
+     *            whether headers have been dropped from the skeleton
+     */
+    private void verifyHeaders(boolean dropped) {
+        long interval = config.spec().getValidatorUpdateInterval();
+        long bound = (chain.getLatestBlockNumber() / interval + 1) * interval;
+
+        Channel c = skeleton.verify(bound, chain::validateBlockVotes);
+        if (c != null) {
+            logger.info("Invalid block header votes, peer = {}:{}", c.getRemoteIp(), c.getRemotePort());
+            handleBadPeer(c);
+            dropped = true;
+        }
+
+        // download the dropped headers again
+        if (dropped) {
+            for (long n = skeleton.getTip() + 1; n <= latestQueuedHeader.get(); n++) {
+                if (!skeleton.contains(n) && !headersToReceive.containsKey(n)) {
+                    headersToDownload.add(n);
+                }
+            }
+        }
+        growToDownloadQueue();
+    }
+
+    /**
+     * Reconstructs a block from its parts. With header-first sync, the header and
+     * votes of a block body are taken from the skeleton; a header without
+     * transactions is returned as a block without transactions.
+     *
+     * @param number
+     *            the block number
+     * @param parts
+     * @param data
+     * @return the block, or null if the parts are invalid
+     */
+    private Block parseBlock(long number, List<BlockPart> parts, List<byte[]> data) {
+        // sanity check
+        if (parts.size() != data.size()) {
+            logger.debug("Part set and data do not match");
+            return null;
+        }
+
+        // parse the data
+        byte[] header = null, transactions = null, results = null, votes = null;
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i) == BlockPart.HEADER) {
+                header = data.get(i);
+            } else if (parts.get(i) == BlockPart.TRANSACTIONS) {
+                transactions = data.get(i);
+            } else if (parts.get(i) == BlockPart.RESULTS) {
+                results = data.get(i);
+            } else if (parts.get(i) == BlockPart.VOTES) {
+                votes = data.get(i);
+            } else {
+                // unknown
+            }
+        }
+
+        if (header == null) {
+            Block h;
+            synchronized (lock) {
+                h = skeleton.get(number);
+            }
+            if (h == null) {
+                logger.debug("Block #{} is not in the verified skeleton", number);
+                return null;
+            }
+            header = h.getEncodedHeader();
+            votes = h.getEncodedVotes();
+        } else if (transactions == null) {
+            SimpleEncoder enc = new SimpleEncoder();
+            enc.writeInt(0);
+            transactions = enc.toBytes();
+        }
+
+        try {
+            return Block.fromComponents(header, transactions, results, votes);
+        } catch (Exception e) {
+            logger.debug("Failed to parse a block from components", e);
+            return null;
+        }
+    }
+
     private boolean isFastSyncSupported(Peer peer) {
         return Stream.of(peer.getCapabilities()).anyMatch(c -> Capability.FAST_SYNC.name().equals(c));
     }
 
+    private boolean isHeaderFirst() {
+        return headerFirst;
+    }
+
     private boolean skipVotes(long blockNumber) {
         long interval = config.spec().getValidatorUpdateInterval();
 
@@ -304,16 +601,21 @@ public class SemuxSync implements SyncManager {
         synchronized (lock) {
             // filter all expired tasks
             long now = TimeUtil.currentTimeMillis();
-            Iterator<Entry<Long, Long>> itr = toReceive.entrySet().iterator();
+            Iterator<Entry<Long, Request>> itr = toReceive.entrySet().iterator();
             while (itr.hasNext()) {
-                Entry<Long, Long> entry = itr.next();
+                Entry<Long, Request> entry = itr.next();
+                Request r = entry.getValue();
 
-                if (entry.getValue() + DOWNLOAD_TIMEOUT < now) {
+                if (r.timestamp + r.timeout < now) {
                     logger.debug("Failed to download block #{}, expired", entry.getKey());
+                    r.getStats().onTimeout(1);
                     toDownload.add(entry.getKey());
                     itr.remove();
                 }
             }
+            if (isHeaderFirst()) {
+                downloadHeaders(now);
+            }
 
             // quit if too many unfinished jobs
             if (toReceive.size() > MAX_PENDING_JOBS) {
@@ -328,64 +630,275 @@ public class SemuxSync implements SyncManager {
             Long task = toDownload.first();
 
             // quit if too many pending blocks
-            int pendingBlocks = toValidate.size() + toImport.size();
-            if (pendingBlocks > MAX_PENDING_BLOCKS && task > toValidate.first().getKey().getNumber()) {
+            int pendingBlocks = validating.get() + toValidate.size() + toImport.size();
+            if (pendingBlocks > MAX_PENDING_BLOCKS
+                    && (toValidate.isEmpty() || task > toValidate.first().getKey().getNumber())) {
                 logger.trace("Max pending blocks reached");
                 return;
             }
 
             // get idle channels
             List<Channel> channels = channelMgr.getIdleChannels().stream()
-                    .filter(channel -> {
-                        Peer peer = channel.getRemotePeer();
-                        // the peer has the block
-                        return peer.getLatestBlockNumber() >= task
-                                // AND is not banned
-                                && !badPeers.contains(peer.getPeerId())
-                        // AND supports FAST_SYNC if we enabled this protocol
-                                && (!config.syncFastSync() || isFastSyncSupported(peer));
-                    })
+                    .filter(channel -> isQualified(channel.getRemotePeer(), task))
                     .collect(Collectors.toList());
             logger.trace("Qualified idle peers = {}", channels.size());
 
-            // quit if no idle channels.
-            if (channels.isEmpty()) {
-                return;
+            // score the channels by measured throughput; the unmeasured ones are
+            // assumed to be average, so that they get a chance to be measured
+            Map<Channel, Double> scores = new HashMap<>();
+            double known = channels.stream().map(c -> c.getRemotePeer().getStats())
+                    .filter(PeerStats::isMeasured).mapToDouble(SemuxSync::score).average().orElse(1.0);
+            for (Channel c : channels) {
+                PeerStats stats = c.getRemotePeer().getStats();
+                scores.put(c, stats.isMeasured() ? score(stats) : known);
             }
-            // otherwise, pick a random channel
-            Channel c = channels.get(random.nextInt(channels.size()));
+            double total = scores.values().stream().mapToDouble(Double::doubleValue).sum();
+
+            // assign the next tasks to the fastest channels first, each up to its share
+            // of the in-flight blocks
+            Collections.shuffle(channels, random);
+            channels.sort(Comparator.comparingDouble((Channel c) -> scores.get(c)).reversed());
+            for (Channel c : channels) {
+                if (toDownload.isEmpty() || toReceive.size() > MAX_PENDING_JOBS) {
+                    break;
+                }
+                long next = toDownload.first();
+                if (c.getRemotePeer().getLatestBlockNumber() < next) {
+                    continue;
+                }
+
+                PeerStats stats = c.getRemotePeer().getStats();
+                int share = total > 0 ? (int) (MAX_PENDING_JOBS * scores.get(c) / total) : MAX_PENDING_JOBS;
+                int available = Math.max(1, share) - stats.getInFlight();
+                if (available <= 0) {
+                    continue;
+                }
 
-            if (config.syncFastSync()) { // use FAST_SYNC protocol
-                if (skipVotes(task)) {
-                    logger.trace("Requesting block #{} from {}:{}, HEADER + TRANSACTIONS", task,
-                            c.getRemoteIp(),
-                            c.getRemotePort());
-                    c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task,
-                            BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS)));
+                if (c.supports(Capability.RANGE_SYNC) && config.syncMaxBlockRange() > 1) {
+                    requestRange(c, next, available);
                 } else {
-                    logger.trace("Requesting block #{} from {}:{}, HEADER + TRANSACTIONS + VOTES", task,
-                            c.getRemoteIp(), c.getRemotePort());
-                    c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task,
-                            BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.VOTES)));
+                    requestBlock(c, next);
                 }
-            } else { // use old protocol
-                logger.trace("Requesting block #{} from {}:{}, FULL BLOCK", task, c.getRemoteIp(),
+            }
+        }
+    }
+
+    /**
+     * Returns whether blocks can be requested from a peer.
+     *
+     * @param peer
+     * @param task
+     *            the first block to request
+     * @return
+     */
+    private boolean isQualified(Peer peer, long task) {
+        // the peer has the block
+        return peer.getLatestBlockNumber() >= task
+                // AND is not banned
+                && !badPeers.contains(peer.getPeerId())
+                // AND supports FAST_SYNC if we enabled this protocol
+                && (!config.syncFastSync() || isFastSyncSupported(peer));
+    }
+
+    /**
+     * Expires the header requests, and requests the next ranges of headers, one
+     * range at a time from each idle peer supporting RANGE_SYNC. It must be called
+     * with the lock held.
+     *
+     * @param now
+     */
+    private void downloadHeaders(long now) {
+        Iterator<Entry<Long, Request>> itr = headersToReceive.entrySet().iterator();
+        while (itr.hasNext()) {
+            Entry<Long, Request> entry = itr.next();
+            Request r = entry.getValue();
+
+            if (r.timestamp + r.timeout < now) {
+                logger.debug("Failed to download block header #{}, expired", entry.getKey());
+                headersToDownload.add(entry.getKey());
+                itr.remove();
+            }
+        }
+
+        growHeaderQueue();
+        if (headersToDownload.isEmpty()) {
+            return;
+        }
+
+        Set<Channel> busy = headersToReceive.values().stream().map(r -> r.channel).collect(Collectors.toSet());
+        List<Channel> channels = channelMgr.getIdleChannels().stream()
+                .filter(c -> !busy.contains(c)
+                        && c.supports(Capability.RANGE_SYNC)
+                        && isQualified(c.getRemotePeer(), headersToDownload.first()))
+                .collect(Collectors.toList());
+        Collections.shuffle(channels, random);
+
+        for (Channel c : channels) {
+            if (headersToDownload.isEmpty()) {
+                break;
+            }
+            requestHeaders(c, headersToDownload.first());
+        }
+    }
+
+    /**
+     * Requests a contiguous range of queued headers, starting from the given one,
+     * from the given channel. The votes are requested for the blocks whose votes
+     * would be validated when importing.
+     *
+     * @param c
+     * @param from
+     */
+    private void requestHeaders(Channel c, long from) {
+        long latest = c.getRemotePeer().getLatestBlockNumber();
+        boolean skipVotes = skipVotes(from);
+
+        long to = from;
+        while (to - from + 1 < GetBlockRangeMessage.MAX_COUNT
+                && to + 1 <= latest
+                && headersToDownload.contains(to + 1)
+                && skipVotes(to + 1) == skipVotes) {
+            to++;
+        }
+
+        int parts = skipVotes ? BlockPart.encode(BlockPart.HEADER)
+                : BlockPart.encode(BlockPart.HEADER, BlockPart.VOTES);
+
+        int count = (int) (to - from + 1);
+        logger.trace("Requesting block headers #{} - #{} from {}:{}, parts = {}", from, to, c.getRemoteIp(),
+                c.getRemotePort(), parts);
+        c.getMessageQueue().sendMessage(new GetBlockRangeMessage(from, count, parts));
+
+        // the headers of the range share a request, refreshed as they stream in
+        Request r = new Request(c, TimeUtil.currentTimeMillis(), c.getRemotePeer().getStats().getTimeout(
+                DOWNLOAD_TIMEOUT));
+        for (long n = from; n <= to; n++) {
+            headersToDownload.remove(n);
+            headersToReceive.put(n, r);
+        }
+    }
+
+    /**
+     * Requests a single block from the given channel.
+     *
+     * @param c
+     * @param task
+     */
+    private void requestBlock(Channel c, long task) {
+        if (isHeaderFirst()) { // the header and votes are in the skeleton
+            logger.trace("Requesting block #{} from {}:{}, TRANSACTIONS", task, c.getRemoteIp(),
+                    c.getRemotePort());
+            c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task, BlockPart.encode(BlockPart.TRANSACTIONS)));
+        } else if (config.syncFastSync()) { // use FAST_SYNC protocol
+            if (skipVotes(task)) {
+                logger.trace("Requesting block #{} from {}:{}, HEADER + TRANSACTIONS", task,
+                        c.getRemoteIp(),
                         c.getRemotePort());
-                c.getMessageQueue().sendMessage(new GetBlockMessage(task));
+                c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task,
+                        BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS)));
+            } else {
+                logger.trace("Requesting block #{} from {}:{}, HEADER + TRANSACTIONS + VOTES", task,
+                        c.getRemoteIp(), c.getRemotePort());
+                c.getMessageQueue().sendMessage(new GetBlockPartsMessage(task,
+                        BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.VOTES)));
             }
+        } else { // use old protocol
+            logger.trace("Requesting block #{} from {}:{}, FULL BLOCK", task, c.getRemoteIp(),
+                    c.getRemotePort());
+            c.getMessageQueue().sendMessage(new GetBlockMessage(task));
+        }
 
-            if (toDownload.remove(task)) {
-                growToDownloadQueue();
+        if (toDownload.remove(task)) {
+            growToDownloadQueue();
+        }
+        addRequest(c, task, 1);
+    }
+
+    /**
+     * Requests a contiguous range of queued blocks, starting from the given one,
+     * from the given channel. With FAST_SYNC, a range never mixes the blocks with
+     * and without votes; with header-first sync, only the bodies are requested.
+     *
+     * @param c
+     * @param from
+     * @param max
+     *            the max number of blocks
+     */
+    private void requestRange(Channel c, long from, int max) {
+        long latest = c.getRemotePeer().getLatestBlockNumber();
+        boolean skipVotes = config.syncFastSync() && skipVotes(from);
+        int limit = Math.min(max, Math.min(config.syncMaxBlockRange(), GetBlockRangeMessage.MAX_COUNT));
+
+        long to = from;
+        while (to - from + 1 < limit
+                && to + 1 <= latest
+                && toDownload.contains(to + 1)
+                && (!config.syncFastSync() || isHeaderFirst() || skipVotes(to + 1) == skipVotes)) {
+            to++;
+        }
+
+        int parts;
+        if (isHeaderFirst()) {
+            parts = BlockPart.encode(BlockPart.TRANSACTIONS);
+        } else if (!config.syncFastSync()) {
+            parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.RESULTS, BlockPart.VOTES);
+        } else if (skipVotes) {
+            parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS);
+        } else {
+            parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.VOTES);
+        }
+
+        int count = (int) (to - from + 1);
+        logger.trace("Requesting blocks #{} - #{} from {}:{}, parts = {}", from, to, c.getRemoteIp(),
+                c.getRemotePort(), parts);
+        c.getMessageQueue().sendMessage(new GetBlockRangeMessage(from, count, parts));
+
+        for (long n = from; n <= to; n++) {
+            toDownload.remove(n);
+        }
+        addRequest(c, from, count);
+        growToDownloadQueue();
+    }
+
+    /**
+     * Records the blocks requested from a channel, with a timeout adapted to the
+     * peer.
+     *
+     * @param c
+     * @param from
+     * @param count
+     */
+    private void addRequest(Channel c, long from, int count) {
+        PeerStats stats = c.getRemotePeer().getStats();
+
+        // the blocks of the range share a request, refreshed as they stream in
+        Request r = new Request(c, TimeUtil.currentTimeMillis(), stats.getTimeout(DOWNLOAD_TIMEOUT));
+        for (long n = from; n < from + count; n++) {
+            Request prev = toReceive.put(n, r);
+            if (prev != null) {
+                prev.getStats().onCancel(1);
             }
-            toReceive.put(task, TimeUtil.currentTimeMillis());
         }
+        stats.onRequest(count);
+    }
+
+    /**
+     * Returns the score of a peer for scheduling, which is its block download rate
+     * discounted by its failure rate.
+     *
+     * @param stats
+     * @return
+     */
+    private static double score(PeerStats stats) {
+        return stats.getBlocksPerSecond() * (1 - stats.getFailureRate());
     }
 
     /**
      * Queue new tasks sequentially starting from
      * ${@link SemuxSync#latestQueuedTask} until the size of
      * ${@link SemuxSync#toDownload} queue is greater than or equal to
-     * MAX_QUEUED_JOBS
+     * MAX_QUEUED_JOBS. With header-first sync, only the blocks with verified
+     * headers are queued.
      */
     private void growToDownloadQueue() {
         // To avoid overhead, this method doesn't add new tasks before the queue is less
@@ -395,7 +908,8 @@ public class SemuxSync implements SyncManager {
         }
 
         for (long task = latestQueuedTask.get() + 1; //
-                task < target.get() && toDownload.size() < MAX_QUEUED_JOBS; //
+                task < target.get() && toDownload.size() < MAX_QUEUED_JOBS
+                        && (!isHeaderFirst() || task <= skeleton.getVerified()); //
                 task++) {
             latestQueuedTask.accumulateAndGet(task, (prev, next) -> next > prev ? next : prev);
             if (!chain.hasBlock(task)) {
@@ -404,6 +918,22 @@ public class SemuxSync implements SyncManager {
         }
     }
 
+    /**
+     * Queue the headers to download for header-first sync, up to MAX_QUEUED_JOBS
+     * blocks ahead of the chain.
+     */
+    private void growHeaderQueue() {
+        if (!isHeaderFirst()) {
+            return;
+        }
+
+        long limit = Math.min(target.get() - 1, chain.getLatestBlockNumber() + MAX_QUEUED_JOBS);
+        for (long n = latestQueuedHeader.get() + 1; n <= limit; n++) {
+            latestQueuedHeader.set(n);
+            headersToDownload.add(n);
+        }
+    }
+
     /**
      * Fast sync process: Validate votes only for the last block in each validator
      * set. For each block in the set, compare its hash against its child parent
@@ -427,6 +957,7 @@ public class SemuxSync implements SyncManager {
             checkpoint++;
         }
 
+        List<Pair<Block, Channel>> batch = new ArrayList<>();
         synchronized (lock) {
             // Move blocks from validate queue to import queue if within range
             Iterator<Pair<Block, Channel>> iterator = toValidate.iterator();
@@ -444,61 +975,82 @@ public class SemuxSync implements SyncManager {
                 }
             }
 
+            // take the whole range out, so that the network and validation stages are
+            // not blocked while importing
             if (toImport.size() >= checkpoint - latest) {
-                // Validate the block hashes
-                boolean valid = validateBlockHashes(latest + 1, checkpoint);
-
-                if (valid) {
-                    for (long n = latest + 1; n <= checkpoint; n++) {
-                        Pair<Block, Channel> p = toImport.remove(n);
-                        boolean imported = chain.importBlock(p.getKey(), false);
-                        if (!imported) {
-                            handleInvalidBlock(p.getKey(), p.getValue());
-                            break;
-                        }
-
-                        if (n == checkpoint) {
-                            logger.info("{}", p.getLeft());
-                        }
-                    }
-                    current.set(chain.getLatestBlockNumber() + 1);
+                for (long n = latest + 1; n <= checkpoint; n++) {
+                    batch.add(toImport.remove(n));
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Validate the block hashes
+        int imported = 0;
+        if (validateBlockHashes(batch)) {
+            for (; imported < batch.size(); imported++) {
+                Pair<Block, Channel> p = batch.get(imported);
+
+                // the transactions have been validated by the validation stage
+                if (!chain.importBlock(p.getKey(), false, false)) {
+                    handleInvalidBlock(p.getKey(), p.getValue());
+                    break;
+                }
+                importStage.processed.incrementAndGet();
+
+                if (p.getKey().getNumber() == checkpoint) {
+                    logger.info("{}", p.getLeft());
+                }
+            }
+            current.set(chain.getLatestBlockNumber() + 1);
+        }
+
+        // the validator set may have changed, which allows verifying more headers
+        if (isHeaderFirst() && imported > 0) {
+            synchronized (lock) {
+                skeleton.prune(chain.getLatestBlockNumber());
+                verifyHeaders(false);
+            }
+        }
+
+        // put back the blocks not imported, except the invalid one
+        synchronized (lock) {
+            for (Pair<Block, Channel> p : batch.subList(imported, batch.size())) {
+                if (!toDownload.contains(p.getKey().getNumber())) {
+                    toImport.put(p.getKey().getNumber(), p);
                 }
             }
         }
     }
 
     /**
-     * Validate block hashes in the toImport set.
-     *
-     * Assuming that the whole block range is available in the set.
+     * Validate the hashes of a contiguous range of blocks.
      *
-     * @param from
-     *            the start block number, inclusive
-     * @param to
-     *            the end block number, inclusive
+     * @param batch
+     *            the blocks, in order
      */
-    protected boolean validateBlockHashes(long from, long to) {
-        synchronized (lock) {
-            // Validate votes for the last block in set
-            Pair<Block, Channel> checkpoint = toImport.get(to);
-            Block block = checkpoint.getKey();
-            if (!chain.validateBlockVotes(block)) {
-                handleInvalidBlock(block, checkpoint.getValue());
-                return false;
-            }
+    protected boolean validateBlockHashes(List<Pair<Block, Channel>> batch) {
+        // Validate votes for the last block in set
+        Pair<Block, Channel> checkpoint = batch.get(batch.size() - 1);
+        Block block = checkpoint.getKey();
+        if (!chain.validateBlockVotes(block)) {
+            handleInvalidBlock(block, checkpoint.getValue());
+            return false;
+        }
 
-            for (long n = to - 1; n >= from; n--) {
-                Pair<Block, Channel> current = toImport.get(n);
-                Pair<Block, Channel> child = toImport.get(n + 1);
+        for (int i = batch.size() - 2; i >= 0; i--) {
+            Pair<Block, Channel> current = batch.get(i);
+            Pair<Block, Channel> child = batch.get(i + 1);
 
-                if (!Arrays.equals(current.getKey().getHash(), child.getKey().getParentHash())) {
-                    handleInvalidBlock(current.getKey(), current.getValue());
-                    return false;
-                }
+            if (!Arrays.equals(current.getKey().getHash(), child.getKey().getParentHash())) {
+                handleInvalidBlock(current.getKey(), current.getValue());
+                return false;
             }
-
-            return true;
         }
+
+        return true;
     }
 
     /**
@@ -516,11 +1068,24 @@ public class SemuxSync implements SyncManager {
             // add to the request queue
             toDownload.add(block.getNumber());
 
-            toReceive.remove(block.getNumber());
+            Request r = toReceive.remove(block.getNumber());
+            if (r != null) {
+                r.getStats().onCancel(1);
+            }
             toValidate.remove(Pair.of(block, channel));
             toImport.remove(block.getNumber());
         }
 
+        handleBadPeer(channel);
+    }
+
+    /**
+     * Handle bad peer: Ban the peer for the rest of the sync, and disconnect from
+     * it if configured.
+     *
+     * @param channel
+     */
+    protected void handleBadPeer(Channel channel) {
         badPeers.add(channel.getRemotePeer().getPeerId());
 
         if (config.syncDisconnectOnInvalidBlock()) {
@@ -529,6 +1094,16 @@ public class SemuxSync implements SyncManager {
         }
     }
 
+    /**
+     * Returns the stages of the sync pipeline, in order.
+     *
+     * @return
+     */
+    public List<Stage> getStages() {
+        return isHeaderFirst() ? Arrays.asList(headerStage, receiveStage, validateStage, importStage)
+                : Arrays.asList(receiveStage, validateStage, importStage);
+    }
+
     @Override
     public SemuxSyncProgress getProgress() {
         return new SemuxSyncProgress(
@@ -538,6 +1113,68 @@ public class SemuxSync implements SyncManager {
                 Duration.between(Instant.ofEpochMilli(beginningTimestamp.get()), Instant.now()));
     }
 
+    /**
+     * A block requested from a channel.
+     */
+    private static class Request {
+        final Channel channel;
+        final long timeout;
+
+        // the time of the request, or of the latest part of a streamed response
+        long timestamp;
+
+        Request(Channel channel, long timestamp, long timeout) {
+            this.channel = channel;
+            this.timestamp = timestamp;
+            this.timeout = timeout;
+        }
+
+        PeerStats getStats() {
+            return channel.getRemotePeer().getStats();
+        }
+    }
+
+    /**
+     * A stage of the sync pipeline, with the number of blocks it has processed and
+     * the number of blocks waiting for it.
+     */
+    public static class Stage {
+
+        private final String name;
+        private final AtomicLong processed = new AtomicLong();
+        private final IntSupplier backlog;
+        private long lastSampled;
+
+        public Stage(String name, IntSupplier backlog) {
+            this.name = name;
+            this.backlog = backlog;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        public int getBacklog() {
+            return backlog.getAsInt();
+        }
+
+        /**
+         * Returns the number of blocks processed since the last sample.
+         *
+         * @return
+         */
+        protected synchronized long sample() {
+            long n = processed.get();
+            long delta = n - lastSampled;
+            lastSampled = n;
+            return delta;
+        }
+    }
+
     public static class SemuxSyncProgress implements Progress {
 
         final long startingHeight;
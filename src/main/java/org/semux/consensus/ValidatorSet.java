@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semux.crypto.CryptoException;
+import org.semux.crypto.Hex;
+import org.semux.util.ByteArray;
+
+/**
+ * An immutable, ordered set of validators, which maps each validator address to
+ * its index for constant-time membership checks.
+ */
+public final class ValidatorSet {
+
+    private final List<String> validators;
+    private final Map<ByteArray, Integer> indices;
+
+    /**
+     * Creates a validator set.
+     *
+     * @param validators
+     *            the hex-encoded addresses of validators, in order
+     */
+    public ValidatorSet(List<String> validators) {
+        this.validators = Collections.unmodifiableList(new ArrayList<>(validators));
+        this.indices = new HashMap<>();
+        for (int i = 0; i < validators.size(); i++) {
+            indices.putIfAbsent(ByteArray.of(Hex.decode0x(validators.get(i))), i);
+        }
+    }
+
+    /**
+     * Returns the index of the given validator.
+     *
+     * @param address
+     * @return the index, or -1 if the address is not a validator
+     */
+    public int indexOf(byte[] address) {
+        Integer index = indices.get(ByteArray.of(address));
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns whether the given address is a validator.
+     *
+     * @param address
+     * @return
+     */
+    public boolean contains(byte[] address) {
+        return indices.containsKey(ByteArray.of(address));
+    }
+
+    /**
+     * Returns whether the given hex-encoded address is a validator.
+     *
+     * @param address
+     * @return false if the address is not a validator or not valid hex
+     */
+    public boolean contains(String address) {
+        try {
+            return contains(Hex.decode0x(address));
+        } catch (CryptoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the hex-encoded address of the validator at the given index.
+     *
+     * @param index
+     * @return
+     */
+    public String get(int index) {
+        return validators.get(index);
+    }
+
+    /**
+     * Returns the number of validators.
+     *
+     * @return
+     */
+    public int size() {
+        return validators.size();
+    }
+
+    /**
+     * Returns the minimum number of votes for a +2/3 quorum.
+     *
+     * @return
+     */
+    public int getTwoThirds() {
+        return (int) Math.ceil(validators.size() * 2.0 / 3.0);
+    }
+
+    /**
+     * Returns a validator set of the first n validators.
+     *
+     * @param n
+     * @return
+     */
+    public ValidatorSet limit(int n) {
+        return n >= validators.size() ? this : new ValidatorSet(validators.subList(0, n));
+    }
+
+    /**
+     * Returns the hex-encoded addresses of validators, as an unmodifiable list.
+     *
+     * @return
+     */
+    public List<String> toList() {
+        return validators;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidatorSet [# validators = " + validators.size() + "]";
+    }
+}
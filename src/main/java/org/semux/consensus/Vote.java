@@ -6,6 +6,10 @@
  */
 package org.semux.consensus;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.semux.crypto.Key;
 import org.semux.crypto.Key.Signature;
 import org.semux.util.Bytes;
@@ -26,7 +30,7 @@ public class Vote {
     private final byte[] encoded;
 
     private Signature signature;
-    private Boolean validated;
+    private volatile Boolean validated;
 
     public Vote(VoteType type, boolean value, long height, int view, byte[] blockHash) {
         this.type = type;
@@ -86,12 +90,48 @@ public class Vote {
      * @return
      */
     public boolean revalidate() {
-        return (validated = (type != null
+        return (validated = (isWellFormed() && Key.verify(encoded, signature)));
+    }
+
+    /**
+     * Validates the given votes, verifying the signatures in batch if possible. The
+     * result is memoized in each vote; votes already validated are skipped.
+     *
+     * @param votes
+     */
+    public static void validateBatch(List<Vote> votes) {
+        List<Vote> unverified = new ArrayList<>();
+        for (Vote v : votes) {
+            if (v.validated == null) {
+                if (v.isWellFormed()) {
+                    unverified.add(v);
+                } else {
+                    v.validated = false;
+                }
+            }
+        }
+
+        // on failure, fall back to individual verification to find out the invalid
+        // ones
+        if (Key.isVerifyBatchSupported() && unverified.size() >= 3 && Key.verifyBatch(
+                unverified.stream().map(Vote::getEncoded).collect(Collectors.toList()),
+                unverified.stream().map(Vote::getSignature).collect(Collectors.toList()))) {
+            unverified.forEach(v -> v.validated = true);
+            return;
+        }
+
+        for (Vote v : unverified) {
+            v.validated = Key.verify(v.encoded, v.signature);
+        }
+    }
+
+    private boolean isWellFormed() {
+        return type != null
                 && height > 0
                 && view >= 0
                 && blockHash != null && blockHash.length == 32
                 && encoded != null
-                && signature != null && Key.verify(encoded, signature)));
+                && signature != null;
     }
 
     /**
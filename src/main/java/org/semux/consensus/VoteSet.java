@@ -7,15 +7,14 @@
 package org.semux.consensus;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
-import org.semux.crypto.Hex;
 import org.semux.crypto.Key.Signature;
 import org.semux.util.ByteArray;
 
@@ -26,16 +25,20 @@ import org.semux.util.ByteArray;
  * votes are not. This class is not thread-safe.
  * </p>
  *
+ * <p>
+ * Votes are tallied in bitsets indexed by validator, so that the +2/3 checks
+ * are population counts.
+ * </p>
  */
 public class VoteSet {
 
-    private final Map<ByteArray, Map<String, Vote>> approvals;
-    private final Map<String, Vote> rejections;
+    private final Map<ByteArray, Tally> approvals;
+    private final Tally rejections;
     private final VoteType type;
     private final long height;
     private final int view;
 
-    private final Set<String> validators;
+    private final ValidatorSet validators;
     private final int twoThirds;
 
     /**
@@ -46,14 +49,25 @@ public class VoteSet {
      * @param validators
      */
     public VoteSet(VoteType type, long height, int view, List<String> validators) {
+        this(type, height, view, new ValidatorSet(validators));
+    }
+
+    /**
+     * Create a vote set.
+     *
+     * @param height
+     * @param view
+     * @param validators
+     */
+    public VoteSet(VoteType type, long height, int view, ValidatorSet validators) {
         this.approvals = new HashMap<>();
-        this.rejections = new HashMap<>();
+        this.rejections = new Tally(validators.size());
         this.type = type;
         this.height = height;
         this.view = view;
 
-        this.validators = new HashSet<>(validators);
-        this.twoThirds = (int) Math.ceil(validators.size() * 2.0 / 3.0);
+        this.validators = validators;
+        this.twoThirds = validators.getTwoThirds();
     }
 
     /**
@@ -72,16 +86,17 @@ public class VoteSet {
                 && vote.getView() == view
                 && vote.getBlockHash() != null
                 && vote.validate()
-                && sig != null
-                && validators.contains(Hex.encode(sig.getAddress()))) {
-            String peerId = Hex.encode(sig.getAddress());
+                && sig != null) {
+            int index = validators.indexOf(sig.getAddress());
+            if (index < 0) {
+                return false;
+            }
 
             if (vote.getValue() == Vote.VALUE_APPROVE) {
                 ByteArray key = ByteArray.of(vote.getBlockHash());
-                Map<String, Vote> map = approvals.computeIfAbsent(key, k -> new HashMap<>());
-                return map.put(peerId, vote) == null;
+                return approvals.computeIfAbsent(key, k -> new Tally(validators.size())).put(index, vote);
             } else {
-                return rejections.put(peerId, vote) == null;
+                return rejections.put(index, vote);
             }
         }
 
@@ -109,8 +124,8 @@ public class VoteSet {
      * @return
      */
     public boolean isApproved(byte[] blockHash) {
-        Map<String, Vote> v = approvals.get(ByteArray.of(blockHash));
-        return v != null && v.size() >= getTwoThirds();
+        Tally t = approvals.get(ByteArray.of(blockHash));
+        return t != null && t.count() >= getTwoThirds();
     }
 
     /**
@@ -119,7 +134,7 @@ public class VoteSet {
      * @return
      */
     public boolean isRejected() {
-        return rejections.size() >= getTwoThirds();
+        return rejections.count() >= getTwoThirds();
     }
 
     /**
@@ -128,9 +143,8 @@ public class VoteSet {
      * @return
      */
     public Optional<byte[]> anyApproved() {
-        for (Map.Entry<ByteArray, Map<String, Vote>> e : approvals.entrySet()) {
-            Map<String, Vote> v = e.getValue();
-            if (v.size() >= getTwoThirds()) {
+        for (Map.Entry<ByteArray, Tally> e : approvals.entrySet()) {
+            if (e.getValue().count() >= getTwoThirds()) {
                 return Optional.of(e.getKey().getData());
             }
         }
@@ -152,8 +166,8 @@ public class VoteSet {
      * @return
      */
     public List<Vote> getApprovals(byte[] blockHash) {
-        Map<String, Vote> map = approvals.get(ByteArray.of(blockHash));
-        return map == null ? new ArrayList<>() : new ArrayList<>(map.values());
+        Tally t = approvals.get(ByteArray.of(blockHash));
+        return t == null ? new ArrayList<>() : t.getVotes();
     }
 
     /**
@@ -162,7 +176,7 @@ public class VoteSet {
      * @return
      */
     public List<Vote> getRejections() {
-        return new ArrayList<>(rejections.values());
+        return rejections.getVotes();
     }
 
     /**
@@ -180,15 +194,57 @@ public class VoteSet {
      * @return
      */
     public int size() {
-        return approvals.size() + rejections.size();
+        return approvals.size() + rejections.count();
     }
 
     @Override
     public String toString() {
         int count = 0;
-        for (Map<String, Vote> map : approvals.values()) {
-            count = Math.max(count, map.size());
+        for (Tally t : approvals.values()) {
+            count = Math.max(count, t.count());
+        }
+        return "[" + count + ", " + rejections.count() + "]";
+    }
+
+    /**
+     * The votes for one block hash, or the rejections, indexed by validator.
+     */
+    private static final class Tally {
+        private final BitSet voters;
+        private final Vote[] votes;
+
+        Tally(int size) {
+            this.voters = new BitSet(size);
+            this.votes = new Vote[size];
+        }
+
+        /**
+         * Puts a vote, replacing the previous one from the same validator.
+         *
+         * @return true if the validator has not voted before
+         */
+        boolean put(int index, Vote vote) {
+            boolean isNew = !voters.get(index);
+            voters.set(index);
+            votes[index] = vote;
+            return isNew;
+        }
+
+        int count() {
+            return voters.cardinality();
+        }
+
+        List<Vote> getVotes() {
+            List<Vote> list = new ArrayList<>(count());
+            for (int i = voters.nextSetBit(0); i >= 0; i = voters.nextSetBit(i + 1)) {
+                list.add(votes[i]);
+            }
+            return list;
+        }
+
+        void clear() {
+            voters.clear();
+            Arrays.fill(votes, null);
         }
-        return "[" + count + ", " + rejections.size() + "]";
     }
 }
@@ -503,11 +503,25 @@ public class Block {
     }
 
     public byte[] toBytes() {
-        SimpleEncoder enc = new SimpleEncoder();
-        enc.writeBytes(getEncodedHeader());
-        enc.writeBytes(getEncodedTransactions());
-        enc.writeBytes(getEncodedResults());
-        enc.writeBytes(getEncodedVotes());
+        return toBytes(getEncodedHeader(), getEncodedTransactions(), getEncodedResults(), getEncodedVotes());
+    }
+
+    /**
+     * Serializes a block from its encoded components, without decoding them.
+     *
+     * @param header
+     * @param transactions
+     * @param results
+     * @param votes
+     * @return the same bytes as {@link #toBytes()}
+     */
+    public static byte[] toBytes(byte[] header, byte[] transactions, byte[] results, byte[] votes) {
+        SimpleEncoder enc = new SimpleEncoder(header.length + transactions.length + results.length + votes.length
+                + 4 * 5);
+        enc.writeBytes(header);
+        enc.writeBytes(transactions);
+        enc.writeBytes(results);
+        enc.writeBytes(votes);
 
         return enc.toBytes();
     }
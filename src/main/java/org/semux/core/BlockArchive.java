@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.semux.config.Config;
+import org.semux.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports blocks to a flat file and imports them back, which allows seeding a
+ * node from a trusted archive instead of syncing from the network.
+ *
+ * <pre>
+ * file:   [magic (int)] [version (int)] [network id (byte)] [record]*
+ * record: [length (int)] [block bytes] [CRC32 of block bytes (int)]
+ * </pre>
+ *
+ * The block bytes are the stored components of a block, copied without
+ * decoding them. When importing, the blocks are decoded and their transactions
+ * validated in parallel, then applied in order.
+ */
+public class BlockArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockArchive.class);
+
+    private static final int MAGIC = 0x534d5842; // "SMXB"
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final int VALIDATOR_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // the max number of blocks being validated ahead of the import
+    private static final int MAX_PENDING_BLOCKS = 1024;
+
+    private final Config config;
+    private final Blockchain chain;
+
+    public BlockArchive(Config config, Blockchain chain) {
+        this.config = config;
+        this.chain = chain;
+    }
+
+    /**
+     * Exports a range of blocks.
+     *
+     * @param file
+     *            the archive to create
+     * @param from
+     *            the first block number
+     * @param to
+     *            the last block number, bounded by the latest block
+     * @return the number of exported blocks, or -1 if the export failed
+     */
+    public long exportBlocks(File file, long from, long to) {
+        int parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.RESULTS, BlockPart.VOTES);
+        long last = Math.min(to, chain.getLatestBlockNumber());
+        long exported = 0;
+
+        try (FileOutputStream fos = new FileOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(config.network().id());
+
+            for (long n = Math.max(from, 0); n <= last; n++) {
+                List<byte[]> b = chain.getBlockParts(n, parts);
+                if (b == null) {
+                    break;
+                }
+
+                IOUtil.writeRecord(out, Block.toBytes(b.get(0), b.get(1), b.get(2), b.get(3)));
+
+                if (++exported % 10_000 == 0) {
+                    logger.info("Exported {} blocks, latest = #{}", exported, n);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            logger.error("Failed to export blocks: file = {}", file, e);
+            return -1;
+        }
+
+        logger.info("Exported {} blocks to {}", exported, file);
+        return exported;
+    }
+
+    /**
+     * Imports the blocks of an archive on top of the chain. Blocks which are
+     * already in the chain are skipped, and the import stops at the first invalid
+     * block; the blocks before it remain imported.
+     *
+     * @param file
+     *            the archive to read
+     * @param validateVotes
+     *            whether to validate the votes of the last block of each validator
+     *            period; the votes of the other blocks are never validated
+     * @return the number of imported blocks, or -1 if the archive can't be read
+     *         or contains an invalid block
+     */
+    public long importBlocks(File file, boolean validateVotes) {
+        long start = chain.getLatestBlockNumber();
+        long interval = config.spec().getValidatorUpdateInterval();
+
+        ExecutorService validators = Executors.newFixedThreadPool(VALIDATOR_THREADS, new ThreadFactory() {
+            private final AtomicInteger cnt = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "archive-validator-" + cnt.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.error("Not a block archive: file = {}", file);
+                return -1;
+            }
+            if (in.readByte() != config.network().id()) {
+                logger.error("The block archive is not for {}: file = {}", config.network(), file);
+                return -1;
+            }
+
+            // validate ahead, and import in the file order
+            Deque<Future<Block>> pending = new ArrayDeque<>();
+            boolean ok = true;
+            byte[] bytes;
+            while (ok && (bytes = IOUtil.readRecord(in, MAX_RECORD_SIZE)) != null) {
+                byte[] record = bytes;
+                pending.add(validators.submit(() -> validate(record)));
+
+                if (pending.size() >= MAX_PENDING_BLOCKS) {
+                    ok = apply(pending.poll(), validateVotes, interval);
+                }
+            }
+            while (ok && !pending.isEmpty()) {
+                ok = apply(pending.poll(), validateVotes, interval);
+            }
+
+            if (!ok) {
+                logger.error("Stopped importing blocks from {}, latest = #{}", file, chain.getLatestBlockNumber());
+                return -1;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read the block archive: file = {}, latest = #{}", file,
+                    chain.getLatestBlockNumber(), e);
+            return -1;
+        } finally {
+            validators.shutdownNow();
+        }
+
+        long imported = chain.getLatestBlockNumber() - start;
+        logger.info("Imported {} blocks from {}, latest = #{}", imported, file, chain.getLatestBlockNumber());
+        return imported;
+    }
+
+    /**
+     * Decodes a block and validates the parts which don't depend on the chain
+     * state.
+     *
+     * @param bytes
+     * @return the block, or null if it's invalid
+     */
+    private Block validate(byte[] bytes) {
+        try {
+            Block block = Block.fromBytes(bytes);
+            BlockHeader header = block.getHeader();
+            if (header.validate() && block.validateTransactions(header, block.getTransactions(), config.network())) {
+                return block;
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to decode a block from the archive", e);
+        }
+        return null;
+    }
+
+    /**
+     * Imports a validated block.
+     *
+     * @param future
+     * @param validateVotes
+     * @param interval
+     *            the validator update interval
+     * @return whether to continue the import
+     */
+    private boolean apply(Future<Block> future, boolean validateVotes, long interval) {
+        Block block;
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            block = null;
+        }
+
+        if (block == null) {
+            logger.error("Invalid block in the archive, after #{}", chain.getLatestBlockNumber());
+            return false;
+        }
+        if (block.getNumber() <= chain.getLatestBlockNumber()) {
+            return true;
+        }
+
+        boolean checkpoint = validateVotes && block.getNumber() % interval == 0;
+        // the transactions have been validated by the validators
+        if (!chain.importBlock(block, checkpoint, false)) {
+            logger.error("Failed to import block #{} from the archive", block.getNumber());
+            return false;
+        }
+
+        if (block.getNumber() % 10_000 == 0) {
+            logger.info("Imported block #{}", block.getNumber());
+        }
+        return true;
+    }
+}
@@ -9,6 +9,7 @@ package org.semux.core;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.semux.consensus.ValidatorSet;
 import org.semux.core.BlockchainImpl.ValidatorStats;
 import org.semux.core.state.AccountState;
 import org.semux.core.state.DelegateState;
@@ -68,6 +69,19 @@ public interface Blockchain {
      */
     Block getBlock(byte[] hash);
 
+    /**
+     * Returns the parts of a block in their stored encoding, without decoding
+     * them. The returned arrays are shared and must not be modified.
+     *
+     * @param number
+     *            block number
+     * @param parts
+     *            the encoded {@link BlockPart}s
+     * @return the parts in the order of {@link BlockPart#decode(int)}, or null if
+     *         the block doesn't exist
+     */
+    List<byte[]> getBlockParts(long number, int parts);
+
     /**
      * Returns block header by block number.
      * 
@@ -206,6 +220,14 @@ public interface Blockchain {
      */
     List<String> getValidators();
 
+    /**
+     * Returns the validator set based on current state, which is cached until the
+     * next validator update.
+     *
+     * @return
+     */
+    ValidatorSet getValidatorSet();
+
     /**
      * Returns the statistics of a validator.
      * 
@@ -260,6 +282,37 @@ public interface Blockchain {
      */
     boolean importBlock(Block block, boolean validateVotes);
 
+    /**
+     * Imports a new block, optionally skipping the validation of transaction
+     * signatures and the transactions root, when the caller has already validated
+     * them.
+     *
+     * @param block
+     *            the block to import
+     * @param validateVotes
+     *            whether to validate the block votes
+     * @param validateTransactions
+     *            whether to validate the transactions
+     * @return true if the block is successfully imported; otherwise, false
+     */
+    boolean importBlock(Block block, boolean validateVotes, boolean validateTransactions);
+
+    /**
+     * Imports a new block whose transactions have already been executed on top of
+     * the latest block, by committing the resulting state overlays instead of
+     * executing the transactions again.
+     *
+     * @param block
+     *            the block to import, with its results
+     * @param asTrack
+     *            the account state overlay, tracked from the current account state
+     * @param dsTrack
+     *            the delegate state overlay, tracked from the current delegate
+     *            state
+     * @return true if the block is successfully imported; otherwise, false
+     */
+    boolean importBlock(Block block, AccountState asTrack, DelegateState dsTrack);
+
     /**
      * Validate the block votes only.
      *
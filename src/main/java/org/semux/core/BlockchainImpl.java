@@ -34,6 +34,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.vm.client.BlockStore;
 import org.semux.config.Config;
 import org.semux.config.Constants;
+import org.semux.consensus.ValidatorSet;
 import org.semux.consensus.Vote;
 import org.semux.consensus.VoteType;
 import org.semux.core.Genesis.Premine;
@@ -62,6 +63,9 @@ import org.semux.vm.client.SemuxInternalTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 /**
  * Blockchain implementation.
  *
@@ -113,6 +117,9 @@ public class BlockchainImpl implements Blockchain {
     protected static final byte TYPE_BLOCK_RESULTS_BY_NUMBER = 0x02;
     protected static final byte TYPE_BLOCK_VOTES_BY_NUMBER = 0x03;
 
+    // the max total size of the encoded blocks cache, in bytes
+    private static final int ENCODED_BLOCKS_CACHE_SIZE = 64 * 1024 * 1024;
+
     private final BlockStore blockStore = new SemuxBlockStore(this);
     private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
 
@@ -132,6 +139,15 @@ public class BlockchainImpl implements Blockchain {
 
     private Block latestBlock;
 
+    // cached until the next validator update
+    private volatile ValidatorSet validatorSet;
+
+    // recently served blocks, as stored, indexed by number
+    private final Cache<Long, byte[][]> encodedBlocks = Caffeine.newBuilder()
+            .maximumWeight(ENCODED_BLOCKS_CACHE_SIZE)
+            .weigher((Long number, byte[][] parts) -> Arrays.stream(parts).mapToInt(b -> b.length).sum())
+            .build();
+
     private ActivatedForks forks;
 
     public BlockchainImpl(Config config, DatabaseFactory dbFactory) {
@@ -232,6 +248,42 @@ public class BlockchainImpl implements Blockchain {
         return (number == -1) ? null : getBlock(number);
     }
 
+    @Override
+    public List<byte[]> getBlockParts(long number, int parts) {
+        byte[][] encoded = encodedBlocks.get(number, n -> {
+            byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(n)));
+            if (header == null) {
+                return null;
+            }
+
+            // indexed by the ordinal of BlockPart
+            byte[][] blockParts = new byte[][] {
+                    header,
+                    blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS_BY_NUMBER, Bytes.of(n))),
+                    blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS_BY_NUMBER, Bytes.of(n))),
+                    blockDB.get(Bytes.merge(TYPE_BLOCK_VOTES_BY_NUMBER, Bytes.of(n)))
+            };
+
+            // the header is written first, so a block being added may be incomplete;
+            // it's neither returned nor cached
+            for (byte[] part : blockParts) {
+                if (part == null) {
+                    return null;
+                }
+            }
+            return blockParts;
+        });
+        if (encoded == null) {
+            return null;
+        }
+
+        List<byte[]> result = new ArrayList<>();
+        for (BlockPart part : BlockPart.decode(parts)) {
+            result.add(encoded[part.ordinal()]);
+        }
+        return result;
+    }
+
     @Override
     public BlockHeader getBlockHeader(long number) {
         byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(number)));
@@ -464,18 +516,29 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public List<String> getValidators() {
-        List<String> validators = new ArrayList<>();
+        return new ArrayList<>(getValidatorSet().toList());
+    }
 
-        byte[] v = indexDB.get(Bytes.of(TYPE_VALIDATORS));
-        if (v != null) {
-            SimpleDecoder dec = new SimpleDecoder(v);
-            int n = dec.readInt();
-            for (int i = 0; i < n; i++) {
-                validators.add(dec.readString());
+    @Override
+    public ValidatorSet getValidatorSet() {
+        ValidatorSet set = validatorSet;
+        if (set == null) {
+            List<String> validators = new ArrayList<>();
+
+            byte[] v = indexDB.get(Bytes.of(TYPE_VALIDATORS));
+            if (v != null) {
+                SimpleDecoder dec = new SimpleDecoder(v);
+                int n = dec.readInt();
+                for (int i = 0; i < n; i++) {
+                    validators.add(dec.readString());
+                }
             }
+
+            set = new ValidatorSet(validators);
+            validatorSet = set;
         }
 
-        return validators;
+        return set;
     }
 
     @Override
@@ -507,6 +570,7 @@ public class BlockchainImpl implements Blockchain {
             enc.writeString(v);
         }
         indexDB.put(Bytes.of(TYPE_VALIDATORS), enc.toBytes());
+        validatorSet = new ValidatorSet(validators);
     }
 
     /**
@@ -749,9 +813,54 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public boolean importBlock(Block block, boolean validateVotes) {
+        return importBlock(block, validateVotes, true);
+    }
+
+    @Override
+    public boolean importBlock(Block block, boolean validateVotes, boolean validateTransactions) {
         AccountState asTrack = this.getAccountState().track();
         DelegateState dsTrack = this.getDelegateState().track();
-        return validateBlock(block, asTrack, dsTrack, validateVotes) && applyBlock(block, asTrack, dsTrack);
+        return validateBlock(block, asTrack, dsTrack, validateVotes, validateTransactions)
+                && applyBlock(block, asTrack, dsTrack);
+    }
+
+    @Override
+    public boolean importBlock(Block block, AccountState asTrack, DelegateState dsTrack) {
+        // the overlays are only valid on top of the state they were executed on
+        if (block.getResults() == null || !validateBlockHeader(block)) {
+            return false;
+        }
+
+        return applyBlock(block, asTrack, dsTrack);
+    }
+
+    /**
+     * Validate the block header against the latest block and the checkpoints.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean validateBlockHeader(Block block) {
+        BlockHeader header = block.getHeader();
+
+        // [1] check block header
+        Block latest = this.getLatestBlock();
+        if (!block.validateHeader(header, latest.getHeader())) {
+            logger.error("Invalid block header");
+            return false;
+        }
+
+        // [?] additional checks by block importer
+        // - check points
+        if (config.checkpoints().containsKey(header.getNumber()) &&
+                !Arrays.equals(header.getHash(), config.checkpoints().get(header.getNumber()))) {
+            logger.error("Checkpoint validation failed, checkpoint is {} => {}, getting {}", header.getNumber(),
+                    Hex.encode0x(config.checkpoints().get(header.getNumber())),
+                    Hex.encode0x(header.getHash()));
+            return false;
+        }
+
+        return true;
     }
 
     /**
@@ -764,29 +873,33 @@ public class BlockchainImpl implements Blockchain {
      * @return
      */
     protected boolean validateBlock(Block block, AccountState asTrack, DelegateState dsTrack, boolean validateVotes) {
+        return validateBlock(block, asTrack, dsTrack, validateVotes, true);
+    }
+
+    /**
+     * Validate the block. Votes are validated only if validateVotes is true, and
+     * the transaction signatures and root only if validateTransactions is true.
+     *
+     * @param block
+     * @param asTrack
+     * @param dsTrack
+     * @param validateVotes
+     * @param validateTransactions
+     * @return
+     */
+    protected boolean validateBlock(Block block, AccountState asTrack, DelegateState dsTrack, boolean validateVotes,
+            boolean validateTransactions) {
         try {
             BlockHeader header = block.getHeader();
             List<Transaction> transactions = block.getTransactions();
 
-            // [1] check block header
-            Block latest = this.getLatestBlock();
-            if (!block.validateHeader(header, latest.getHeader())) {
-                logger.error("Invalid block header");
-                return false;
-            }
-
-            // [?] additional checks by block importer
-            // - check points
-            if (config.checkpoints().containsKey(header.getNumber()) &&
-                    !Arrays.equals(header.getHash(), config.checkpoints().get(header.getNumber()))) {
-                logger.error("Checkpoint validation failed, checkpoint is {} => {}, getting {}", header.getNumber(),
-                        Hex.encode0x(config.checkpoints().get(header.getNumber())),
-                        Hex.encode0x(header.getHash()));
+            // [1] check block header and checkpoints
+            if (!validateBlockHeader(block)) {
                 return false;
             }
 
             // [2] check transactions
-            if (!block.validateTransactions(header, transactions, config.network())) {
+            if (validateTransactions && !block.validateTransactions(header, transactions, config.network())) {
                 logger.error("Invalid transactions");
                 return false;
             }
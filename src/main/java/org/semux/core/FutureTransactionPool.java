@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import org.semux.util.ByteArray;
+import org.semux.util.Bytes;
+
+/**
+ * A byte-bounded pool of transactions whose nonce is ahead of the sender's
+ * pending nonce. When the pool is full, the entries with the lowest fee per
+ * byte are evicted first, and the earliest added among those with the same fee
+ * rate. The timestamp of the transactions is set by the sender, so it plays no
+ * part in the order.
+ *
+ * This class is not thread-safe; it's guarded by the lock of
+ * {@link PendingManager}.
+ */
+public class FutureTransactionPool {
+
+    private static final Comparator<Entry> EVICTION_ORDER = (a, b) -> {
+        // compares fee / weight without the rounding of a division
+        int c = a.fee.multiply(BigInteger.valueOf(b.weight)).compareTo(b.fee.multiply(BigInteger.valueOf(a.weight)));
+        return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+    };
+
+    private final long maxBytes;
+
+    private final Map<ByteArray, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> eviction = new TreeSet<>(EVICTION_ORDER);
+    private final Map<ByteArray, Integer> senders = new HashMap<>();
+
+    private long bytes = 0;
+    private long sequence = 0;
+
+    /**
+     * Creates a pool with the given size limit.
+     *
+     * @param maxBytes
+     *            the max estimated size of all transactions, in bytes
+     */
+    public FutureTransactionPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a transaction, evicting lower priority entries if the pool is full.
+     * An existing transaction with the same sender and nonce is replaced only by
+     * one offering a higher fee, and only once the replacement is accepted.
+     *
+     * @param tx
+     * @return true if the transaction has been added, or false if it doesn't bump
+     *         the fee of the transaction it replaces, or has a lower priority than
+     *         all the entries it would have to evict
+     */
+    public boolean add(Transaction tx) {
+        Entry entry = new Entry(tx, sequence++);
+        Entry replaced = entries.get(entry.key);
+        if (replaced != null && entry.fee.compareTo(replaced.fee) <= 0) {
+            return false;
+        }
+
+        // find the entries to evict, all of which must have a lower priority; the
+        // replaced entry is freed in any case
+        List<Entry> evicted = new ArrayList<>();
+        long freed = replaced == null ? 0 : replaced.weight;
+        for (Iterator<Entry> it = eviction.iterator(); bytes - freed + entry.weight > maxBytes && it.hasNext();) {
+            Entry e = it.next();
+            if (e == replaced) {
+                continue;
+            }
+            if (EVICTION_ORDER.compare(entry, e) < 0) {
+                return false;
+            }
+            evicted.add(e);
+            freed += e.weight;
+        }
+        if (bytes - freed + entry.weight > maxBytes) {
+            return false;
+        }
+        if (replaced != null) {
+            remove(replaced);
+        }
+        evicted.forEach(this::remove);
+
+        entries.put(entry.key, entry);
+        eviction.add(entry);
+        senders.merge(ByteArray.of(tx.getFrom()), 1, Integer::sum);
+        bytes += entry.weight;
+        return true;
+    }
+
+    /**
+     * Removes and returns the transaction of the given sender and nonce.
+     *
+     * @param from
+     * @param nonce
+     * @return the transaction, or null if not in the pool
+     */
+    public Transaction remove(byte[] from, long nonce) {
+        Entry entry = entries.get(key(from, nonce));
+        if (entry == null) {
+            return null;
+        }
+
+        remove(entry);
+        return entry.tx;
+    }
+
+    /**
+     * Removes all transactions matching the given predicate.
+     *
+     * @param filter
+     * @return the number of removed transactions
+     */
+    public int removeIf(Predicate<Transaction> filter) {
+        List<Entry> matches = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            if (filter.test(e.tx)) {
+                matches.add(e);
+            }
+        }
+
+        matches.forEach(this::remove);
+        return matches.size();
+    }
+
+    /**
+     * Returns the number of transactions from the given sender.
+     *
+     * @param from
+     * @return
+     */
+    public int count(byte[] from) {
+        return senders.getOrDefault(ByteArray.of(from), 0);
+    }
+
+    /**
+     * Returns the number of transactions.
+     *
+     * @return
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of all transactions, in bytes.
+     *
+     * @return
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns a copy of all transactions.
+     *
+     * @return
+     */
+    public List<Transaction> getTransactions() {
+        List<Transaction> txs = new ArrayList<>(entries.size());
+        for (Entry e : entries.values()) {
+            txs.add(e.tx);
+        }
+        return txs;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        eviction.remove(entry);
+        senders.computeIfPresent(ByteArray.of(entry.tx.getFrom()), (k, v) -> v > 1 ? v - 1 : null);
+        bytes -= entry.weight;
+    }
+
+    private static ByteArray key(byte[] from, long nonce) {
+        return ByteArray.of(Bytes.merge(from, Bytes.of(nonce)));
+    }
+
+    /**
+     * Returns the total fee a transaction offers, including the max gas cost of VM
+     * transactions.
+     *
+     * @param tx
+     * @return
+     */
+    static BigInteger fee(Transaction tx) {
+        return tx.getFee().toBigInteger()
+                .add(tx.getGasPrice().toBigInteger().multiply(BigInteger.valueOf(tx.getGas())));
+    }
+
+    /**
+     * Returns the estimated heap footprint of a transaction: the encoded form, the
+     * decoded fields (mostly a copy of the data) and the object headers.
+     *
+     * @param tx
+     * @return
+     */
+    static int weigh(Transaction tx) {
+        return 2 * tx.getEncoded().length + 256;
+    }
+
+    private static final class Entry {
+        final Transaction tx;
+        final ByteArray key;
+        final BigInteger fee;
+        final int weight;
+        final long sequence;
+
+        Entry(Transaction tx, long sequence) {
+            this.tx = tx;
+            this.key = key(tx.getFrom(), tx.getNonce());
+            this.fee = fee(tx);
+            this.weight = weigh(tx);
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semux.util.ByteArray;
+import org.semux.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of pending transactions, which allows the pending
+ * manager to restore its pool after a restart.
+ *
+ * <pre>
+ * record: [length (int)] [transaction bytes] [CRC32 of transaction bytes (int)]
+ * </pre>
+ *
+ * The journal consists of a snapshot file and a log file. Compaction rotates
+ * the log, writes the live transactions into a new snapshot, and then deletes
+ * the rotated log. A truncated or corrupted tail is ignored when loading.
+ */
+public class PendingJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingJournal.class);
+
+    private static final String SNAPSHOT_FILE = "snapshot";
+    private static final String LOG_FILE = "journal";
+    private static final String ROTATED_LOG_FILE = "journal.old";
+
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private final File dir;
+
+    // serializes compactions, which write the snapshot without holding the
+    // journal lock
+    private final Object compactLock = new Object();
+
+    private DataOutputStream out;
+
+    private long appended;
+
+    /**
+     * Creates a journal in the given directory.
+     *
+     * @param dir
+     */
+    public PendingJournal(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Opens the log file for appending.
+     *
+     * @return true if success, otherwise false
+     */
+    public synchronized boolean open() {
+        try {
+            Files.createDirectories(dir.toPath());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(LOG_FILE), true)));
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to open the pending transaction journal", e);
+            return false;
+        }
+    }
+
+    /**
+     * Closes the log file.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the pending transaction journal", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Appends a transaction to the log. The record is buffered until
+     * {@link #flush()} is called.
+     *
+     * @param tx
+     */
+    public synchronized void append(Transaction tx) {
+        if (out != null) {
+            try {
+                IOUtil.writeRecord(out, tx.toBytes());
+                appended++;
+            } catch (IOException e) {
+                logger.error("Failed to write the pending transaction journal", e);
+            }
+        }
+    }
+
+    /**
+     * Flushes the buffered records to the log file.
+     */
+    public synchronized void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                logger.error("Failed to flush the pending transaction journal", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records appended since the last rotation.
+     *
+     * @return
+     */
+    public synchronized long getAppendedCount() {
+        return appended;
+    }
+
+    /**
+     * Rotates the log file. Records appended after this call go to a new log,
+     * which is kept by the following {@link #compact(Collection)}.
+     */
+    public synchronized void rotate() {
+        close();
+
+        try {
+            if (file(LOG_FILE).exists()) {
+                Files.move(file(LOG_FILE).toPath(), file(ROTATED_LOG_FILE).toPath(), REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to rotate the pending transaction journal", e);
+        }
+
+        appended = 0;
+        open();
+    }
+
+    /**
+     * Replaces the snapshot with the given transactions and deletes the rotated
+     * log. The new snapshot is written and synced without blocking appends; only
+     * the swap of the files is done under the journal lock.
+     *
+     * @param txs
+     *            the live transactions at the time of the latest rotation
+     */
+    public void compact(Collection<Transaction> txs) {
+        synchronized (compactLock) {
+            File tmp = file(SNAPSHOT_FILE + ".tmp");
+
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+                for (Transaction tx : txs) {
+                    IOUtil.writeRecord(dos, tx.toBytes());
+                }
+                dos.flush();
+                fos.getFD().sync();
+            } catch (IOException e) {
+                logger.error("Failed to write the pending transaction snapshot", e);
+                return;
+            }
+
+            synchronized (this) {
+                try {
+                    Files.move(tmp.toPath(), file(SNAPSHOT_FILE).toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+                    Files.deleteIfExists(file(ROTATED_LOG_FILE).toPath());
+                } catch (IOException e) {
+                    logger.error("Failed to replace the pending transaction snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads all transactions in the journal, removing duplicates.
+     *
+     * @return transactions, in the order they were journaled
+     */
+    public synchronized List<Transaction> load() {
+        Map<ByteArray, Transaction> txs = new LinkedHashMap<>();
+        for (String name : new String[] { SNAPSHOT_FILE, ROTATED_LOG_FILE, LOG_FILE }) {
+            File f = file(name);
+            if (f.exists()) {
+                read(f, txs);
+            }
+        }
+
+        return new ArrayList<>(txs.values());
+    }
+
+    private void read(File f, Map<ByteArray, Transaction> txs) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            byte[] bytes;
+            while ((bytes = IOUtil.readRecord(in, MAX_RECORD_SIZE)) != null) {
+                Transaction tx = Transaction.fromBytes(bytes);
+                txs.put(ByteArray.of(tx.getHash()), tx);
+            }
+        } catch (EOFException e) {
+            // a truncated record
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read the pending transaction journal: file = {}", f, e);
+        }
+    }
+
+    private File file(String name) {
+        return new File(dir, name);
+    }
+}
@@ -6,30 +6,56 @@
  */
 package org.semux.core;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.ethereum.vm.client.BlockStore;
 import org.semux.Kernel;
+import org.semux.Network;
+import org.semux.config.ChainSpec;
+import org.semux.consensus.CompactProposal;
+import org.semux.core.state.Account;
 import org.semux.core.state.AccountState;
+import org.semux.core.state.Delegate;
 import org.semux.core.state.DelegateState;
+import org.semux.crypto.Hex;
+import org.semux.crypto.Key;
+import org.semux.net.Capability;
 import org.semux.net.Channel;
+import org.semux.net.msg.EncodedMessage;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.net.msg.p2p.TransactionMessage;
 import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
 import org.semux.util.TimeUtil;
 import org.semux.vm.client.SemuxBlock;
 import org.semux.vm.client.SemuxBlockStore;
+import org.semux.vm.client.SemuxInternalTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +66,16 @@ import com.github.benmanes.caffeine.cache.Caffeine;
  * Pending manager maintains all unconfirmed transactions, either from kernel or
  * network. All transactions are evaluated and propagated to peers if success.
  *
+ * Incoming transactions go through a multi-stage pipeline:
+ * <ol>
+ * <li>a lock-free submission queue, fed by {@link #addTransaction(Transaction)}
+ * from any thread;</li>
+ * <li>stateless validation (format, hash, signature and size), performed in
+ * parallel on a worker pool without holding the pool lock;</li>
+ * <li>a single writer, which orders transactions by sender and nonce and
+ * executes them in batches against the pending state.</li>
+ * </ol>
+ *
  * Note that: the transaction results in pending manager are not reliable for VM
  * transactions because these are evaluated against a dummy block. Nevertheless,
  * transactions included by the pending manager are eligible for inclusion in
@@ -61,12 +97,47 @@ public class PendingManager implements Runnable, BlockchainListener {
         }
     };
 
+    private static final ThreadFactory validatorFactory = new ThreadFactory() {
+
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "pending-validator-" + cnt.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private static final ThreadFactory journalFactory = new ThreadFactory() {
+
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "pending-journal-" + cnt.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
     public static final long ALLOWED_TIME_DRIFT = TimeUnit.HOURS.toMillis(2);
 
     private static final int QUEUE_SIZE_LIMIT = 128 * 1024;
     private static final int VALID_TXS_LIMIT = 16 * 1024;
-    private static final int LARGE_NONCE_TXS_LIMIT = 32 * 1024;
     private static final int PROCESSED_TXS_LIMIT = 128 * 1024;
+    private static final int REQUESTED_TXS_LIMIT = 32 * 1024;
+    private static final long REQUESTED_TXS_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final int REQUESTED_TXS_MAX_ANNOUNCERS = 8;
+
+    private static final int VALIDATION_BATCH_SIZE = 4 * 1024;
+    private static final int VALIDATION_CHUNK_SIZE = 64;
+    private static final int EXECUTION_BATCH_SIZE = 256;
+
+    private static final long STATS_LOG_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String JOURNAL_DIR = "mempool";
+    private static final long JOURNAL_COMPACT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
 
     private final Kernel kernel;
     private final BlockStore blockStore;
@@ -74,22 +145,68 @@ public class PendingManager implements Runnable, BlockchainListener {
     private DelegateState pendingDS;
     private SemuxBlock dummyBlock;
 
-    // Transactions that haven't been processed
+    // Transactions that have been submitted but not yet validated
+    private final ConcurrentLinkedQueue<Transaction> submissions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger submissionsSize = new AtomicInteger(0);
+    private final AtomicLong submissionsBytes = new AtomicLong(0);
+
+    // Transactions that have been validated but not yet executed
     private final LinkedHashMap<ByteArray, Transaction> queue = new LinkedHashMap<>();
+    private long queueBytes = 0;
 
     // Transactions that have been processed and are valid for block production
     private final ArrayList<PendingTransaction> validTxs = new ArrayList<>();
+    private long validBytes = 0;
+    private volatile long version = 0;
+
+    // Memory budgets, in estimated bytes, derived from the pool size
+    private final long submissionsBytesLimit;
+    private final long queueBytesLimit;
+    private final long validBytesLimit;
+
+    // Secondary indices of valid transactions, keyed by sender, by participant
+    // (sender or recipient), by hash and by short ID. They are read without the
+    // pool lock.
+    private volatile Map<ByteArray, TxList> bySender = new ConcurrentHashMap<>();
+    private volatile Map<ByteArray, TxList> byAddress = new ConcurrentHashMap<>();
+    private volatile Map<ByteArray, Transaction> byHash = new ConcurrentHashMap<>();
+    private volatile Map<Long, Transaction> byShortId = new ConcurrentHashMap<>();
+    private boolean isRebasing = false;
 
     // Transactions whose nonce is too large, compared to the sender's nonce
-    private final Cache<ByteArray, Transaction> largeNonceTxs = Caffeine.newBuilder().maximumSize(LARGE_NONCE_TXS_LIMIT)
-            .build();
+    private final FutureTransactionPool largeNonceTxs;
 
     // Transactions that have been processed, including both valid and invalid ones
     private final Cache<ByteArray, Long> processedTxs = Caffeine.newBuilder().maximumSize(PROCESSED_TXS_LIMIT).build();
 
+    // Announced transactions that have been requested from a peer, along with the
+    // other peers which announced them
+    private final Cache<ByteArray, TxRequest> requestedTxs = Caffeine.newBuilder().maximumSize(REQUESTED_TXS_LIMIT)
+            .expireAfterWrite(REQUESTED_TXS_TIMEOUT * REQUESTED_TXS_MAX_ANNOUNCERS, TimeUnit.MILLISECONDS).build();
+
     private final ScheduledExecutorService exec;
 
+    private ExecutorService validators;
+
     private ScheduledFuture<?> validateFuture;
+    private ScheduledFuture<?> requestFuture;
+
+    private final PendingJournal journal;
+    // compacts the journal, off the thread which processes transactions
+    private ScheduledExecutorService compactor;
+    private boolean isRestoring = false;
+
+    // Ingress statistics
+    private final AtomicLong txsReceived = new AtomicLong(0);
+    private final AtomicLong txsDropped = new AtomicLong(0);
+    private final AtomicLong txsInvalid = new AtomicLong(0);
+    private final AtomicLong txsAccepted = new AtomicLong(0);
+    private long statsLoggedAt = TimeUtil.currentTimeMillis();
+    private long statsLoggedAccepted = 0;
+
+    // Post-block rebase statistics
+    private volatile long lastRebaseTime = 0;
+    private volatile long maxRebaseTime = 0;
 
     private volatile boolean isRunning;
 
@@ -105,6 +222,18 @@ public class PendingManager implements Runnable, BlockchainListener {
         this.dummyBlock = kernel.createEmptyBlock();
 
         this.exec = Executors.newSingleThreadScheduledExecutor(factory);
+
+        // 1/8 for ingress, 1/8 for execution, 1/2 for block production and 1/4
+        // for the transactions waiting for a nonce gap to be filled
+        long maxSize = kernel.getConfig().poolMaxSize();
+        this.submissionsBytesLimit = maxSize / 8;
+        this.queueBytesLimit = maxSize / 8;
+        this.validBytesLimit = maxSize / 2;
+        this.largeNonceTxs = new FutureTransactionPool(maxSize / 4);
+
+        this.journal = kernel.getConfig().poolJournalEnabled()
+                ? new PendingJournal(new File(kernel.getConfig().chainDir(), JOURNAL_DIR))
+                : null;
     }
 
     /**
@@ -112,12 +241,23 @@ public class PendingManager implements Runnable, BlockchainListener {
      */
     public synchronized void start() {
         if (!isRunning) {
-            /*
-             * NOTE: a rate smaller than the message queue sending rate should be used to
-             * prevent message queues from hitting the NET_MAX_QUEUE_SIZE, especially when
-             * the network load is heavy.
-             */
+            this.validators = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    validatorFactory);
+
+            if (journal != null) {
+                restoreJournal();
+                this.compactor = Executors.newSingleThreadScheduledExecutor(journalFactory);
+                this.compactor.scheduleWithFixedDelay(() -> {
+                    if (journal.getAppendedCount() > 0) {
+                        compactJournal();
+                    }
+                }, JOURNAL_COMPACT_INTERVAL, JOURNAL_COMPACT_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+
             this.validateFuture = exec.scheduleAtFixedRate(this, 2, 2, TimeUnit.MILLISECONDS);
+            this.requestFuture = exec.scheduleWithFixedDelay(
+                    () -> retryTransactionRequests(TimeUtil.currentTimeMillis()),
+                    REQUESTED_TXS_TIMEOUT / 2, REQUESTED_TXS_TIMEOUT / 2, TimeUnit.MILLISECONDS);
 
             kernel.getBlockchain().addListener(this);
 
@@ -132,6 +272,13 @@ public class PendingManager implements Runnable, BlockchainListener {
     public synchronized void stop() {
         if (isRunning) {
             validateFuture.cancel(true);
+            requestFuture.cancel(false);
+            validators.shutdownNow();
+
+            if (journal != null) {
+                compactor.shutdown();
+                journal.close();
+            }
 
             logger.debug("Pending manager stopped");
             isRunning = false;
@@ -157,19 +304,86 @@ public class PendingManager implements Runnable, BlockchainListener {
     }
 
     /**
-     * Adds a transaction to the queue, which will be validated later by the
-     * background worker. Transaction may get rejected if the queue is full.
+     * Returns the number of transactions waiting in the submission and execution
+     * queues.
      *
-     * @param tx
+     * @return
+     */
+    public int getQueueDepth() {
+        int size;
+        synchronized (this) {
+            size = queue.size();
+        }
+        return submissionsSize.get() + size;
+    }
+
+    /**
+     * Returns the number of transactions received through
+     * {@link #addTransaction(Transaction)}.
+     *
+     * @return
+     */
+    public long getReceivedCount() {
+        return txsReceived.get();
+    }
+
+    /**
+     * Returns the number of transactions dropped because the submission queue is
+     * full or they have been processed before.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return txsDropped.get();
+    }
+
+    /**
+     * Returns the number of transactions which failed stateless validation.
+     *
+     * @return
      */
-    public synchronized void addTransaction(Transaction tx) {
-        ByteArray hash = ByteArray.of(tx.getHash());
+    public long getInvalidCount() {
+        return txsInvalid.get();
+    }
 
-        if (queue.size() < QUEUE_SIZE_LIMIT
-                && processedTxs.getIfPresent(hash) == null
-                && tx.validate(kernel.getConfig().network())) {
-            // NOTE: re-insertion doesn't affect item order
-            queue.put(ByteArray.of(tx.getHash()), tx);
+    /**
+     * Returns the number of transactions accepted into the pool.
+     *
+     * @return
+     */
+    public long getAcceptedCount() {
+        return txsAccepted.get();
+    }
+
+    /**
+     * Returns the estimated memory held by all the transactions in the pool, in
+     * bytes.
+     *
+     * @return
+     */
+    public synchronized long getMemoryUsage() {
+        return submissionsBytes.get() + queueBytes + validBytes + largeNonceTxs.getBytes();
+    }
+
+    /**
+     * Adds a transaction to the submission queue, which will be validated and
+     * executed later by the background workers. Transaction may get rejected if
+     * the queue is full.
+     *
+     * This method is lock-free and can be called from any thread.
+     *
+     * @param tx
+     */
+    public void addTransaction(Transaction tx) {
+        txsReceived.incrementAndGet();
+
+        if (submissionsSize.get() < QUEUE_SIZE_LIMIT && submissionsBytes.get() < submissionsBytesLimit
+                && processedTxs.getIfPresent(ByteArray.of(tx.getHash())) == null) {
+            submissionsSize.incrementAndGet();
+            submissionsBytes.addAndGet(FutureTransactionPool.weigh(tx));
+            submissions.offer(tx);
+        } else {
+            txsDropped.incrementAndGet();
         }
     }
 
@@ -180,30 +394,284 @@ public class PendingManager implements Runnable, BlockchainListener {
      *            The transaction
      * @return The processing result
      */
-    public synchronized ProcessingResult addTransactionSync(Transaction tx) {
+    public ProcessingResult addTransactionSync(Transaction tx) {
         // nonce check for transactions from this client
         if (tx.getNonce() != getNonce(tx.getFrom())) {
             return new ProcessingResult(0, TransactionResult.Code.INVALID_NONCE);
         }
 
-        if (tx.validate(kernel.getConfig().network())) {
-            // proceed with the tx, ignoring transaction queue size limit
-            return processTransaction(tx, false, true);
-        } else {
+        // signature verification is done outside of the pool lock
+        if (!tx.validate(kernel.getConfig().network())) {
             return new ProcessingResult(0, TransactionResult.Code.INVALID_FORMAT);
         }
+
+        synchronized (this) {
+            if (tx.getNonce() != getPendingNonce(tx.getFrom())) {
+                return new ProcessingResult(0, TransactionResult.Code.INVALID_NONCE);
+            }
+
+            // proceed with the tx, ignoring transaction queue size limit
+            ProcessingResult result = processTransaction(tx, false, true);
+            txsAccepted.addAndGet(result.accepted);
+            if (journal != null) {
+                journal.flush();
+            }
+            return result;
+        }
     }
 
     /**
      * Returns the nonce of an account based on the pending state.
      *
+     * This method does not acquire the pool lock.
+     *
      * @param address
      * @return
      */
-    public synchronized long getNonce(byte[] address) {
+    public long getNonce(byte[] address) {
+        TxList txs = bySender.get(ByteArray.of(address));
+        if (txs != null && txs.size() > 0) {
+            return txs.get(txs.size() - 1).transaction.getNonce() + 1;
+        }
+
+        return kernel.getBlockchain().getAccountState().getAccount(address).getNonce();
+    }
+
+    /**
+     * Returns the number of pending transactions sent or received by the given
+     * address.
+     *
+     * This method does not acquire the pool lock.
+     *
+     * @param address
+     * @return
+     */
+    public int getPendingTransactionCount(byte[] address) {
+        TxList txs = byAddress.get(ByteArray.of(address));
+        return txs == null ? 0 : txs.size();
+    }
+
+    /**
+     * Returns a page of the pending transactions sent or received by the given
+     * address, in pool order.
+     *
+     * This method does not acquire the pool lock.
+     *
+     * @param address
+     *            the sender or recipient address
+     * @param from
+     *            the start index, inclusive
+     * @param to
+     *            the end index, exclusive
+     * @return
+     */
+    public List<PendingTransaction> getPendingTransactions(byte[] address, int from, int to) {
+        TxList txs = byAddress.get(ByteArray.of(address));
+        return txs == null ? Collections.emptyList() : txs.subList(from, to);
+    }
+
+    /**
+     * Returns a page of the pending transactions sent by the given address, in
+     * nonce order.
+     *
+     * This method does not acquire the pool lock.
+     *
+     * @param address
+     *            the sender address
+     * @param from
+     *            the start index, inclusive
+     * @param to
+     *            the end index, exclusive
+     * @return
+     */
+    public List<PendingTransaction> getPendingTransactionsBySender(byte[] address, int from, int to) {
+        TxList txs = bySender.get(ByteArray.of(address));
+        return txs == null ? Collections.emptyList() : txs.subList(from, to);
+    }
+
+    /**
+     * Returns a valid pending transaction by its hash.
+     *
+     * This method does not acquire the pool lock.
+     *
+     * @param hash
+     * @return the transaction, or null if not in the pool
+     */
+    public Transaction getTransaction(byte[] hash) {
+        return byHash.get(ByteArray.of(hash));
+    }
+
+    /**
+     * Returns a valid pending transaction by its short ID, as used by compact
+     * proposals. In case of a collision, any of the matching transactions may be
+     * returned.
+     *
+     * This method does not acquire the pool lock.
+     *
+     * @param shortId
+     * @return the transaction, or null if not in the pool
+     */
+    public Transaction getTransactionByShortId(long shortId) {
+        return byShortId.get(shortId);
+    }
+
+    /**
+     * Selects the announced transactions which are worth requesting, i.e. neither
+     * processed nor already requested from another peer, and marks them as
+     * requested from the given channel. For the others, the channel is remembered
+     * as an alternative source, should the pending request time out.
+     *
+     * @param hashes
+     *            the announced transaction hashes
+     * @param channel
+     *            the channel which announced them
+     * @return the hashes to request
+     */
+    public List<byte[]> selectTransactionsToRequest(List<byte[]> hashes, Channel channel) {
+        long now = TimeUtil.currentTimeMillis();
+
+        List<byte[]> result = new ArrayList<>();
+        for (byte[] hash : hashes) {
+            ByteArray key = ByteArray.of(hash);
+            if (processedTxs.getIfPresent(key) != null) {
+                continue;
+            }
+
+            TxRequest request = new TxRequest(now);
+            TxRequest existing = requestedTxs.asMap().putIfAbsent(key, request);
+            if (existing == null) {
+                result.add(hash);
+            } else {
+                existing.addAnnouncer(channel);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Re-requests the transactions whose request has timed out from the next peer
+     * which announced them. Requests without any alternative left are forgotten,
+     * so that a later announcement triggers a new one.
+     *
+     * @param now
+     *            the current time
+     */
+    protected void retryTransactionRequests(long now) {
+        Map<Channel, List<byte[]>> retries = new HashMap<>();
+        for (Map.Entry<ByteArray, TxRequest> e : requestedTxs.asMap().entrySet()) {
+            if (processedTxs.getIfPresent(e.getKey()) != null) {
+                requestedTxs.invalidate(e.getKey());
+                continue;
+            }
+
+            TxRequest request = e.getValue();
+            if (now - request.requestedAt < REQUESTED_TXS_TIMEOUT) {
+                continue;
+            }
+
+            Channel next = request.nextAnnouncer(now);
+            if (next == null) {
+                requestedTxs.invalidate(e.getKey());
+            } else {
+                retries.computeIfAbsent(next, k -> new ArrayList<>()).add(e.getKey().getData());
+            }
+        }
+
+        for (Map.Entry<Channel, List<byte[]>> e : retries.entrySet()) {
+            List<byte[]> hashes = e.getValue();
+            for (int i = 0; i < hashes.size(); i += GetTransactionsMessage.MAX_HASHES) {
+                List<byte[]> chunk = hashes.subList(i, Math.min(hashes.size(), i + GetTransactionsMessage.MAX_HASHES));
+                e.getKey().getMessageQueue().sendMessage(new GetTransactionsMessage(new ArrayList<>(chunk)));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pending transactions from the given sender. The caller
+     * must hold the pool lock.
+     *
+     * @param address
+     * @param includeLargeNonce
+     *            whether to count the large-nonce transactions as well
+     * @return
+     */
+    private int getSenderTransactionCount(byte[] address, boolean includeLargeNonce) {
+        TxList txs = bySender.get(ByteArray.of(address));
+        int count = txs == null ? 0 : txs.size();
+        return includeLargeNonce ? count + largeNonceTxs.count(address) : count;
+    }
+
+    /**
+     * Returns the nonce of an account based on the pending state. The caller must
+     * hold the pool lock.
+     *
+     * @param address
+     * @return
+     */
+    private long getPendingNonce(byte[] address) {
         return pendingAS.getAccount(address).getNonce();
     }
 
+    /**
+     * Adds a transaction to the list of valid transactions, updating the indices
+     * unless they are being rebuilt.
+     *
+     * @param tx
+     */
+    private void addValidTransaction(PendingTransaction tx) {
+        validTxs.add(tx);
+        version++;
+        validBytes += FutureTransactionPool.weigh(tx.transaction);
+
+        if (!isRebasing) {
+            index(bySender, byAddress, tx);
+            byHash.put(ByteArray.of(tx.transaction.getHash()), tx.transaction);
+            byShortId.put(CompactProposal.shortId(tx.transaction.getHash()), tx.transaction);
+
+            if (journal != null && !isRestoring) {
+                journal.append(tx.transaction);
+            }
+        }
+    }
+
+    private static void index(Map<ByteArray, TxList> bySender, Map<ByteArray, TxList> byAddress,
+            PendingTransaction tx) {
+        ByteArray from = ByteArray.of(tx.transaction.getFrom());
+        ByteArray to = ByteArray.of(tx.transaction.getTo());
+
+        bySender.put(from, bySender.getOrDefault(from, TxList.EMPTY).append(tx));
+        byAddress.put(from, byAddress.getOrDefault(from, TxList.EMPTY).append(tx));
+        if (!to.equals(from)) {
+            byAddress.put(to, byAddress.getOrDefault(to, TxList.EMPTY).append(tx));
+        }
+    }
+
+    /**
+     * Rebuilds the secondary indices from the list of valid transactions, and
+     * publishes them atomically.
+     */
+    private void rebuildIndices() {
+        Map<ByteArray, TxList> senders = new ConcurrentHashMap<>();
+        Map<ByteArray, TxList> addresses = new ConcurrentHashMap<>();
+        Map<ByteArray, Transaction> hashes = new ConcurrentHashMap<>();
+        Map<Long, Transaction> shortIds = new ConcurrentHashMap<>();
+        long bytes = 0;
+        for (PendingTransaction tx : validTxs) {
+            index(senders, addresses, tx);
+            hashes.put(ByteArray.of(tx.transaction.getHash()), tx.transaction);
+            shortIds.put(CompactProposal.shortId(tx.transaction.getHash()), tx.transaction);
+            bytes += FutureTransactionPool.weigh(tx.transaction);
+        }
+
+        validBytes = bytes;
+
+        bySender = senders;
+        byAddress = addresses;
+        byHash = hashes;
+        byShortId = shortIds;
+    }
+
     /**
      * Returns pending transactions, limited by the given total size in bytes.
      *
@@ -228,6 +696,16 @@ public class PendingManager implements Runnable, BlockchainListener {
         return txs;
     }
 
+    /**
+     * Returns the version of the pending transactions, which changes whenever a
+     * transaction is added or the pool is rebuilt.
+     *
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Returns all pending transactions.
      *
@@ -251,52 +729,544 @@ public class PendingManager implements Runnable, BlockchainListener {
         // clear transaction pool
         List<PendingTransaction> txs = new ArrayList<>(validTxs);
         validTxs.clear();
+        version++;
+        rebuildIndices();
 
         return txs;
     }
 
+    /**
+     * Returns the duration of the latest post-block rebase, in milliseconds.
+     *
+     * @return
+     */
+    public long getLastRebaseTime() {
+        return lastRebaseTime;
+    }
+
+    /**
+     * Returns the longest post-block rebase duration, in milliseconds.
+     *
+     * @return
+     */
+    public long getMaxRebaseTime() {
+        return maxRebaseTime;
+    }
+
+    /**
+     * Rebases the pool onto the new chain state. Transactions included in the
+     * block are dropped and only the senders whose accounts, or those of their
+     * counterparties, are touched by the block get re-executed. The speculative
+     * results of the other senders are carried over to the new pending state.
+     *
+     * @param block
+     */
     @Override
     public synchronized void onBlockAdded(Block block) {
         if (isRunning) {
             long t1 = TimeUtil.currentTimeMillis();
 
-            // clear transaction pool
-            List<PendingTransaction> txs = reset();
-
-            // update pending state
+            Set<ByteArray> dirty = getDirtyAddresses(block);
+
+            // build the new pending state, carrying over the untouched senders
+            AccountState as = kernel.getBlockchain().getAccountState().track();
+            DelegateState ds = kernel.getBlockchain().getDelegateState().track();
+            List<PendingTransaction> txs = new ArrayList<>(validTxs);
+            carryOver(txs.stream()
+                    .map(tx -> tx.transaction)
+                    .filter(tx -> !dirty.contains(ByteArray.of(tx.getFrom())))
+                    .collect(Collectors.toList()), as, ds);
+
+            pendingAS = as;
+            pendingDS = ds;
+            dummyBlock = kernel.createEmptyBlock();
+            validTxs.clear();
+            version++;
+            isRebasing = true;
+
+            // re-execute the dirty senders, keeping the order of the pool
+            long carried = 0;
             long accepted = 0;
             for (PendingTransaction tx : txs) {
-                accepted += processTransaction(tx.transaction, true, false).accepted;
+                if (dirty.contains(ByteArray.of(tx.transaction.getFrom()))) {
+                    accepted += processTransaction(tx.transaction, true, false).accepted;
+                } else {
+                    addValidTransaction(tx);
+                    carried++;
+                }
             }
 
+            isRebasing = false;
+            rebuildIndices();
+
+            // drop the large-nonce transactions made stale by the block, and promote
+            // those held back by the sender quota
+            largeNonceTxs.removeIf(tx -> tx.getNonce() < getPendingNonce(tx.getFrom()));
+            promoteLargeNonceTransactions();
+
             long t2 = TimeUtil.currentTimeMillis();
-            logger.debug("Execute pending transactions: # txs = {} / {},  time = {} ms", accepted, txs.size(), t2 - t1);
+            lastRebaseTime = t2 - t1;
+            maxRebaseTime = Math.max(maxRebaseTime, lastRebaseTime);
+            logger.debug("Rebase pending transactions: # txs = {} carried + {} re-executed / {}, time = {} ms",
+                    carried, accepted, txs.size(), lastRebaseTime);
+        }
+    }
+
+    /**
+     * Promotes the large-nonce transactions which have become executable, for the
+     * senders below their quota. The caller must hold the pool lock.
+     */
+    private void promoteLargeNonceTransactions() {
+        int quota = kernel.getConfig().poolMaxAccountTransactions();
+        Set<ByteArray> senders = new HashSet<>();
+        for (Transaction tx : largeNonceTxs.getTransactions()) {
+            byte[] from = tx.getFrom();
+            if (senders.add(ByteArray.of(from)) && getSenderTransactionCount(from, false) < quota) {
+                Transaction next = largeNonceTxs.remove(from, getPendingNonce(from));
+                if (next != null) {
+                    processTransaction(next, false, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the senders of pending transactions which must be re-executed after
+     * the given block.
+     *
+     * Pending transactions link their sender and recipient (and internal
+     * transaction participants); any linked group containing an address touched by
+     * the block, or a VM transaction, is considered dirty as a whole. This ensures
+     * that no carried-over transaction credits or debits a re-executed account.
+     *
+     * @param block
+     * @return
+     */
+    private Set<ByteArray> getDirtyAddresses(Block block) {
+        Map<ByteArray, ByteArray> parents = new HashMap<>();
+        Set<ByteArray> seeds = new HashSet<>();
+
+        // addresses touched by the new block
+        seeds.add(ByteArray.of(block.getCoinbase()));
+        for (Transaction tx : block.getTransactions()) {
+            seeds.add(ByteArray.of(tx.getFrom()));
+            seeds.add(ByteArray.of(tx.getTo()));
+        }
+        if (block.getResults() != null) {
+            for (TransactionResult result : block.getResults()) {
+                for (SemuxInternalTransaction it : result.getInternalTransactions()) {
+                    seeds.add(ByteArray.of(it.getFrom()));
+                    seeds.add(ByteArray.of(it.getTo()));
+                }
+            }
+        }
+
+        // link the participants of pending transactions
+        ByteArray dummyCoinbase = ByteArray.of(dummyBlock.getCoinbase());
+        for (PendingTransaction ptx : validTxs) {
+            Transaction tx = ptx.transaction;
+            ByteArray from = ByteArray.of(tx.getFrom());
+            union(parents, from, ByteArray.of(tx.getTo()));
+
+            // VM transactions are always re-executed against the new dummy block
+            if (tx.isVMTransaction()) {
+                seeds.add(from);
+                union(parents, from, dummyCoinbase);
+                for (SemuxInternalTransaction it : ptx.result.getInternalTransactions()) {
+                    union(parents, from, ByteArray.of(it.getFrom()));
+                    union(parents, from, ByteArray.of(it.getTo()));
+                }
+            }
+        }
+
+        Set<ByteArray> dirtyRoots = seeds.stream().map(a -> find(parents, a)).collect(Collectors.toSet());
+        Set<ByteArray> dirty = new HashSet<>();
+        for (PendingTransaction ptx : validTxs) {
+            ByteArray from = ByteArray.of(ptx.transaction.getFrom());
+            if (dirtyRoots.contains(find(parents, from))) {
+                dirty.add(from);
+            }
+        }
+
+        return dirty;
+    }
+
+    private ByteArray find(Map<ByteArray, ByteArray> parents, ByteArray a) {
+        ByteArray root = a;
+        ByteArray p;
+        while ((p = parents.get(root)) != null) {
+            root = p;
+        }
+
+        // path compression
+        while ((p = parents.get(a)) != null && !p.equals(root)) {
+            parents.put(a, root);
+            a = p;
+        }
+
+        return root;
+    }
+
+    private void union(Map<ByteArray, ByteArray> parents, ByteArray a, ByteArray b) {
+        ByteArray ra = find(parents, a);
+        ByteArray rb = find(parents, b);
+        if (!ra.equals(rb)) {
+            parents.put(ra, rb);
+        }
+    }
+
+    /**
+     * Copies the speculative effects of the given transactions from the current
+     * pending state onto the new one.
+     *
+     * @param txs
+     *            transactions whose senders are not touched by the new block
+     * @param as
+     *            the new pending account state
+     * @param ds
+     *            the new pending delegate state
+     */
+    private void carryOver(List<Transaction> txs, AccountState as, DelegateState ds) {
+        Set<ByteArray> accounts = new LinkedHashSet<>();
+        Set<ByteArray> registrations = new LinkedHashSet<>();
+        Map<ByteArray, Transaction> votes = new LinkedHashMap<>();
+
+        for (Transaction tx : txs) {
+            accounts.add(ByteArray.of(tx.getFrom()));
+            accounts.add(ByteArray.of(tx.getTo()));
+
+            if (tx.getType() == TransactionType.DELEGATE) {
+                registrations.add(ByteArray.of(tx.getFrom()));
+            } else if (tx.getType() == TransactionType.VOTE || tx.getType() == TransactionType.UNVOTE) {
+                votes.putIfAbsent(ByteArray.of(Bytes.merge(tx.getTo(), tx.getFrom())), tx);
+            }
+        }
+
+        for (ByteArray k : accounts) {
+            byte[] address = k.getData();
+            Account prev = pendingAS.getAccount(address);
+            Account next = as.getAccount(address);
+
+            if (!prev.getAvailable().equals(next.getAvailable())) {
+                as.adjustAvailable(address, prev.getAvailable().subtract(next.getAvailable()));
+            }
+            if (!prev.getLocked().equals(next.getLocked())) {
+                as.adjustLocked(address, prev.getLocked().subtract(next.getLocked()));
+            }
+            if (prev.getNonce() != next.getNonce()) {
+                as.setNonce(address, prev.getNonce());
+            }
+        }
+
+        for (ByteArray k : registrations) {
+            Delegate d = pendingDS.getDelegateByAddress(k.getData());
+            if (d != null && ds.getDelegateByAddress(k.getData()) == null) {
+                ds.register(d.getAddress(), d.getName(), d.getRegisteredAt());
+            }
+        }
+
+        for (Transaction tx : votes.values()) {
+            Amount delta = pendingDS.getVote(tx.getFrom(), tx.getTo())
+                    .subtract(ds.getVote(tx.getFrom(), tx.getTo()));
+            if (delta.isPositive()) {
+                ds.vote(tx.getFrom(), tx.getTo(), delta);
+            } else if (delta.isNegative()) {
+                ds.unvote(tx.getFrom(), tx.getTo(), delta.negate());
+            }
         }
     }
 
     @Override
-    public synchronized void run() {
-        Iterator<Map.Entry<ByteArray, Transaction>> iterator = queue.entrySet().iterator();
+    public void run() {
+        // stage 1: drain the submission queue, removing duplicates
+        Map<ByteArray, Transaction> batch = new LinkedHashMap<>();
+        Transaction tx;
+        while (batch.size() < VALIDATION_BATCH_SIZE && (tx = submissions.poll()) != null) {
+            submissionsSize.decrementAndGet();
+            submissionsBytes.addAndGet(-FutureTransactionPool.weigh(tx));
+            batch.put(ByteArray.of(tx.getHash()), tx);
+        }
+
+        // stage 2: stateless validation, in parallel and without the lock
+        List<Transaction> validated = batch.isEmpty() ? Collections.emptyList()
+                : validateTransactions(new ArrayList<>(batch.values()));
+
+        // stage 3: execution, by a single writer
+        synchronized (this) {
+            for (Transaction t : validated) {
+                if (queue.size() < QUEUE_SIZE_LIMIT && queueBytes < queueBytesLimit) {
+                    enqueue(t);
+                } else {
+                    txsDropped.incrementAndGet();
+                }
+            }
+
+            executeQueue();
+        }
+
+        if (journal != null) {
+            journal.flush();
+        }
+
+        logStatistics();
+    }
+
+    /**
+     * Validates the format, hash, signature and size of the given transactions on
+     * the worker pool.
+     *
+     * @param txs
+     *            transactions to validate
+     * @return the valid transactions, in the original order
+     */
+    protected List<Transaction> validateTransactions(List<Transaction> txs) {
+        // validate on the calling thread if not started yet
+        ExecutorService pool = validators;
+        if (pool == null || pool.isShutdown()) {
+            return validateOneByOne(txs);
+        }
+
+        List<List<Transaction>> chunks = new ArrayList<>();
+        List<Future<List<Transaction>>> futures = new ArrayList<>();
+        for (int i = 0; i < txs.size(); i += VALIDATION_CHUNK_SIZE) {
+            List<Transaction> chunk = txs.subList(i, Math.min(txs.size(), i + VALIDATION_CHUNK_SIZE));
+            chunks.add(chunk);
+            futures.add(pool.submit(() -> validateChunk(chunk)));
+        }
+
+        List<Transaction> result = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                result.addAll(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                // only the transactions of the failed chunk are affected
+                logger.warn("Failed to validate a chunk of transactions, validating them one by one", e.getCause());
+                result.addAll(validateOneByOne(chunks.get(i)));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Validates the given transactions one at a time on the calling thread, so
+     * that an unexpected failure only rejects the transaction which caused it.
+     *
+     * @param txs
+     * @return the valid transactions, in the original order
+     */
+    private List<Transaction> validateOneByOne(List<Transaction> txs) {
+        List<Transaction> result = new ArrayList<>();
+        for (Transaction tx : txs) {
+            try {
+                result.addAll(validateChunk(Collections.singletonList(tx)));
+            } catch (RuntimeException e) {
+                logger.debug("Failed to validate transaction {}", Hex.encode0x(tx.getHash()), e);
+                rejectInvalid(tx);
+            }
+        }
+        return result;
+    }
+
+    private List<Transaction> validateChunk(List<Transaction> chunk) {
+        Network network = kernel.getConfig().network();
+        ChainSpec spec = kernel.getConfig().spec();
+
+        List<Transaction> valid = new ArrayList<>();
+        for (Transaction tx : chunk) {
+            if (tx.validate(network, false) && tx.getData().length <= spec.maxTransactionDataSize(tx.getType())) {
+                valid.add(tx);
+            } else {
+                rejectInvalid(tx);
+            }
+        }
+
+        // verify signatures in batch if possible; on failure, fall back to individual
+        // verification to find out the invalid ones
+        if (Key.isVerifyBatchSupported() && valid.size() >= 3 && Key.verifyBatch(
+                valid.stream().map(Transaction::getHash).collect(Collectors.toList()),
+                valid.stream().map(Transaction::getSignature).collect(Collectors.toList()))) {
+            return valid;
+        }
 
-        while (validTxs.size() < VALID_TXS_LIMIT && iterator.hasNext()) {
-            // the eldest entry
+        List<Transaction> verified = new ArrayList<>();
+        for (Transaction tx : valid) {
+            if (Key.verify(tx.getHash(), tx.getSignature())) {
+                verified.add(tx);
+            } else {
+                rejectInvalid(tx);
+            }
+        }
+        return verified;
+    }
+
+    private void rejectInvalid(Transaction tx) {
+        txsInvalid.incrementAndGet();
+        processedTxs.put(ByteArray.of(tx.getHash()), TimeUtil.currentTimeMillis());
+    }
+
+    /**
+     * Executes a batch of queued transactions. Transactions are grouped by sender
+     * and sorted by nonce, so that a burst of transactions from the same account
+     * are applied in order without going through {@link #largeNonceTxs}.
+     */
+    private void executeQueue() {
+        if (queue.isEmpty() || isPoolFull()) {
+            return;
+        }
+
+        // take the eldest entries
+        List<Transaction> taken = new ArrayList<>();
+        Map<ByteArray, List<Transaction>> bySender = new LinkedHashMap<>();
+        Iterator<Map.Entry<ByteArray, Transaction>> iterator = queue.entrySet().iterator();
+        for (int i = 0; i < EXECUTION_BATCH_SIZE && iterator.hasNext(); i++) {
             Map.Entry<ByteArray, Transaction> entry = iterator.next();
             iterator.remove();
+            queueBytes -= FutureTransactionPool.weigh(entry.getValue());
 
             // reject already executed transactions
             if (processedTxs.getIfPresent(entry.getKey()) != null) {
                 continue;
             }
 
-            // process the transaction
-            int accepted = processTransaction(entry.getValue(), false, false).accepted;
-            processedTxs.put(entry.getKey(), TimeUtil.currentTimeMillis());
+            Transaction tx = entry.getValue();
+            taken.add(tx);
+            bySender.computeIfAbsent(ByteArray.of(tx.getFrom()), k -> new ArrayList<>()).add(tx);
+        }
 
-            // include one tx per call
-            if (accepted > 0) {
-                break;
+        Set<Transaction> unprocessed = new HashSet<>();
+        for (List<Transaction> txs : bySender.values()) {
+            txs.sort(Comparator.comparingLong(Transaction::getNonce));
+
+            for (Transaction tx : txs) {
+                if (isPoolFull()) {
+                    unprocessed.add(tx);
+                    continue;
+                }
+
+                // process the transaction
+                ProcessingResult result = processTransaction(tx, false, false);
+                if (result.error == TransactionResult.Code.POOL_LIMIT_EXCEEDED) {
+                    // not marked as processed, so that it can be resubmitted later
+                    txsDropped.incrementAndGet();
+                } else {
+                    processedTxs.put(ByteArray.of(tx.getHash()), TimeUtil.currentTimeMillis());
+                }
+                txsAccepted.addAndGet(result.accepted);
             }
         }
+
+        // put back for the next round, ahead of the rest and in the original order
+        if (!unprocessed.isEmpty()) {
+            List<Transaction> putBack = new ArrayList<>();
+            for (Transaction tx : taken) {
+                if (unprocessed.contains(tx)) {
+                    putBack.add(tx);
+                }
+            }
+            requeueFirst(putBack);
+        }
+    }
+
+    /**
+     * Inserts transactions at the head of the execution queue.
+     *
+     * @param txs
+     */
+    private void requeueFirst(List<Transaction> txs) {
+        Map<ByteArray, Transaction> rest = new LinkedHashMap<>(queue);
+        queue.clear();
+        queueBytes = 0;
+        for (Transaction tx : txs) {
+            enqueue(tx);
+        }
+        for (Transaction tx : rest.values()) {
+            enqueue(tx);
+        }
+    }
+
+    /**
+     * Adds a validated transaction to the execution queue.
+     *
+     * @param tx
+     */
+    private void enqueue(Transaction tx) {
+        // NOTE: re-insertion doesn't affect item order
+        if (queue.put(ByteArray.of(tx.getHash()), tx) == null) {
+            queueBytes += FutureTransactionPool.weigh(tx);
+        }
+    }
+
+    /**
+     * Returns whether the list of valid transactions has reached its count or size
+     * limit.
+     *
+     * @return
+     */
+    private boolean isPoolFull() {
+        return validTxs.size() >= VALID_TXS_LIMIT || validBytes >= validBytesLimit;
+    }
+
+    /**
+     * Restores the pool from the journal. Signatures are re-verified in batches on
+     * the worker pool, and transactions are executed in nonce order without being
+     * relayed to peers.
+     */
+    private void restoreJournal() {
+        long t1 = TimeUtil.currentTimeMillis();
+
+        List<Transaction> txs = validateTransactions(journal.load());
+        txs.sort(Comparator.comparing((Transaction tx) -> ByteArray.of(tx.getFrom()))
+                .thenComparingLong(Transaction::getNonce));
+
+        int accepted = 0;
+        synchronized (this) {
+            isRestoring = true;
+            for (Transaction tx : txs) {
+                accepted += processTransaction(tx, true, false).accepted;
+                processedTxs.put(ByteArray.of(tx.getHash()), TimeUtil.currentTimeMillis());
+            }
+            isRestoring = false;
+        }
+
+        journal.open();
+        compactJournal();
+
+        long t2 = TimeUtil.currentTimeMillis();
+        logger.info("Restored pending transactions: # txs = {} / {}, time = {} ms", accepted, txs.size(), t2 - t1);
+    }
+
+    /**
+     * Replaces the journal with a snapshot of the pending and large-nonce
+     * transactions.
+     */
+    private void compactJournal() {
+        List<Transaction> txs = new ArrayList<>();
+        synchronized (this) {
+            validTxs.forEach(tx -> txs.add(tx.transaction));
+            txs.addAll(largeNonceTxs.getTransactions());
+            journal.rotate();
+        }
+
+        journal.compact(txs);
+    }
+
+    private void logStatistics() {
+        long now = TimeUtil.currentTimeMillis();
+        if (now - statsLoggedAt >= STATS_LOG_INTERVAL) {
+            long accepted = txsAccepted.get();
+            logger.debug("Pending manager: queue depth = {}, received = {}, dropped = {}, invalid = {}, "
+                    + "accepted = {}, throughput = {} tx/s, memory = {} KB", getQueueDepth(), txsReceived.get(),
+                    txsDropped.get(), txsInvalid.get(), accepted,
+                    (accepted - statsLoggedAccepted) * 1000 / (now - statsLoggedAt), getMemoryUsage() / 1024);
+
+            statsLoggedAt = now;
+            statsLoggedAccepted = accepted;
+        }
     }
 
     /**
@@ -342,14 +1312,22 @@ public class PendingManager implements Runnable, BlockchainListener {
 
         // report INVALID_NONCE error to prevent the transaction from being
         // silently ignored due to a low nonce
-        if (tx.getNonce() < getNonce(tx.getFrom())) {
+        if (tx.getNonce() < getPendingNonce(tx.getFrom())) {
             return new ProcessingResult(0, TransactionResult.Code.INVALID_NONCE);
         }
 
+        // reject fresh transactions once the sender has reached its quota. The
+        // large-nonce transactions don't count against one filling the nonce gap,
+        // or they could block the sender forever.
+        if (!isIncludedBefore && getSenderTransactionCount(tx.getFrom(),
+                tx.getNonce() > getPendingNonce(tx.getFrom())) >= kernel.getConfig().poolMaxAccountTransactions()) {
+            return new ProcessingResult(0, TransactionResult.Code.POOL_LIMIT_EXCEEDED);
+        }
+
         // Check transaction nonce: pending transactions must be executed sequentially
         // by nonce in ascending order. In case of a nonce jump, the transaction is
         // delayed for the next event loop of PendingManager.
-        while (tx != null && tx.getNonce() == getNonce(tx.getFrom())) {
+        while (tx != null && tx.getNonce() == getPendingNonce(tx.getFrom())) {
 
             // execute transactions
             AccountState as = pendingAS.track();
@@ -366,11 +1344,12 @@ public class PendingManager implements Runnable, BlockchainListener {
                 // Add the successfully processed transaction into the pool of transactions
                 // which are ready to be proposed to the network.
                 PendingTransaction pendingTransaction = new PendingTransaction(tx, result);
-                validTxs.add(pendingTransaction);
+                addValidTransaction(pendingTransaction);
                 cnt++;
 
-                // If a transaction is not included before, send it to the network now
-                if (!isIncludedBefore) {
+                // If a transaction is not included before, send it to the network now. The
+                // transactions restored from the journal have been relayed before the restart.
+                if (!isIncludedBefore && !isRestoring) {
                     // if it is from myself, broadcast it to everyone
                     broadcastTransaction(tx, isFromThisNode);
                 }
@@ -379,15 +1358,26 @@ public class PendingManager implements Runnable, BlockchainListener {
                 return new ProcessingResult(cnt, result.getCode());
             }
 
-            tx = largeNonceTxs.getIfPresent(createKey(tx.getFrom(), getNonce(tx.getFrom())));
+            // promote the next large-nonce transaction, unless the sender has reached
+            // its quota; it's then left for the rebase after the next block
+            byte[] from = tx.getFrom();
+            tx = getSenderTransactionCount(from, false) < kernel.getConfig().poolMaxAccountTransactions()
+                    ? largeNonceTxs.remove(from, getPendingNonce(from))
+                    : null;
             isIncludedBefore = false; // A large-nonce transaction is not included before
         }
 
         // Delay the transaction for the next event loop of PendingManager. The delayed
         // transaction is expected to be processed once PendingManager has received
         // all of its preceding transactions from the same address.
-        if (tx != null && tx.getNonce() > getNonce(tx.getFrom())) {
-            largeNonceTxs.put(createKey(tx), tx);
+        if (tx != null && tx.getNonce() > getPendingNonce(tx.getFrom())) {
+            if (!largeNonceTxs.add(tx)) {
+                return new ProcessingResult(cnt, TransactionResult.Code.POOL_LIMIT_EXCEEDED);
+            }
+
+            if (journal != null && !isRestoring) {
+                journal.append(tx);
+            }
         }
 
         return new ProcessingResult(cnt);
@@ -403,21 +1393,106 @@ public class PendingManager implements Runnable, BlockchainListener {
             channels = channels.subList(0, n);
         }
 
-        // Send the message
-        TransactionMessage msg = new TransactionMessage(tx);
-        for (Channel c : channels) {
-            if (c.isActive()) {
-                c.getMessageQueue().sendMessage(msg);
+        // Peers supporting TX_INVENTORY get the hash in the next batched
+        // announcement; the others get the full transaction. Transaction relay is
+        // best-effort: skip legacy channels whose queue is already half full.
+        EncodedMessage msg = null;
+        int queueLimit = kernel.getConfig().netMaxMessageQueueSize() / 2;
+        try {
+            for (Channel c : channels) {
+                if (!c.isActive()) {
+                    continue;
+                }
+
+                if (c.supports(Capability.TX_INVENTORY)) {
+                    c.announceTransaction(tx.getHash());
+                } else if ((toAllPeers || c.getMessageQueue().size() < queueLimit)
+                        && c.markTransactionKnown(tx.getHash())) {
+                    if (msg == null) {
+                        msg = EncodedMessage.of(new TransactionMessage(tx));
+                    }
+                    c.getMessageQueue().sendMessage(msg.retainedDuplicate());
+                }
+            }
+        } finally {
+            if (msg != null) {
+                msg.release();
             }
         }
     }
 
-    private ByteArray createKey(Transaction tx) {
-        return ByteArray.of(Bytes.merge(tx.getFrom(), Bytes.of(tx.getNonce())));
+    /**
+     * An append-only list of pending transactions. A new instance is created on
+     * every append by the single writer, sharing the backing array; readers see a
+     * consistent snapshot without locking.
+     */
+    private static final class TxList {
+
+        static final TxList EMPTY = new TxList(new PendingTransaction[0], 0);
+
+        private final PendingTransaction[] elements;
+        private final int size;
+
+        private TxList(PendingTransaction[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        TxList append(PendingTransaction tx) {
+            PendingTransaction[] arr = elements;
+            if (size == arr.length) {
+                arr = Arrays.copyOf(arr, Math.max(4, size * 2));
+            }
+            arr[size] = tx;
+
+            return new TxList(arr, size + 1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        PendingTransaction get(int i) {
+            return elements[i];
+        }
+
+        List<PendingTransaction> subList(int from, int to) {
+            int start = Math.max(0, Math.min(from, size));
+            int end = Math.max(start, Math.min(to, size));
+            return Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(elements, start, end)));
+        }
     }
 
-    private ByteArray createKey(byte[] acc, long nonce) {
-        return ByteArray.of(Bytes.merge(acc, Bytes.of(nonce)));
+    /**
+     * An outstanding request for an announced transaction, with the peers to fall
+     * back on in announcement order.
+     */
+    private static class TxRequest {
+
+        private volatile long requestedAt;
+
+        private final ArrayDeque<Channel> announcers = new ArrayDeque<>();
+
+        TxRequest(long requestedAt) {
+            this.requestedAt = requestedAt;
+        }
+
+        synchronized void addAnnouncer(Channel channel) {
+            if (announcers.size() < REQUESTED_TXS_MAX_ANNOUNCERS && !announcers.contains(channel)) {
+                announcers.add(channel);
+            }
+        }
+
+        synchronized Channel nextAnnouncer(long now) {
+            Channel channel;
+            while ((channel = announcers.poll()) != null) {
+                if (channel.isActive()) {
+                    requestedAt = now;
+                    return channel;
+                }
+            }
+            return null;
+        }
     }
 
     /**
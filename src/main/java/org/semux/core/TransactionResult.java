@@ -108,7 +108,13 @@ public class TransactionResult {
         /**
          * The UNVOTE operation is invalid.
          */
-        INVALID_UNVOTING(0x2f);
+        INVALID_UNVOTING(0x2f),
+
+        /**
+         * The sender has reached its quota of pending transactions, or the pool is
+         * full (should NOT be included on chain).
+         */
+        POOL_LIMIT_EXCEEDED(0x30);
 
         private static Code[] map = new Code[256];
 
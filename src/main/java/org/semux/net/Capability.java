@@ -36,7 +36,22 @@ public enum Capability {
     /**
      * This client supports the LIGHT protocol.
      */
-    LIGHT;
+    LIGHT,
+
+    /**
+     * This client supports batched transaction announcements and requests.
+     */
+    TX_INVENTORY,
+
+    /**
+     * This client supports compact BFT proposals.
+     */
+    COMPACT_PROPOSAL,
+
+    /**
+     * This client supports downloading ranges of blocks.
+     */
+    RANGE_SYNC;
 
     public static Capability of(String name) {
         try {
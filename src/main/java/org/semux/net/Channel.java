@@ -7,17 +7,37 @@
 package org.semux.net;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.semux.Kernel;
 import org.semux.net.msg.MessageQueue;
+import org.semux.util.ByteArray;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 
 public class Channel {
-    private final NioSocketChannel socket;
+
+    /**
+     * The number of transaction hashes remembered as known by the remote peer.
+     */
+    private static final int KNOWN_TXS_LIMIT = 16 * 1024;
+
+    /**
+     * The maximum number of transaction hashes waiting to be announced.
+     */
+    private static final int ANNOUNCEMENTS_LIMIT = 4 * 1024;
+
+    private final SocketChannel socket;
 
     private boolean isInbound;
     private InetSocketAddress remoteAddress;
@@ -25,13 +45,19 @@ public class Channel {
 
     private MessageQueue msgQueue;
 
+    private final TrafficStats trafficStats = new TrafficStats();
+
     private boolean isActive;
 
+    private final Cache<ByteArray, Boolean> knownTxs = Caffeine.newBuilder().maximumSize(KNOWN_TXS_LIMIT).build();
+    private final ConcurrentLinkedQueue<byte[]> announcements = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger announcementsSize = new AtomicInteger(0);
+
     /**
      * Creates a new channel instance.
      * 
      */
-    public Channel(NioSocketChannel socket) {
+    public Channel(SocketChannel socket) {
         this.socket = socket;
     }
 
@@ -50,7 +76,13 @@ public class Channel {
 
         this.msgQueue = new MessageQueue(kernel.getConfig());
 
-        // register channel handlers
+        // register channel handlers; the traffic is counted next to the socket,
+        // and shaped below the frame codec
+        pipe.addLast("trafficStats", trafficStats.getHandler());
+        TrafficShaper shaper = kernel.getChannelManager().getTrafficShaper();
+        if (shaper != null) {
+            pipe.addLast("trafficShaper", shaper);
+        }
         if (isInbound) {
             pipe.addLast("inboundLimitHandler",
                     new ConnectionLimitHandler(kernel.getConfig().netMaxInboundConnectionsPerIp()));
@@ -59,6 +91,7 @@ public class Channel {
                 new ReadTimeoutHandler(kernel.getConfig().netChannelIdleTimeout(), TimeUnit.MILLISECONDS));
         pipe.addLast("frameHandler", new SemuxFrameHandler(kernel.getConfig()));
         pipe.addLast("messageHandler", new SemuxMessageHandler(kernel.getConfig()));
+        pipe.addLast("messageStats", trafficStats.getHandler());
         pipe.addLast("p2pHandler", new SemuxP2pHandler(this, kernel));
     }
 
@@ -78,6 +111,15 @@ public class Channel {
         return msgQueue;
     }
 
+    /**
+     * Returns the traffic counters.
+     *
+     * @return
+     */
+    public TrafficStats getTrafficStats() {
+        return trafficStats;
+    }
+
     /**
      * Returns whether this is an inbound channel.
      * 
@@ -164,6 +206,71 @@ public class Channel {
         return remoteAddress.getPort();
     }
 
+    /**
+     * Marks a transaction as known by the remote peer.
+     *
+     * @param hash
+     *            the transaction hash
+     * @return true if the transaction was not known before, otherwise false
+     */
+    public boolean markTransactionKnown(byte[] hash) {
+        return knownTxs.asMap().putIfAbsent(ByteArray.of(hash), Boolean.TRUE) == null;
+    }
+
+    /**
+     * Returns whether a transaction is known by the remote peer.
+     *
+     * @param hash
+     *            the transaction hash
+     * @return
+     */
+    public boolean isTransactionKnown(byte[] hash) {
+        return knownTxs.getIfPresent(ByteArray.of(hash)) != null;
+    }
+
+    /**
+     * Queues a transaction hash for the next batched announcement, unless the
+     * remote peer already knows the transaction.
+     *
+     * @param hash
+     *            the transaction hash
+     */
+    public void announceTransaction(byte[] hash) {
+        if (announcementsSize.get() < ANNOUNCEMENTS_LIMIT && markTransactionKnown(hash)) {
+            announcementsSize.incrementAndGet();
+            announcements.add(hash);
+        }
+    }
+
+    /**
+     * Removes and returns up to the given number of queued announcements.
+     *
+     * @param max
+     *            the maximum number of hashes
+     * @return
+     */
+    public List<byte[]> pollTransactionAnnouncements(int max) {
+        List<byte[]> hashes = new ArrayList<>();
+        byte[] hash;
+        while (hashes.size() < max && (hash = announcements.poll()) != null) {
+            announcementsSize.decrementAndGet();
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns whether the remote peer supports the given capability.
+     *
+     * @param capability
+     * @return
+     */
+    public boolean supports(Capability capability) {
+        Peer peer = remotePeer;
+        return peer != null && peer.getCapabilities() != null
+                && Stream.of(peer.getCapabilities()).anyMatch(c -> capability.name().equals(c));
+    }
+
     @Override
     public String toString() {
         return "Channel [" + (isInbound ? "Inbound" : "Outbound") + ", remoteIp = " + getRemoteIp() + ", remotePeer = "
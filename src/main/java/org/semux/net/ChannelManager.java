@@ -14,8 +14,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.semux.Kernel;
+import org.semux.config.Config;
 import org.semux.net.filter.SemuxIpFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,9 +40,41 @@ public class ChannelManager {
 
     protected final SemuxIpFilter ipFilter;
 
+    protected ScheduledExecutorService trafficExecutor;
+    protected TrafficShaper trafficShaper;
+
     public ChannelManager(Kernel kernel) {
+        Config config = kernel.getConfig();
         ipFilter = new SemuxIpFilter.Loader()
-                .load(new File(kernel.getConfig().configDir(), SemuxIpFilter.CONFIG_FILE).toPath());
+                .load(new File(config.configDir(), SemuxIpFilter.CONFIG_FILE).toPath());
+
+        if (config.netGlobalWriteLimit() > 0 || config.netChannelWriteLimit() > 0) {
+            trafficExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "traffic-shaper");
+                t.setDaemon(true);
+                return t;
+            });
+            trafficShaper = new TrafficShaper(config, trafficExecutor);
+        }
+    }
+
+    /**
+     * Returns the traffic shaper shared by all channels.
+     *
+     * @return the traffic shaper, or null if the bandwidth is not limited
+     */
+    public TrafficShaper getTrafficShaper() {
+        return trafficShaper;
+    }
+
+    /**
+     * Stops the traffic shaper, if any.
+     */
+    public void stop() {
+        if (trafficShaper != null) {
+            trafficShaper.release();
+            trafficExecutor.shutdownNow();
+        }
     }
 
     /**
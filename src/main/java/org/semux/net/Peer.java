@@ -56,6 +56,8 @@ public class Peer {
     private long latestBlockNumber;
     private long latency;
 
+    private final PeerStats stats = new PeerStats();
+
     /**
      * Create a new Peer instance.
      *
@@ -177,6 +179,15 @@ public class Peer {
         this.latency = latency;
     }
 
+    /**
+     * Returns the download statistics of this peer.
+     *
+     * @return
+     */
+    public PeerStats getStats() {
+        return stats;
+    }
+
     @Override
     public String toString() {
         return getPeerId() + "@" + ip + ":" + port;
@@ -23,8 +23,6 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 /**
  * Represents a client which connects to the Semux network.
@@ -44,6 +42,7 @@ public class PeerClient {
 
     private final int port;
     private final Key coinbase;
+    private final Transport transport;
     private final EventLoopGroup workerGroup;
 
     private ScheduledFuture<?> ipRefreshFuture = null;
@@ -56,7 +55,8 @@ public class PeerClient {
      * @param coinbase
      */
     public PeerClient(Config config, Key coinbase) {
-        this(config.p2pDeclaredIp().orElse(SystemUtil.getIp()), config.p2pListenPort(), coinbase);
+        this(config.p2pDeclaredIp().orElse(SystemUtil.getIp()), config.p2pListenPort(), coinbase,
+                Transport.select(config.netEpoll()), config.netClientThreads());
     }
 
     /**
@@ -67,13 +67,30 @@ public class PeerClient {
      * @param coinbase
      */
     public PeerClient(String ip, int port, Key coinbase) {
-        logger.info("Peer client info: peerId = {}, ip = {}, port = {}", coinbase.toAddressString(), ip, port);
+        this(ip, port, coinbase, Transport.NIO, 4);
+    }
+
+    /**
+     * Create a new PeerClient with the given public IP address, coinbase and
+     * transport.
+     *
+     * @param ip
+     * @param port
+     * @param coinbase
+     * @param transport
+     * @param threads
+     *            the number of event loop threads
+     */
+    public PeerClient(String ip, int port, Key coinbase, Transport transport, int threads) {
+        logger.info("Peer client info: peerId = {}, ip = {}, port = {}, transport = {}", coinbase.toAddressString(),
+                ip, port, transport);
 
         this.ip = ip;
         this.port = port;
         this.coinbase = coinbase;
 
-        this.workerGroup = new NioEventLoopGroup(4, factory);
+        this.transport = transport;
+        this.workerGroup = transport.newEventLoopGroup(threads, factory);
     }
 
     /**
@@ -130,7 +147,7 @@ public class PeerClient {
     public ChannelFuture connect(Node remoteNode, SemuxChannelInitializer ci) {
         Bootstrap b = new Bootstrap();
         b.group(workerGroup);
-        b.channel(NioSocketChannel.class);
+        b.channel(transport.channelClass());
 
         b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -10,6 +10,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.semux.Kernel;
+import org.semux.config.Config;
 import org.semux.config.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,8 +19,7 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.logging.LoggingHandler;
 
 /**
@@ -42,8 +42,8 @@ public class PeerServer {
 
     protected Channel channel;
 
-    private NioEventLoopGroup bossGroup;
-    private NioEventLoopGroup workerGroup;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
 
     public PeerServer(Kernel kernel) {
         this.kernel = kernel;
@@ -59,13 +59,15 @@ public class PeerServer {
         }
 
         try {
-            bossGroup = new NioEventLoopGroup(1, factory);
-            workerGroup = new NioEventLoopGroup(4, factory);
+            Config config = kernel.getConfig();
+            Transport transport = Transport.select(config.netEpoll());
+            bossGroup = transport.newEventLoopGroup(1, factory);
+            workerGroup = transport.newEventLoopGroup(config.netServerThreads(), factory);
 
             ServerBootstrap b = new ServerBootstrap();
 
             b.group(bossGroup, workerGroup);
-            b.channel(NioServerSocketChannel.class);
+            b.channel(transport.serverChannelClass());
 
             b.option(ChannelOption.SO_KEEPALIVE, true);
             b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -74,7 +76,7 @@ public class PeerServer {
             b.handler(new LoggingHandler());
             b.childHandler(new SemuxChannelInitializer(kernel, null));
 
-            logger.info("Starting peer server: address = {}:{}", ip, port);
+            logger.info("Starting peer server: address = {}:{}, transport = {}", ip, port, transport);
             channel = b.bind(ip, port).sync().channel();
         } catch (Exception e) {
             logger.error("Failed to start peer server", e);
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+/**
+ * Download statistics of a peer, which are used to schedule sync requests:
+ * response time, throughput, failure rate and the number of blocks in flight.
+ * <p>
+ * The response time is smoothed as in TCP (RFC 6298), and the other rates with
+ * exponentially weighted moving averages.
+ */
+public class PeerStats {
+
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final double GAMMA = 0.1;
+
+    // the number of samples before the measurements are trusted
+    private static final int MIN_SAMPLES = 3;
+
+    private double rtt;
+    private double rttVariance;
+    private double bytesPerSecond;
+    private double blocksPerSecond;
+    private double failureRate;
+
+    private long samples;
+    private long received;
+    private long failed;
+    private int inFlight;
+
+    /**
+     * Records blocks requested from the peer.
+     *
+     * @param blocks
+     */
+    public synchronized void onRequest(int blocks) {
+        inFlight += blocks;
+    }
+
+    /**
+     * Records a response from the peer.
+     *
+     * @param latency
+     *            the time since the request, or since the previous part of a
+     *            streamed response, in milliseconds
+     * @param bytes
+     *            the size of the response
+     * @param blocks
+     *            the number of requested blocks in the response
+     */
+    public synchronized void onResponse(long latency, int bytes, int blocks) {
+        inFlight = Math.max(0, inFlight - blocks);
+        received += blocks;
+
+        double seconds = Math.max(latency, 1) / 1000.0;
+        if (samples == 0) {
+            rtt = latency;
+            rttVariance = latency / 2.0;
+            bytesPerSecond = bytes / seconds;
+            blocksPerSecond = blocks / seconds;
+        } else {
+            rttVariance += BETA * (Math.abs(rtt - latency) - rttVariance);
+            rtt += ALPHA * (latency - rtt);
+            bytesPerSecond += ALPHA * (bytes / seconds - bytesPerSecond);
+            blocksPerSecond += ALPHA * (blocks / seconds - blocksPerSecond);
+        }
+        for (int i = 0; i < blocks; i++) {
+            failureRate -= GAMMA * failureRate;
+        }
+        samples++;
+    }
+
+    /**
+     * Records requested blocks which the peer failed to deliver in time.
+     *
+     * @param blocks
+     */
+    public synchronized void onTimeout(int blocks) {
+        inFlight = Math.max(0, inFlight - blocks);
+        onFailure(blocks);
+    }
+
+    /**
+     * Records blocks which the peer delivered, but which turned out to be
+     * unusable.
+     *
+     * @param blocks
+     */
+    public synchronized void onFailure(int blocks) {
+        failed += blocks;
+
+        for (int i = 0; i < blocks; i++) {
+            failureRate += GAMMA * (1 - failureRate);
+        }
+    }
+
+    /**
+     * Records requested blocks which are no longer expected, without counting
+     * them as failures.
+     *
+     * @param blocks
+     */
+    public synchronized void onCancel(int blocks) {
+        inFlight = Math.max(0, inFlight - blocks);
+    }
+
+    /**
+     * Returns the timeout of a request to this peer: the smoothed response time
+     * plus four times its variance, bounded around the default timeout.
+     *
+     * @param defaultTimeout
+     *            the timeout used until the peer is measured
+     * @return the timeout in milliseconds
+     */
+    public synchronized long getTimeout(long defaultTimeout) {
+        if (samples < MIN_SAMPLES) {
+            return defaultTimeout;
+        }
+
+        long timeout = Math.round(rtt + 4 * rttVariance);
+        return Math.max(defaultTimeout / 2, Math.min(defaultTimeout * 8, timeout));
+    }
+
+    /**
+     * Returns whether there are enough samples for the measurements to be used.
+     *
+     * @return
+     */
+    public synchronized boolean isMeasured() {
+        return samples >= MIN_SAMPLES;
+    }
+
+    /**
+     * Returns the smoothed response time, in milliseconds.
+     *
+     * @return
+     */
+    public synchronized long getRtt() {
+        return Math.round(rtt);
+    }
+
+    /**
+     * Returns the download rate, in bytes per second.
+     *
+     * @return
+     */
+    public synchronized long getBytesPerSecond() {
+        return Math.round(bytesPerSecond);
+    }
+
+    /**
+     * Returns the download rate, in blocks per second.
+     *
+     * @return
+     */
+    public synchronized double getBlocksPerSecond() {
+        return blocksPerSecond;
+    }
+
+    /**
+     * Returns the recent ratio of requested blocks which timed out.
+     *
+     * @return
+     */
+    public synchronized double getFailureRate() {
+        return failureRate;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PeerStats [rtt = " + getRtt() + " ms, throughput = " + getBytesPerSecond() + " B/s, failure rate = "
+                + String.format("%.2f", failureRate) + ", in flight = " + inFlight + "]";
+    }
+}
@@ -9,6 +9,7 @@ package org.semux.net;
 import java.net.InetSocketAddress;
 
 import org.semux.Kernel;
+import org.semux.config.Config;
 import org.semux.net.NodeManager.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,9 +17,10 @@ import org.slf4j.LoggerFactory;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.FixedRecvByteBufAllocator;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.SocketChannel;
 
-public class SemuxChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+public class SemuxChannelInitializer extends ChannelInitializer<SocketChannel> {
 
     private static final Logger logger = LoggerFactory.getLogger(SemuxChannelInitializer.class);
 
@@ -51,7 +53,7 @@ public class SemuxChannelInitializer extends ChannelInitializer<NioSocketChannel
     }
 
     @Override
-    public void initChannel(NioSocketChannel ch) throws Exception {
+    public void initChannel(SocketChannel ch) throws Exception {
         try {
             InetSocketAddress address = isServerMode() ? ch.remoteAddress() : remoteNode.toAddress();
             logger.debug("New {} channel: remoteAddress = {}:{}", isServerMode() ? "inbound" : "outbound",
@@ -71,11 +73,21 @@ public class SemuxChannelInitializer extends ChannelInitializer<NioSocketChannel
             }
 
             // limit the size of receiving buffer
-            int bufferSize = Frame.HEADER_SIZE + kernel.getConfig().netMaxFrameBodySize();
+            Config config = kernel.getConfig();
+            int bufferSize = Frame.HEADER_SIZE + config.netMaxFrameBodySize();
             ch.config().setRecvByteBufAllocator(new FixedRecvByteBufAllocator(bufferSize));
-            ch.config().setOption(ChannelOption.SO_RCVBUF, bufferSize);
+            ch.config().setOption(ChannelOption.SO_RCVBUF,
+                    config.netReceiveBufferSize() > 0 ? config.netReceiveBufferSize() : bufferSize);
             ch.config().setOption(ChannelOption.SO_BACKLOG, 1024);
 
+            // socket tuning
+            ch.config().setOption(ChannelOption.TCP_NODELAY, config.netTcpNoDelay());
+            if (config.netSendBufferSize() > 0) {
+                ch.config().setOption(ChannelOption.SO_SNDBUF, config.netSendBufferSize());
+            }
+            ch.config().setOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                    config.netWriteBufferLowWaterMark(), config.netWriteBufferHighWaterMark()));
+
             // notify disconnection to channel manager
             ch.closeFuture().addListener(future -> {
                 if (!isDiscoveryMode()) {
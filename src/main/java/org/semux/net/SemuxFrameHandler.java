@@ -14,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 
@@ -42,10 +43,13 @@ public class SemuxFrameHandler extends ByteToMessageCodec<Frame> {
             return;
         }
 
-        // create a buffer
-        ByteBuf buf = out.alloc().buffer(Frame.HEADER_SIZE + bodySize);
-        frame.writeHeader(buf);
-        buf.writeBytes(frame.getBody());
+        // prepend the header to the body slice, without copying the body; the
+        // frame is released by the encoder, so the composite takes its own
+        // reference of the body
+        ByteBuf header = ctx.alloc().directBuffer(Frame.HEADER_SIZE);
+        frame.writeHeader(header);
+        CompositeByteBuf buf = ctx.alloc().compositeDirectBuffer(2);
+        buf.addComponents(true, header, frame.getBody().retain());
 
         // NOTE: write() operation does not flush automatically
 
@@ -78,10 +82,8 @@ public class SemuxFrameHandler extends ByteToMessageCodec<Frame> {
             // reset reader index if not available
             in.readerIndex(readerIndex);
         } else {
-            // read body
-            byte[] body = new byte[bodySize];
-            in.readBytes(body);
-            frame.setBody(body);
+            // read body, as a slice of the inbound buffer
+            frame.setBody(in.readRetainedSlice(bodySize));
 
             // deliver
             out.add(frame);
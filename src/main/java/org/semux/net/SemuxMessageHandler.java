@@ -7,13 +7,13 @@
 package org.semux.net;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.semux.config.Config;
+import org.semux.net.msg.EncodedMessage;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.MessageException;
 import org.semux.net.msg.MessageFactory;
@@ -21,12 +21,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 
+/**
+ * Encodes messages into frames and decodes frames into messages.
+ * <p>
+ * A packet is compressed into a pooled direct buffer, unless the message was
+ * compressed ahead for broadcasting, and its frames are slices of that buffer.
+ * The frames of a chunked packet are reassembled into a composite buffer, so
+ * the packet is only copied when it's decompressed.
+ */
 public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
 
     private static final Logger logger = LoggerFactory.getLogger(SemuxMessageHandler.class);
@@ -35,8 +44,21 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
 
     private static final byte COMPRESS_TYPE = Frame.COMPRESS_SNAPPY;
 
-    private final Cache<Integer, Pair<List<Frame>, AtomicInteger>> incompletePackets = Caffeine.newBuilder()
-            .maximumSize(MAX_PACKETS).build();
+    // the partial packets, least recently used first; the eldest is released when
+    // evicted, the others once removed. Guarded by itself.
+    private final Map<Integer, CompositeByteBuf> incompletePackets = new LinkedHashMap<Integer, CompositeByteBuf>(
+            MAX_PACKETS * 2, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompositeByteBuf> eldest) {
+            if (size() > MAX_PACKETS) {
+                eldest.getValue().release();
+                return true;
+            }
+            return false;
+        }
+    };
 
     private final Config config;
 
@@ -53,13 +75,23 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
         byte[] data = msg.getBody();
-        byte[] dataCompressed = data;
+        if (data.length > config.netMaxPacketSize()) {
+            logger.error("Invalid packet size, max = {}, actual = {}", config.netMaxPacketSize(), data.length);
+            return;
+        }
 
+        ByteBuf packet;
         switch (COMPRESS_TYPE) {
         case Frame.COMPRESS_SNAPPY:
-            dataCompressed = Snappy.compress(data);
+            // NOTE: the encoded message is released after encoding
+            if (msg instanceof EncodedMessage && ((EncodedMessage) msg).getPacket() != null) {
+                packet = ((EncodedMessage) msg).getPacket().retain();
+            } else {
+                packet = EncodedMessage.compress(ctx.alloc(), data);
+            }
             break;
         case Frame.COMPRESS_NONE:
+            packet = Unpooled.wrappedBuffer(data);
             break;
         default:
             logger.error("Unsupported compress type: " + COMPRESS_TYPE);
@@ -68,55 +100,68 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
 
         byte packetType = msg.getCode().toByte();
         int packetId = count.incrementAndGet();
-        int packetSize = dataCompressed.length;
+        int packetSize = packet.readableBytes();
 
-        if (data.length > config.netMaxPacketSize() || dataCompressed.length > config.netMaxPacketSize()) {
-            logger.error("Invalid packet size, max = {}, actual = {}", config.netMaxPacketSize(), packetSize);
-            return;
-        }
+        try {
+            if (packetSize > config.netMaxPacketSize()) {
+                logger.error("Invalid packet size, max = {}, actual = {}", config.netMaxPacketSize(), packetSize);
+                return;
+            }
 
-        int limit = config.netMaxFrameBodySize();
-        int total = (dataCompressed.length - 1) / limit + 1;
-        for (int i = 0; i < total; i++) {
-            byte[] body = new byte[(i < total - 1) ? limit : dataCompressed.length % limit];
-            System.arraycopy(dataCompressed, i * limit, body, 0, body.length);
+            // the frames share the packet buffer, each holding a reference
+            int limit = config.netMaxFrameBodySize();
+            int total = (packetSize - 1) / limit + 1;
+            for (int i = 0; i < total; i++) {
+                int bodySize = (i < total - 1) ? limit : packetSize - i * limit;
+                ByteBuf body = packet.retainedSlice(i * limit, bodySize);
 
-            out.add(new Frame(Frame.VERSION, COMPRESS_TYPE, packetType, packetId, packetSize, body.length, body));
+                out.add(new Frame(Frame.VERSION, COMPRESS_TYPE, packetType, packetId, packetSize, bodySize, body));
+            }
+        } finally {
+            packet.release();
         }
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, Frame frame, List<Object> out) throws Exception {
+        // NOTE: the frame is released after decoding
+
         Message decodedMsg = null;
 
         if (frame.isChunked()) {
             synchronized (incompletePackets) {
                 int packetId = frame.getPacketId();
-                Pair<List<Frame>, AtomicInteger> pair = incompletePackets.getIfPresent(packetId);
-                if (pair == null) {
-                    int packetSize = frame.getPacketSize();
-                    if (packetSize < 0 || packetSize > config.netMaxPacketSize()) {
-                        // this will kill the connection
-                        throw new IOException("Invalid packet size: " + packetSize);
-                    }
+                int packetSize = frame.getPacketSize();
+                if (packetSize < 0 || packetSize > config.netMaxPacketSize()) {
+                    // this will kill the connection
+                    throw new IOException("Invalid packet size: " + packetSize);
+                }
 
-                    pair = Pair.of(new ArrayList<>(), new AtomicInteger(packetSize));
-                    incompletePackets.put(packetId, pair);
+                CompositeByteBuf packet = incompletePackets.get(packetId);
+                if (packet == null) {
+                    // inserted after the eviction, so it can't evict itself
+                    int maxFrames = (packetSize - 1) / config.netMaxFrameBodySize() + 1;
+                    packet = ctx.alloc().compositeBuffer(Math.max(maxFrames, 2));
+                    incompletePackets.put(packetId, packet);
                 }
 
-                pair.getLeft().add(frame);
-                int remaining = pair.getRight().addAndGet(-frame.getBodySize());
+                packet.addComponent(true, frame.getBody().retain());
+                int remaining = packetSize - packet.readableBytes();
                 if (remaining == 0) {
-                    decodedMsg = decodeMessage(pair.getLeft());
-
                     // remove complete packets from cache
-                    incompletePackets.invalidate(packetId);
+                    incompletePackets.remove(packetId);
+                    try {
+                        decodedMsg = decodeMessage(frame, packet);
+                    } finally {
+                        packet.release();
+                    }
                 } else if (remaining < 0) {
+                    incompletePackets.remove(packetId).release();
                     throw new IOException("Packet remaining size went to negative");
                 }
             }
         } else {
-            decodedMsg = decodeMessage(Collections.singletonList(frame));
+            decodedMsg = decodeMessage(frame, frame.getBody());
         }
 
         if (decodedMsg != null) {
@@ -124,44 +169,62 @@ public class SemuxMessageHandler extends MessageToMessageCodec<Frame, Message> {
         }
     }
 
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // release the partial packets
+        synchronized (incompletePackets) {
+            incompletePackets.values().forEach(CompositeByteBuf::release);
+            incompletePackets.clear();
+        }
+        super.handlerRemoved(ctx);
+    }
+
     /**
-     * Decode message from the frames.
+     * Decode message from a packet.
      * 
-     * @param frames
-     *            The message frames
+     * @param head
+     *            A frame of the packet, which holds the packet type
+     * @param packet
+     *            The packet data
      * @return The decoded message, or NULL if the message code is unknown
      * @throws MessageException
      */
-    protected Message decodeMessage(List<Frame> frames) throws MessageException {
-        if (frames == null || frames.isEmpty()) {
-            throw new MessageException("Frames can't be null or empty");
+    protected Message decodeMessage(Frame head, ByteBuf packet) throws MessageException {
+        if (head == null || packet == null) {
+            throw new MessageException("Frame and packet can't be null");
         }
-        Frame head = frames.get(0);
 
         byte packetType = head.getPacketType();
-        int packetSize = head.getPacketSize();
-
-        byte[] data = new byte[packetSize];
-        int pos = 0;
-        for (Frame frame : frames) {
-            System.arraycopy(frame.getBody(), 0, data, pos, frame.getBodySize());
-            pos += frame.getBodySize();
-        }
+        byte[] data;
 
         switch (head.getCompressType()) {
         case Frame.COMPRESS_SNAPPY:
             try {
+                // heap buffers are read in place, others are copied out once
+                byte[] input;
+                int offset;
+                int length = packet.readableBytes();
+                if (packet.hasArray()) {
+                    input = packet.array();
+                    offset = packet.arrayOffset() + packet.readerIndex();
+                } else {
+                    input = ByteBufUtil.getBytes(packet);
+                    offset = 0;
+                }
+
                 // check uncompressed length to avoid OOM vulnerability
-                int length = Snappy.uncompressedLength(data);
-                if (length > config.netMaxPacketSize()) {
-                    throw new MessageException("Uncompressed data length is too big: " + length);
+                int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
+                if (uncompressedLength > config.netMaxPacketSize()) {
+                    throw new MessageException("Uncompressed data length is too big: " + uncompressedLength);
                 }
-                data = Snappy.uncompress(data);
+                data = new byte[uncompressedLength];
+                Snappy.uncompress(input, offset, length, data, 0);
             } catch (IOException e) {
                 throw new MessageException(e);
             }
             break;
         case Frame.COMPRESS_NONE:
+            data = ByteBufUtil.getBytes(packet);
             break;
         default:
             throw new MessageException("Unsupported compress type: " + head.getCompressType());
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -26,12 +27,12 @@ import org.semux.Kernel;
 import org.semux.Network;
 import org.semux.config.Config;
 import org.semux.core.BftManager;
-import org.semux.core.Block;
 import org.semux.core.BlockHeader;
 import org.semux.core.BlockPart;
 import org.semux.core.Blockchain;
 import org.semux.core.PendingManager;
 import org.semux.core.SyncManager;
+import org.semux.core.Transaction;
 import org.semux.net.NodeManager.Node;
 import org.semux.net.msg.Message;
 import org.semux.net.msg.MessageQueue;
@@ -39,16 +40,21 @@ import org.semux.net.msg.ReasonCode;
 import org.semux.net.msg.consensus.BlockHeaderMessage;
 import org.semux.net.msg.consensus.BlockMessage;
 import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.BlockRangeMessage;
 import org.semux.net.msg.consensus.GetBlockHeaderMessage;
 import org.semux.net.msg.consensus.GetBlockMessage;
 import org.semux.net.msg.consensus.GetBlockPartsMessage;
+import org.semux.net.msg.consensus.GetBlockRangeMessage;
 import org.semux.net.msg.consensus.NewHeightMessage;
 import org.semux.net.msg.p2p.DisconnectMessage;
 import org.semux.net.msg.p2p.GetNodesMessage;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.net.msg.p2p.NodesMessage;
 import org.semux.net.msg.p2p.PingMessage;
 import org.semux.net.msg.p2p.PongMessage;
+import org.semux.net.msg.p2p.TransactionHashesMessage;
 import org.semux.net.msg.p2p.TransactionMessage;
+import org.semux.net.msg.p2p.TransactionsMessage;
 import org.semux.net.msg.p2p.handshake.v2.HelloMessage;
 import org.semux.net.msg.p2p.handshake.v2.InitMessage;
 import org.semux.net.msg.p2p.handshake.v2.WorldMessage;
@@ -79,6 +85,34 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
                 }
             });
 
+    /**
+     * Serves the block ranges, which are read from the database and encoded off
+     * the I/O threads.
+     */
+    private static final ExecutorService rangeExec = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger cnt = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "p2p-range-" + cnt.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The interval between two batched transaction announcements, in
+     * milliseconds.
+     */
+    private static final long TX_ANNOUNCE_INTERVAL = 100;
+
+    /**
+     * The max number of block range requests of a peer being served at a time;
+     * the requests beyond are dropped.
+     */
+    protected static final int MAX_RANGE_REQUESTS = 4;
+
     private final Channel channel;
     private final Config config;
     private final Blockchain chain;
@@ -90,10 +124,13 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
     private final BftManager bft;
     private final MessageQueue msgQueue;
 
+    private final AtomicInteger rangeRequests = new AtomicInteger(0);
+
     private AtomicBoolean isHandshakeDone = new AtomicBoolean(false);
 
     private ScheduledFuture<?> getNodes = null;
     private ScheduledFuture<?> pingPong = null;
+    private ScheduledFuture<?> txAnnounce = null;
 
     private byte[] secret = Bytes.random(InitMessage.SECRET_LENGTH);
     private long timestamp = TimeUtil.currentTimeMillis();
@@ -198,9 +235,22 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
             pingPong = null;
         }
 
+        if (txAnnounce != null) {
+            txAnnounce.cancel(false);
+            txAnnounce = null;
+        }
+
         super.channelInactive(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // resume writing the queued messages
+        msgQueue.onWritabilityChanged();
+
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         logger.debug("Exception in P2P handler, remoteIp = {}", channel.getRemoteIp(), cause);
@@ -241,6 +291,15 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         case TRANSACTION:
             onTransaction((TransactionMessage) msg);
             break;
+        case TRANSACTION_HASHES:
+            onTransactionHashes((TransactionHashesMessage) msg);
+            break;
+        case GET_TRANSACTIONS:
+            onGetTransactions((GetTransactionsMessage) msg);
+            break;
+        case TRANSACTIONS:
+            onTransactions((TransactionsMessage) msg);
+            break;
         case HANDSHAKE_INIT:
             if (useNewHandShake)
                 onHandshakeInit((InitMessage) msg);
@@ -261,6 +320,8 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BLOCK_HEADER:
         case GET_BLOCK_PARTS:
         case BLOCK_PARTS:
+        case GET_BLOCK_RANGE:
+        case BLOCK_RANGE:
             onSync(msg);
             break;
 
@@ -269,6 +330,9 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BFT_NEW_VIEW:
         case BFT_PROPOSAL:
         case BFT_VOTE:
+        case BFT_COMPACT_PROPOSAL:
+        case BFT_GET_PROPOSAL_TRANSACTIONS:
+        case BFT_PROPOSAL_TRANSACTIONS:
             onBft(msg);
             break;
 
@@ -366,9 +430,73 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
     }
 
     protected void onTransaction(TransactionMessage msg) {
+        channel.markTransactionKnown(msg.getTransaction().getHash());
         pendingMgr.addTransaction(msg.getTransaction());
     }
 
+    protected void onTransactionHashes(TransactionHashesMessage msg) {
+        if (!isHandshakeDone.get() || !msg.validate()) {
+            return;
+        }
+
+        for (byte[] hash : msg.getHashes()) {
+            channel.markTransactionKnown(hash);
+        }
+
+        List<byte[]> unknown = pendingMgr.selectTransactionsToRequest(msg.getHashes(), channel);
+        if (!unknown.isEmpty()) {
+            msgQueue.sendMessage(new GetTransactionsMessage(unknown));
+        }
+    }
+
+    protected void onGetTransactions(GetTransactionsMessage msg) {
+        if (!isHandshakeDone.get() || !msg.validate()) {
+            return;
+        }
+
+        List<Transaction> txs = new ArrayList<>();
+        int size = 0;
+        for (byte[] hash : msg.getHashes()) {
+            Transaction tx = pendingMgr.getTransaction(hash);
+            if (tx == null) {
+                continue;
+            }
+
+            int length = tx.toBytes().length;
+            if (size + length > TransactionsMessage.MAX_BYTES) {
+                break;
+            }
+            channel.markTransactionKnown(hash);
+            txs.add(tx);
+            size += length;
+        }
+
+        if (!txs.isEmpty()) {
+            msgQueue.sendMessage(new TransactionsMessage(txs));
+        }
+    }
+
+    protected void onTransactions(TransactionsMessage msg) {
+        if (!isHandshakeDone.get() || !msg.validate()) {
+            return;
+        }
+
+        for (Transaction tx : msg.getTransactions()) {
+            channel.markTransactionKnown(tx.getHash());
+            pendingMgr.addTransaction(tx);
+        }
+    }
+
+    /**
+     * Sends the queued transaction hashes of this channel in batches.
+     */
+    protected void announceTransactions() {
+        List<byte[]> hashes;
+        while (!(hashes = channel.pollTransactionAnnouncements(TransactionHashesMessage.MAX_HASHES)).isEmpty()) {
+            msgQueue.sendMessage(new TransactionHashesMessage(hashes));
+        }
+    }
+
     protected void onHandshakeInit(InitMessage msg) {
         // unexpected
         if (channel.isInbound()) {
@@ -454,8 +582,12 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         switch (msg.getCode()) {
         case GET_BLOCK: {
             GetBlockMessage m = (GetBlockMessage) msg;
-            Block block = chain.getBlock(m.getNumber());
-            channel.getMessageQueue().sendMessage(new BlockMessage(block));
+            List<byte[]> parts = chain.getBlockParts(m.getNumber(),
+                    BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.RESULTS, BlockPart.VOTES));
+            if (parts != null) {
+                channel.getMessageQueue()
+                        .sendMessage(new BlockMessage(parts.get(0), parts.get(1), parts.get(2), parts.get(3)));
+            }
             break;
         }
         case GET_BLOCK_HEADER: {
@@ -469,33 +601,33 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
             long number = m.getNumber();
             int parts = m.getParts();
 
-            List<byte[]> partsSerialized = new ArrayList<>();
-            Block block = chain.getBlock(number);
-            for (BlockPart part : BlockPart.decode(parts)) {
-                switch (part) {
-                case HEADER:
-                    partsSerialized.add(block.getEncodedHeader());
-                    break;
-                case TRANSACTIONS:
-                    partsSerialized.add(block.getEncodedTransactions());
-                    break;
-                case RESULTS:
-                    partsSerialized.add(block.getEncodedResults());
-                    break;
-                case VOTES:
-                    partsSerialized.add(block.getEncodedVotes());
-                    break;
-                default:
-                    throw new UnreachableException();
-                }
+            List<byte[]> partsSerialized = chain.getBlockParts(number, parts);
+            if (partsSerialized != null) {
+                channel.getMessageQueue().sendMessage(new BlockPartsMessage(number, parts, partsSerialized));
+            }
+            break;
+        }
+        case GET_BLOCK_RANGE: {
+            GetBlockRangeMessage m = (GetBlockRangeMessage) msg;
+            if (rangeRequests.incrementAndGet() > MAX_RANGE_REQUESTS) {
+                rangeRequests.decrementAndGet();
+                logger.debug("Dropped a block range request from {}: too many in progress", channel.getRemoteIp());
+                break;
             }
 
-            channel.getMessageQueue().sendMessage(new BlockPartsMessage(number, parts, partsSerialized));
+            rangeExec.execute(() -> {
+                try {
+                    sendBlockRange(m);
+                } finally {
+                    rangeRequests.decrementAndGet();
+                }
+            });
             break;
         }
         case BLOCK:
         case BLOCK_HEADER:
-        case BLOCK_PARTS: {
+        case BLOCK_PARTS:
+        case BLOCK_RANGE: {
             sync.onMessage(channel, msg);
             break;
         }
@@ -504,6 +636,39 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         }
     }
 
+    /**
+     * Streams the requested blocks in size-bounded chunks, up to the first missing
+     * block.
+     *
+     * @param m
+     */
+    protected void sendBlockRange(GetBlockRangeMessage m) {
+        long from = Math.max(m.getFrom(), 0);
+        long to = Math.min(from + Math.min(m.getCount(), GetBlockRangeMessage.MAX_COUNT),
+                chain.getLatestBlockNumber() + 1);
+
+        List<List<byte[]>> blocks = new ArrayList<>();
+        int size = 0;
+        for (long n = from; n < to; n++) {
+            List<byte[]> data = chain.getBlockParts(n, m.getParts());
+            if (data == null) {
+                break;
+            }
+            blocks.add(data);
+            size += data.stream().mapToInt(b -> b.length).sum();
+
+            if (size >= BlockRangeMessage.CHUNK_SIZE) {
+                channel.getMessageQueue().sendMessage(new BlockRangeMessage(from, m.getParts(), blocks));
+                from = n + 1;
+                blocks = new ArrayList<>();
+                size = 0;
+            }
+        }
+        if (!blocks.isEmpty()) {
+            channel.getMessageQueue().sendMessage(new BlockRangeMessage(from, m.getParts(), blocks));
+        }
+    }
+
     protected void onBft(Message msg) {
         if (!isHandshakeDone.get()) {
             return;
@@ -536,7 +701,7 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
         }
 
         // validator can't share IP address
-        if (chain.getValidators().contains(peer.getPeerId()) // is a validator
+        if (chain.getValidatorSet().contains(peer.getPeerId()) // is a validator
                 && channelMgr.isActiveIP(channel.getRemoteIp()) // already connected
                 && config.network() == Network.MAINNET) { // on main net
             return ReasonCode.VALIDATOR_IP_LIMITED;
@@ -563,6 +728,12 @@ public class SemuxP2pHandler extends SimpleChannelInboundHandler<Message> {
             // start ping pong
             pingPong = exec.scheduleAtFixedRate(() -> msgQueue.sendMessage(new PingMessage()),
                     channel.isInbound() ? 1 : 0, 1, TimeUnit.MINUTES);
+
+            // start batched transaction announcements
+            if (channel.supports(Capability.TX_INVENTORY)) {
+                txAnnounce = exec.scheduleAtFixedRate(this::announceTransactions,
+                        TX_ANNOUNCE_INTERVAL, TX_ANNOUNCE_INTERVAL, TimeUnit.MILLISECONDS);
+            }
         } else {
             msgQueue.disconnect(ReasonCode.HANDSHAKE_EXISTS);
         }
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.semux.config.Config;
+import org.semux.net.msg.MessageCode;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
+
+/**
+ * Limits the outbound bandwidth of all channels, in total and per channel.
+ * <p>
+ * It works on the frames written to the socket. The frames of consensus and
+ * prioritized messages, told by the packet type in the frame header, bypass
+ * the shaping so that serving sync requests can't delay them.
+ */
+@ChannelHandler.Sharable
+public class TrafficShaper extends GlobalChannelTrafficShapingHandler {
+
+    // the offset of the packet type in the frame header
+    private static final int PACKET_TYPE_OFFSET = 3;
+
+    private final Set<MessageCode> exempt;
+
+    /**
+     * Creates a traffic shaper.
+     *
+     * @param config
+     * @param executor
+     *            the executor of the traffic counters
+     */
+    public TrafficShaper(Config config, ScheduledExecutorService executor) {
+        super(executor, config.netGlobalWriteLimit(), 0, config.netChannelWriteLimit(), 0);
+
+        this.exempt = config.netPrioritizedMessages();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (isExempt(msg)) {
+            ctx.write(msg, promise);
+        } else {
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    /**
+     * Returns whether a written buffer is a frame which is exempt from shaping.
+     *
+     * @param msg
+     * @return
+     */
+    protected boolean isExempt(Object msg) {
+        if (!(msg instanceof ByteBuf) || ((ByteBuf) msg).readableBytes() < Frame.HEADER_SIZE) {
+            return false;
+        }
+
+        ByteBuf buf = (ByteBuf) msg;
+        MessageCode code = MessageCode.of(buf.getByte(buf.readerIndex() + PACKET_TYPE_OFFSET));
+        return code != null && (code.isConsensus() || exempt.contains(code));
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Traffic counters of a channel: the bytes sent and received, and the number of
+ * messages of each code.
+ * <p>
+ * The counters are updated by a handler which is added twice to the pipeline:
+ * next to the socket, where it counts bytes, and above the message codec, where
+ * it counts messages.
+ */
+public class TrafficStats {
+
+    private final AtomicLong bytesIn = new AtomicLong(0);
+    private final AtomicLong bytesOut = new AtomicLong(0);
+
+    private final AtomicLongArray messagesIn = new AtomicLongArray(256);
+    private final AtomicLongArray messagesOut = new AtomicLongArray(256);
+
+    private final ChannelHandler handler = new Handler();
+
+    /**
+     * Returns the handler which updates the counters.
+     *
+     * @return
+     */
+    public ChannelHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Returns the number of bytes received.
+     *
+     * @return
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Returns the number of bytes sent.
+     *
+     * @return
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Returns the number of messages received, by message code.
+     *
+     * @return
+     */
+    public Map<MessageCode, Long> getMessagesIn() {
+        return toMap(messagesIn);
+    }
+
+    /**
+     * Returns the number of messages sent, by message code.
+     *
+     * @return
+     */
+    public Map<MessageCode, Long> getMessagesOut() {
+        return toMap(messagesOut);
+    }
+
+    private static Map<MessageCode, Long> toMap(AtomicLongArray counts) {
+        Map<MessageCode, Long> map = new EnumMap<>(MessageCode.class);
+        for (MessageCode code : MessageCode.values()) {
+            long n = counts.get(code.getCode());
+            if (n > 0) {
+                map.put(code, n);
+            }
+        }
+        return map;
+    }
+
+    @ChannelHandler.Sharable
+    private class Handler extends ChannelDuplexHandler {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ByteBuf) {
+                bytesIn.addAndGet(((ByteBuf) msg).readableBytes());
+            } else if (msg instanceof Message) {
+                messagesIn.incrementAndGet(((Message) msg).getCode().getCode());
+            }
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf) {
+                bytesOut.addAndGet(((ByteBuf) msg).readableBytes());
+            } else if (msg instanceof Message) {
+                messagesOut.incrementAndGet(((Message) msg).getCode().getCode());
+            }
+            ctx.write(msg, promise);
+        }
+    }
+}
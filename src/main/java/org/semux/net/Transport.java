@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The Netty transports used by the P2P and API servers.
+ */
+public enum Transport {
+
+    NIO,
+
+    /**
+     * The native epoll transport, only available on Linux.
+     */
+    EPOLL;
+
+    private static final Logger logger = LoggerFactory.getLogger(Transport.class);
+
+    /**
+     * Selects the transport to use.
+     *
+     * @param epoll
+     *            whether the epoll transport is preferred
+     * @return EPOLL if it's preferred and available, otherwise NIO
+     */
+    public static Transport select(boolean epoll) {
+        if (epoll) {
+            if (Epoll.isAvailable()) {
+                return EPOLL;
+            }
+            logger.warn("Native epoll transport is not available, falling back to NIO: {}",
+                    Epoll.unavailabilityCause().getMessage());
+        }
+        return NIO;
+    }
+
+    /**
+     * Creates an event loop group of this transport.
+     *
+     * @param threads
+     *            the number of threads, or 0 for the Netty default
+     * @param factory
+     * @return
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory factory) {
+        return this == EPOLL ? new EpollEventLoopGroup(threads, factory) : new NioEventLoopGroup(threads, factory);
+    }
+
+    /**
+     * Returns the server channel class of this transport.
+     *
+     * @return
+     */
+    public Class<? extends ServerSocketChannel> serverChannelClass() {
+        return this == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * Returns the client channel class of this transport.
+     *
+     * @return
+     */
+    public Class<? extends SocketChannel> channelClass() {
+        return this == EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
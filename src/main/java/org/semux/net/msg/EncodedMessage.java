@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.Snappy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * A message which has been compressed ahead of sending, so that it is
+ * compressed once when sent to many peers.
+ * <p>
+ * The compressed packet is a reference-counted buffer. Each channel is given
+ * its own retained duplicate, which is released once the message is written or
+ * dropped; the broadcaster releases the original.
+ */
+public class EncodedMessage extends Message implements ReferenceCounted {
+
+    private static final Logger logger = LoggerFactory.getLogger(EncodedMessage.class);
+
+    private final Message message;
+    private final ByteBuf packet;
+
+    private EncodedMessage(Message message, ByteBuf packet) {
+        super(message.getCode(), message.getResponseMessageClass());
+        this.body = message.getBody();
+
+        this.message = message;
+        this.packet = packet;
+    }
+
+    /**
+     * Compresses a message for broadcasting.
+     *
+     * @param message
+     * @return the encoded message, which must be released by the caller
+     */
+    public static EncodedMessage of(Message message) {
+        ByteBuf packet = null;
+        try {
+            packet = compress(ByteBufAllocator.DEFAULT, message.getBody());
+        } catch (IOException e) {
+            // the message is compressed by every channel instead
+            logger.warn("Failed to compress message: {}", message, e);
+        }
+
+        return new EncodedMessage(message, packet);
+    }
+
+    /**
+     * Compresses the data with Snappy into a direct buffer.
+     *
+     * @param alloc
+     * @param data
+     * @return the compressed data, which must be released by the caller
+     * @throws IOException
+     */
+    public static ByteBuf compress(ByteBufAllocator alloc, byte[] data) throws IOException {
+        // the snappy buffer API works on direct buffers only
+        ByteBuf in = alloc.directBuffer(data.length);
+        ByteBuf out = alloc.directBuffer(Snappy.maxCompressedLength(data.length));
+        try {
+            in.writeBytes(data);
+            ByteBuffer dst = out.nioBuffer(0, out.capacity());
+            int size = Snappy.compress(in.nioBuffer(), dst);
+            out.writerIndex(size);
+            return out.retain();
+        } finally {
+            in.release();
+            out.release();
+        }
+    }
+
+    /**
+     * Returns the original message.
+     *
+     * @return
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the Snappy-compressed message body.
+     *
+     * @return the packet, or null if the message failed to compress
+     */
+    public ByteBuf getPacket() {
+        return packet;
+    }
+
+    /**
+     * Returns a copy of this message for one channel, which shares the packet and
+     * holds its own reference to it.
+     *
+     * @return
+     */
+    public EncodedMessage retainedDuplicate() {
+        return new EncodedMessage(message, packet == null ? null : packet.retainedDuplicate());
+    }
+
+    @Override
+    public int refCnt() {
+        return packet == null ? 1 : packet.refCnt();
+    }
+
+    @Override
+    public EncodedMessage retain() {
+        if (packet != null) {
+            packet.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public EncodedMessage retain(int increment) {
+        if (packet != null) {
+            packet.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public EncodedMessage touch() {
+        if (packet != null) {
+            packet.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public EncodedMessage touch(Object hint) {
+        if (packet != null) {
+            packet.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return packet != null && packet.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return packet != null && packet.release(decrement);
+    }
+
+    @Override
+    public String toString() {
+        return message.toString();
+    }
+}
@@ -67,6 +67,21 @@ public enum MessageCode {
      */
     HANDSHAKE_WORLD(0x10),
 
+    /**
+     * [0x11] Announce the hashes of new transactions.
+     */
+    TRANSACTION_HASHES(0x11),
+
+    /**
+     * [0x12] Request transactions by hash.
+     */
+    GET_TRANSACTIONS(0x12),
+
+    /**
+     * [0x13] Response containing a batch of transactions.
+     */
+    TRANSACTIONS(0x13),
+
     // =======================================
     // [0x30, 0x3f] Reserved for sync
     // =======================================
@@ -101,6 +116,16 @@ public enum MessageCode {
      */
     BLOCK_PARTS(0x35),
 
+    /**
+     * [0x36] Request parts of a range of blocks from the peer.
+     */
+    GET_BLOCK_RANGE(0x36),
+
+    /**
+     * [0x37] Response containing the parts of consecutive blocks.
+     */
+    BLOCK_RANGE(0x37),
+
     // =======================================
     // [0x40, 0x4f] Reserved for BFT
     // =======================================
@@ -123,7 +148,22 @@ public enum MessageCode {
     /**
      * [0x43] BFT vote message.
      */
-    BFT_VOTE(0x43);
+    BFT_VOTE(0x43),
+
+    /**
+     * [0x44] BFT compact proposal message.
+     */
+    BFT_COMPACT_PROPOSAL(0x44),
+
+    /**
+     * [0x45] Request the transactions of a compact proposal.
+     */
+    BFT_GET_PROPOSAL_TRANSACTIONS(0x45),
+
+    /**
+     * [0x46] Response containing the transactions of a compact proposal.
+     */
+    BFT_PROPOSAL_TRANSACTIONS(0x46);
 
     private static final MessageCode[] map = new MessageCode[256];
 
@@ -150,4 +190,13 @@ public enum MessageCode {
     public byte toByte() {
         return (byte) code;
     }
+
+    /**
+     * Returns whether this is a consensus message.
+     *
+     * @return
+     */
+    public boolean isConsensus() {
+        return code >= BFT_NEW_HEIGHT.code && code <= BFT_PROPOSAL_TRANSACTIONS.code;
+    }
 }
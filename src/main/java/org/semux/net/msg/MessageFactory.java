@@ -10,19 +10,27 @@ import org.semux.crypto.Hex;
 import org.semux.net.msg.consensus.BlockHeaderMessage;
 import org.semux.net.msg.consensus.BlockMessage;
 import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.consensus.BlockRangeMessage;
+import org.semux.net.msg.consensus.CompactProposalMessage;
 import org.semux.net.msg.consensus.GetBlockHeaderMessage;
 import org.semux.net.msg.consensus.GetBlockMessage;
 import org.semux.net.msg.consensus.GetBlockPartsMessage;
+import org.semux.net.msg.consensus.GetBlockRangeMessage;
+import org.semux.net.msg.consensus.GetProposalTransactionsMessage;
 import org.semux.net.msg.consensus.NewHeightMessage;
 import org.semux.net.msg.consensus.NewViewMessage;
 import org.semux.net.msg.consensus.ProposalMessage;
+import org.semux.net.msg.consensus.ProposalTransactionsMessage;
 import org.semux.net.msg.consensus.VoteMessage;
 import org.semux.net.msg.p2p.DisconnectMessage;
 import org.semux.net.msg.p2p.GetNodesMessage;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.net.msg.p2p.NodesMessage;
 import org.semux.net.msg.p2p.PingMessage;
 import org.semux.net.msg.p2p.PongMessage;
+import org.semux.net.msg.p2p.TransactionHashesMessage;
 import org.semux.net.msg.p2p.TransactionMessage;
+import org.semux.net.msg.p2p.TransactionsMessage;
 import org.semux.net.msg.p2p.handshake.v2.HelloMessage;
 import org.semux.net.msg.p2p.handshake.v2.InitMessage;
 import org.semux.net.msg.p2p.handshake.v2.WorldMessage;
@@ -78,6 +86,12 @@ public class MessageFactory {
                 return new HelloMessage(body);
             case HANDSHAKE_WORLD:
                 return new WorldMessage(body);
+            case TRANSACTION_HASHES:
+                return new TransactionHashesMessage(body);
+            case GET_TRANSACTIONS:
+                return new GetTransactionsMessage(body);
+            case TRANSACTIONS:
+                return new TransactionsMessage(body);
 
             case GET_BLOCK:
                 return new GetBlockMessage(body);
@@ -91,6 +105,10 @@ public class MessageFactory {
                 return new GetBlockPartsMessage(body);
             case BLOCK_PARTS:
                 return new BlockPartsMessage(body);
+            case GET_BLOCK_RANGE:
+                return new GetBlockRangeMessage(body);
+            case BLOCK_RANGE:
+                return new BlockRangeMessage(body);
 
             case BFT_NEW_HEIGHT:
                 return new NewHeightMessage(body);
@@ -100,6 +118,12 @@ public class MessageFactory {
                 return new ProposalMessage(body);
             case BFT_VOTE:
                 return new VoteMessage(body);
+            case BFT_COMPACT_PROPOSAL:
+                return new CompactProposalMessage(body);
+            case BFT_GET_PROPOSAL_TRANSACTIONS:
+                return new GetProposalTransactionsMessage(body);
+            case BFT_PROPOSAL_TRANSACTIONS:
+                return new ProposalTransactionsMessage(body);
 
             default:
                 throw new UnreachableException();
@@ -8,44 +8,55 @@ package org.semux.net.msg;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.semux.config.Config;
 import org.semux.net.msg.p2p.DisconnectMessage;
+import org.semux.util.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
 
 /**
  * This class contains the logic for sending messages.
+ * <p>
+ * Messages are written on the event loop of the channel as soon as they are
+ * queued, consensus and prioritized messages first, and flushed once per burst.
+ * A burst is limited to a write budget so that a busy channel doesn't starve the
+ * others on the same event loop. The other messages stop when the channel is no
+ * longer writable, e.g. throttled by the {@link org.semux.net.TrafficShaper},
+ * and resume when it becomes writable again; the queue size bounds them
+ * meanwhile.
+ * <p>
+ * The queue takes over the reference of a reference-counted message, such as an
+ * {@link EncodedMessage}: it's released once written, or when it's dropped.
  */
 public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageQueue.class);
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private final AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "msg-" + cnt.getAndIncrement());
-        }
-    });
+    // the max number of messages written in one burst
+    private static final int WRITE_BUDGET = 64;
 
     private final Config config;
 
-    private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
-    private final Queue<Message> prioritized = new ConcurrentLinkedQueue<>();
+    private final Queue<QueuedMessage> queue = new ConcurrentLinkedQueue<>();
+    private final Queue<QueuedMessage> prioritized = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    // the time from queueing to writing, in microseconds
+    private final Histogram latency = new Histogram("queue_latency");
 
-    private ChannelHandlerContext ctx;
-    private ScheduledFuture<?> timerTask;
+    // whether a burst is scheduled on the event loop
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private volatile ChannelHandlerContext ctx;
+    private volatile boolean active;
 
     private AtomicBoolean isClosed = new AtomicBoolean(false);
 
@@ -65,20 +76,27 @@ public class MessageQueue {
      */
     public synchronized void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        this.timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Exception t) {
-                logger.error("Exception in MessageQueue", t);
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        this.active = true;
+        schedule();
     }
 
     /**
-     * Deactivates this message queue.
+     * Deactivates this message queue, and drops the queued messages.
      */
     public synchronized void deactivate() {
-        this.timerTask.cancel(false);
+        this.active = false;
+        this.isClosed.set(true);
+        drain();
+    }
+
+    /**
+     * Resumes writing when the channel becomes writable again.
+     */
+    public void onWritabilityChanged() {
+        ChannelHandlerContext c = ctx;
+        if (c != null && c.channel().isWritable()) {
+            schedule();
+        }
     }
 
     /**
@@ -117,16 +135,31 @@ public class MessageQueue {
      *         false
      */
     public boolean sendMessage(Message msg) {
+        if (isClosed.get()) {
+            ReferenceCountUtil.release(msg);
+            return false;
+        }
+
         if (size() >= config.netMaxMessageQueueSize()) {
+            ReferenceCountUtil.release(msg);
             disconnect(ReasonCode.MESSAGE_QUEUE_FULL);
             return false;
         }
 
-        if (config.netPrioritizedMessages().contains(msg.getCode())) {
-            prioritized.add(msg);
+        QueuedMessage m = new QueuedMessage(msg, System.nanoTime());
+        if (msg.getCode().isConsensus() || config.netPrioritizedMessages().contains(msg.getCode())) {
+            prioritized.add(m);
         } else {
-            queue.add(msg);
+            queue.add(m);
+        }
+        size.incrementAndGet();
+
+        // the queue may have been drained by a concurrent deactivation
+        if (!active && isClosed.get()) {
+            drain();
         }
+
+        schedule();
         return true;
     }
 
@@ -136,25 +169,94 @@ public class MessageQueue {
      * @return
      */
     public int size() {
-        return queue.size() + prioritized.size();
+        return size.get();
+    }
+
+    /**
+     * Returns the time messages have waited in this queue, in microseconds.
+     *
+     * @return
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Schedules a burst of writes on the event loop, unless one is already
+     * scheduled.
+     */
+    protected void schedule() {
+        ChannelHandlerContext c = ctx;
+        if (c == null || !active || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            c.executor().execute(this::nudgeQueue);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            logger.debug("Failed to schedule message writing, the event loop is shut down");
+        }
     }
 
+    /**
+     * Writes a burst of messages and flushes them. It runs on the event loop.
+     */
     protected void nudgeQueue() {
-        // 1000 / 10 * 5 = 500 messages per second
-        int n = Math.min(5, size());
-        if (n == 0) {
+        scheduled.set(false);
+        if (!active) {
             return;
         }
 
-        // write out n messages
-        for (int i = 0; i < n; i++) {
-            Message msg = !prioritized.isEmpty() ? prioritized.poll() : queue.poll();
+        // the prioritized messages don't wait for the channel to be writable
+        int n = 0;
+        while (n < WRITE_BUDGET) {
+            QueuedMessage m = prioritized.poll();
+            if (m == null && ctx.channel().isWritable()) {
+                m = queue.poll();
+            }
+            if (m == null) {
+                break;
+            }
+            size.decrementAndGet();
+            latency.record((System.nanoTime() - m.timestamp) / 1000);
+
+            logger.trace("Wiring message: {}", m.msg);
+            ctx.write(m.msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+            n++;
+        }
+
+        if (n > 0) {
+            ctx.flush();
+        }
+
+        // the budget is used up: give the other channels a turn before continuing
+        if (!prioritized.isEmpty() || (size() > 0 && ctx.channel().isWritable())) {
+            schedule();
+        }
+    }
 
-            logger.trace("Wiring message: {}", msg);
-            ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+    /**
+     * Drops the queued messages.
+     */
+    protected void drain() {
+        QueuedMessage m;
+        while ((m = prioritized.poll()) != null || (m = queue.poll()) != null) {
+            size.decrementAndGet();
+            ReferenceCountUtil.release(m.msg);
         }
+    }
+
+    /**
+     * A message with the time it was queued.
+     */
+    private static class QueuedMessage {
+        final Message msg;
+        final long timestamp;
 
-        // flush
-        ctx.flush();
+        QueuedMessage(Message msg, long timestamp) {
+            this.msg = msg;
+            this.timestamp = timestamp;
+        }
     }
 }
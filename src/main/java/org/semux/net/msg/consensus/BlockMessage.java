@@ -12,7 +12,8 @@ import org.semux.net.msg.MessageCode;
 
 public class BlockMessage extends Message {
 
-    private final Block block;
+    // decoded lazily when built from the encoded parts
+    private Block block;
 
     public BlockMessage(Block block) {
         super(MessageCode.BLOCK, null);
@@ -22,6 +23,21 @@ public class BlockMessage extends Message {
         this.body = block.toBytes();
     }
 
+    /**
+     * Creates a block message from the encoded parts of a block, without decoding
+     * them.
+     *
+     * @param header
+     * @param transactions
+     * @param results
+     * @param votes
+     */
+    public BlockMessage(byte[] header, byte[] transactions, byte[] results, byte[] votes) {
+        super(MessageCode.BLOCK, null);
+
+        this.body = Block.toBytes(header, transactions, results, votes);
+    }
+
     public BlockMessage(byte[] body) {
         super(MessageCode.BLOCK, null);
 
@@ -31,11 +47,14 @@ public class BlockMessage extends Message {
     }
 
     public Block getBlock() {
+        if (block == null) {
+            block = Block.fromBytes(body);
+        }
         return block;
     }
 
     @Override
     public String toString() {
-        return "BlockMessage [block=" + block + "]";
+        return "BlockMessage [block=" + getBlock() + "]";
     }
 }
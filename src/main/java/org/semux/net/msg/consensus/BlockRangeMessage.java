@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * A chunk of the response to {@link GetBlockRangeMessage}, which contains the
+ * requested parts of consecutive blocks starting from the given number.
+ */
+public class BlockRangeMessage extends Message {
+
+    /**
+     * The size of block data after which a chunk is sent.
+     */
+    public static final int CHUNK_SIZE = 512 * 1024;
+
+    private final long from;
+    private final int parts;
+    private final List<List<byte[]>> blocks;
+
+    public BlockRangeMessage(long from, int parts, List<List<byte[]>> blocks) {
+        super(MessageCode.BLOCK_RANGE, null);
+
+        this.from = from;
+        this.parts = parts;
+        this.blocks = blocks;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(from);
+        enc.writeInt(parts);
+        enc.writeInt(blocks.size());
+        for (List<byte[]> data : blocks) {
+            enc.writeInt(data.size());
+            for (byte[] b : data) {
+                enc.writeBytes(b);
+            }
+        }
+        this.body = enc.toBytes();
+    }
+
+    public BlockRangeMessage(byte[] body) {
+        super(MessageCode.BLOCK_RANGE, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.from = dec.readLong();
+        this.parts = dec.readInt();
+        this.blocks = new ArrayList<>();
+        int n = dec.readInt();
+        for (int i = 0; i < n; i++) {
+            List<byte[]> data = new ArrayList<>();
+            int m = dec.readInt();
+            for (int j = 0; j < m; j++) {
+                data.add(dec.readBytes());
+            }
+            blocks.add(data);
+        }
+
+        this.body = body;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * Returns the parts of each block, in the order of block number.
+     *
+     * @return
+     */
+    public List<List<byte[]>> getBlocks() {
+        return blocks;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockRangeMessage [from = " + from + ", parts = " + parts + ", # blocks = " + blocks.size() + "]";
+    }
+}
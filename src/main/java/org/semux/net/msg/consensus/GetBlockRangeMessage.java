@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+/**
+ * Requests the given parts of a contiguous range of blocks. The peer responds
+ * with one or more {@link BlockRangeMessage}s.
+ */
+public class GetBlockRangeMessage extends Message {
+
+    /**
+     * The max number of blocks served for one request.
+     */
+    public static final int MAX_COUNT = 256;
+
+    private final long from;
+    private final int count;
+    private final int parts;
+
+    public GetBlockRangeMessage(long from, int count, int parts) {
+        super(MessageCode.GET_BLOCK_RANGE, BlockRangeMessage.class);
+
+        this.from = from;
+        this.count = count;
+        this.parts = parts;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(from);
+        enc.writeInt(count);
+        enc.writeInt(parts);
+        this.body = enc.toBytes();
+    }
+
+    public GetBlockRangeMessage(byte[] body) {
+        super(MessageCode.GET_BLOCK_RANGE, BlockRangeMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.from = dec.readLong();
+        this.count = dec.readInt();
+        this.parts = dec.readInt();
+
+        this.body = body;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return "GetBlockRangeMessage [from = " + from + ", count = " + count + ", parts = " + parts + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.consensus.CompactProposal;
+import org.semux.crypto.Hex;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+public class GetProposalTransactionsMessage extends Message {
+
+    private final byte[] blockHash;
+    private final List<Integer> indices;
+
+    /**
+     * Create a BFT_GET_PROPOSAL_TRANSACTIONS message.
+     *
+     * @param blockHash
+     *            the hash of the proposed block
+     * @param indices
+     *            the indices of the requested transactions
+     */
+    public GetProposalTransactionsMessage(byte[] blockHash, List<Integer> indices) {
+        super(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS, ProposalTransactionsMessage.class);
+
+        this.blockHash = blockHash;
+        this.indices = indices;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(blockHash);
+        enc.writeInt(indices.size());
+        for (int i : indices) {
+            enc.writeInt(i);
+        }
+        this.body = enc.toBytes();
+    }
+
+    /**
+     * Parse a BFT_GET_PROPOSAL_TRANSACTIONS message from byte array.
+     *
+     * @param body
+     */
+    public GetProposalTransactionsMessage(byte[] body) {
+        super(MessageCode.BFT_GET_PROPOSAL_TRANSACTIONS, ProposalTransactionsMessage.class);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.blockHash = dec.readBytes();
+        this.indices = new ArrayList<>();
+        for (int i = 0, size = dec.readInt(); i < size && i <= CompactProposal.MAX_TRANSACTIONS; i++) {
+            indices.add(dec.readInt());
+        }
+
+        this.body = body;
+    }
+
+    public boolean validate() {
+        return blockHash != null && indices != null && indices.size() <= CompactProposal.MAX_TRANSACTIONS;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public List<Integer> getIndices() {
+        return indices;
+    }
+
+    @Override
+    public String toString() {
+        return "GetProposalTransactionsMessage [blockHash = " + Hex.encode(blockHash) + ", # indices = "
+                + indices.size() + "]";
+    }
+}
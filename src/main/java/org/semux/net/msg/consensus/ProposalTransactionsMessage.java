@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.consensus.CompactProposal;
+import org.semux.core.Transaction;
+import org.semux.crypto.Hex;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+public class ProposalTransactionsMessage extends Message {
+
+    private final byte[] blockHash;
+    private final List<Integer> indices;
+    private final List<Transaction> transactions;
+
+    /**
+     * Create a BFT_PROPOSAL_TRANSACTIONS message.
+     *
+     * @param blockHash
+     *            the hash of the proposed block
+     * @param indices
+     *            the indices of the transactions in the proposal
+     * @param transactions
+     *            the transactions, in the same order as the indices
+     */
+    public ProposalTransactionsMessage(byte[] blockHash, List<Integer> indices, List<Transaction> transactions) {
+        super(MessageCode.BFT_PROPOSAL_TRANSACTIONS, null);
+
+        this.blockHash = blockHash;
+        this.indices = indices;
+        this.transactions = transactions;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(blockHash);
+        enc.writeInt(indices.size());
+        for (int i = 0; i < indices.size(); i++) {
+            enc.writeInt(indices.get(i));
+            enc.writeBytes(transactions.get(i).toBytes());
+        }
+        this.body = enc.toBytes();
+    }
+
+    /**
+     * Parse a BFT_PROPOSAL_TRANSACTIONS message from byte array.
+     *
+     * @param body
+     */
+    public ProposalTransactionsMessage(byte[] body) {
+        super(MessageCode.BFT_PROPOSAL_TRANSACTIONS, null);
+
+        SimpleDecoder dec = new SimpleDecoder(body);
+        this.blockHash = dec.readBytes();
+        this.indices = new ArrayList<>();
+        this.transactions = new ArrayList<>();
+        for (int i = 0, size = dec.readInt(); i < size && i <= CompactProposal.MAX_TRANSACTIONS; i++) {
+            indices.add(dec.readInt());
+            transactions.add(Transaction.fromBytes(dec.readBytes()));
+        }
+
+        this.body = body;
+    }
+
+    public boolean validate() {
+        return blockHash != null && indices != null && indices.size() <= CompactProposal.MAX_TRANSACTIONS;
+    }
+
+    public byte[] getBlockHash() {
+        return blockHash;
+    }
+
+    public List<Integer> getIndices() {
+        return indices;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "ProposalTransactionsMessage [blockHash = " + Hex.encode(blockHash) + ", # transactions = "
+                + transactions.size() + "]";
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.p2p;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semux.core.Transaction;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.SimpleDecoder;
+import org.semux.util.SimpleEncoder;
+
+public class TransactionsMessage extends Message {
+
+    public static final int MAX_TRANSACTIONS = TransactionHashesMessage.MAX_HASHES;
+
+    /**
+     * The soft limit of the encoded transactions in one message.
+     */
+    public static final int MAX_BYTES = 1024 * 1024;
+
+    private final List<Transaction> transactions;
+
+    /**
+     * Create a TRANSACTIONS message.
+     *
+     * @param transactions
+     */
+    public TransactionsMessage(List<Transaction> transactions) {
+        super(MessageCode.TRANSACTIONS, null);
+
+        this.transactions = transactions;
+
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeInt(transactions.size());
+        for (Transaction tx : transactions) {
+            enc.writeBytes(tx.toBytes());
+        }
+        this.body = enc.toBytes();
+    }
+
+    /**
+     * Parse a TRANSACTIONS message from byte array.
+     *
+     * @param body
+     */
+    public TransactionsMessage(byte[] body) {
+        super(MessageCode.TRANSACTIONS, null);
+
+        this.transactions = new ArrayList<>();
+        SimpleDecoder dec = new SimpleDecoder(body);
+        for (int i = 0, size = dec.readInt(); i < size && i <= MAX_TRANSACTIONS; i++) {
+            transactions.add(Transaction.fromBytes(dec.readBytes()));
+        }
+
+        this.body = body;
+    }
+
+    public boolean validate() {
+        return transactions != null && transactions.size() <= MAX_TRANSACTIONS;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionsMessage [# transactions =" + transactions.size() + "]";
+    }
+}
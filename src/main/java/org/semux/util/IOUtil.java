@@ -10,6 +10,9 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -21,6 +24,7 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 
 public class IOUtil {
 
@@ -156,6 +160,59 @@ public class IOUtil {
         }
     }
 
+    /**
+     * Writes a record: the length of the data, the data, and the CRC32 checksum
+     * of the data.
+     *
+     * @param out
+     * @param data
+     * @throws IOException
+     */
+    public static void writeRecord(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+        out.writeInt(checksum(data));
+    }
+
+    /**
+     * Reads a record written by {@link #writeRecord(DataOutputStream, byte[])}.
+     *
+     * @param in
+     * @param maxSize
+     *            the max size of the data
+     * @return the data, or null at the end of the stream
+     * @throws EOFException
+     *             if the record is truncated
+     * @throws IOException
+     *             if the record length or checksum is invalid
+     */
+    public static byte[] readRecord(DataInputStream in, int maxSize) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (length <= 0 || length > maxSize) {
+            throw new IOException("Invalid record length: " + length);
+        }
+
+        byte[] data = new byte[length];
+        in.readFully(data);
+        if (in.readInt() != checksum(data)) {
+            throw new IOException("Record checksum mismatch");
+        }
+
+        return data;
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
     private IOUtil() {
     }
 }
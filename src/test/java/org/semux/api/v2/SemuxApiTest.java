@@ -57,6 +57,7 @@ import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.security.spec.InvalidKeySpecException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -87,6 +88,7 @@ import org.semux.api.v2.model.GetAccountTransactionsResponse;
 import org.semux.api.v2.model.GetAccountVotesResponse;
 import org.semux.api.v2.model.GetAccountsResponse;
 import org.semux.api.v2.model.GetBlockResponse;
+import org.semux.api.v2.model.GetConsensusMetricsResponse;
 import org.semux.api.v2.model.GetDelegateResponse;
 import org.semux.api.v2.model.GetDelegatesResponse;
 import org.semux.api.v2.model.GetInfoResponse;
@@ -101,6 +103,7 @@ import org.semux.api.v2.model.GetTransactionResultResponse;
 import org.semux.api.v2.model.GetValidatorsResponse;
 import org.semux.api.v2.model.GetVoteResponse;
 import org.semux.api.v2.model.GetVotesResponse;
+import org.semux.api.v2.model.HistogramType;
 import org.semux.api.v2.model.InfoType;
 import org.semux.api.v2.model.InternalTransactionType;
 import org.semux.api.v2.model.LocalCallResponse;
@@ -111,6 +114,8 @@ import org.semux.api.v2.model.SignRawTransactionResponse;
 import org.semux.api.v2.model.SyncingStatusType;
 import org.semux.api.v2.model.TransactionResultType;
 import org.semux.api.v2.model.VerifyMessageResponse;
+import org.semux.consensus.ConsensusMetrics;
+import org.semux.consensus.SemuxBft;
 import org.semux.consensus.SemuxSync;
 import org.semux.core.Amount;
 import org.semux.core.Block;
@@ -123,13 +128,19 @@ import org.semux.core.state.Delegate;
 import org.semux.core.state.DelegateState;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
+import org.semux.net.Channel;
 import org.semux.net.ChannelManager;
 import org.semux.net.Peer;
+import org.semux.net.TrafficStats;
 import org.semux.net.filter.FilterRule;
 import org.semux.net.filter.SemuxIpFilter;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.p2p.PingMessage;
 import org.semux.util.Bytes;
 import org.semux.vm.client.SemuxInternalTransaction;
 
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.ipfilter.IpFilterRuleType;
 
 /**
@@ -432,7 +443,22 @@ public class SemuxApiTest extends SemuxApiTestBase {
                         config.getClientCapabilities().toArray(), 1),
                 new Peer(Network.DEVNET, (short) 2, "peer2", "2.3.4.5", 5171, "client2",
                         config.getClientCapabilities().toArray(), 2));
-        when(channelMgr.getActivePeers()).thenReturn(peers);
+        peers.get(0).getStats().onRequest(2);
+        peers.get(0).getStats().onResponse(100, 1000, 1);
+        List<Channel> channels = new ArrayList<>();
+        for (Peer peer : peers) {
+            Channel channel = mock(Channel.class);
+            when(channel.getRemotePeer()).thenReturn(peer);
+            when(channel.getMessageQueue()).thenReturn(new MessageQueue(config));
+            when(channel.getTrafficStats()).thenReturn(new TrafficStats());
+            channels.add(channel);
+        }
+        channels.get(0).getMessageQueue().getLatency().record(250);
+        EmbeddedChannel ch = new EmbeddedChannel(channels.get(0).getTrafficStats().getHandler());
+        ch.writeInbound(Unpooled.wrappedBuffer(new byte[100]));
+        ch.writeOutbound(new PingMessage());
+        ch.finishAndReleaseAll();
+        when(channelMgr.getActiveChannels()).thenReturn(channels);
         kernelRule.getKernel().setChannelManager(channelMgr);
 
         GetPeersResponse response = api.getPeers();
@@ -452,7 +478,19 @@ public class SemuxApiTest extends SemuxApiTestBase {
             assertEquals(peer.getLatestBlockNumber(), Long.parseLong(peerJson.getLatestBlockNumber()));
             assertEquals(peer.getLatency(), Long.parseLong(peerJson.getLatency()));
             assertArrayEquals(peer.getCapabilities(), peerJson.getCapabilities().toArray());
+            assertEquals(peer.getStats().getRtt(), Long.parseLong(peerJson.getRtt()));
+            assertEquals(peer.getStats().getBytesPerSecond(), Long.parseLong(peerJson.getThroughput()));
+            assertEquals(peer.getStats().getInFlight(), peerJson.getInFlight().intValue());
         }
+        assertEquals("10000", result.get(0).getThroughput());
+        assertEquals(1, result.get(0).getInFlight().intValue());
+        assertEquals(0, result.get(0).getQueueSize().intValue());
+        assertEquals("250", result.get(0).getQueueLatency());
+        assertEquals("0", result.get(1).getQueueLatency());
+        assertEquals("100", result.get(0).getBytesIn());
+        assertEquals("0", result.get(0).getBytesOut());
+        assertEquals("1", result.get(0).getMessagesOut().get("PING"));
+        assertTrue(result.get(1).getMessagesOut().isEmpty());
     }
 
     @Test
@@ -995,6 +1033,7 @@ public class SemuxApiTest extends SemuxApiTestBase {
                 10,
                 100,
                 Duration.ofSeconds(1000)));
+        when(semuxSync.getStages()).thenReturn(Collections.singletonList(new SemuxSync.Stage("import", () -> 5)));
         kernelRule.getKernel().setSyncManager(semuxSync);
 
         GetSyncingStatusResponse resp = api.getSyncingStatus();
@@ -1004,6 +1043,31 @@ public class SemuxApiTest extends SemuxApiTestBase {
         assertEquals("1", result.getStartingHeight());
         assertEquals("10", result.getCurrentHeight());
         assertEquals("100", result.getTargetHeight());
+        assertEquals(1, result.getStages().size());
+        assertEquals("import", result.getStages().get(0).getName());
+        assertEquals(Integer.valueOf(5), result.getStages().get(0).getBacklog());
+    }
+
+    @Test
+    public void getConsensusMetricsTest() {
+        ConsensusMetrics metrics = new ConsensusMetrics();
+        metrics.onProposalValidated(10);
+        metrics.onProposalValidated(30);
+        SemuxBft semuxBft = mock(SemuxBft.class);
+        when(semuxBft.getMetrics()).thenReturn(metrics);
+        kernelRule.getKernel().setBftManager(semuxBft);
+
+        GetConsensusMetricsResponse resp = api.getConsensusMetrics();
+        assertTrue(resp.isSuccess());
+        assertEquals("0", resp.getResult().getViewChanges());
+
+        HistogramType histogram = resp.getResult().getHistograms().stream()
+                .filter(h -> h.getName().equals("proposal_validation"))
+                .findFirst().get();
+        assertEquals("2", histogram.getCount());
+        assertEquals("10", histogram.getMin());
+        assertEquals("30", histogram.getMax());
+        assertEquals("20", histogram.getMean());
     }
 
     @Test
@@ -122,6 +122,18 @@ public class SemuxCliTest {
         verify(semuxCLI).printVersion();
     }
 
+    @Test
+    public void testExportBlocks() throws ParseException, IOException {
+        SemuxCli semuxCLI = spy(new SemuxCli());
+        doNothing().when(semuxCLI).exportBlocks(any(), any(), any());
+
+        semuxCLI.start(new String[] { "--exportblocks", "blocks.bin", "5", "9" });
+        verify(semuxCLI).exportBlocks("blocks.bin", "5", "9");
+
+        semuxCLI.start(new String[] { "--exportblocks", "blocks.bin" });
+        verify(semuxCLI).exportBlocks("blocks.bin", null, null);
+    }
+
     @Test
     public void testMainNetwork() throws ParseException, IOException {
         SemuxCli semuxCLI = spy(new SemuxCli());
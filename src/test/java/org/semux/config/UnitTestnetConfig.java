@@ -27,6 +27,7 @@ public class UnitTestnetConfig extends AbstractConfig {
         super(dataDir, Network.DEVNET, Constants.DEVNET_VERSION);
 
         this.netMaxInboundConnectionsPerIp = Integer.MAX_VALUE;
+        this.poolJournalEnabled = false;
 
         this.forkUniformDistributionEnabled = true;
         this.forkVirtualMachineEnabled = true;
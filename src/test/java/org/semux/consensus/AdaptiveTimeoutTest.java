@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveTimeoutTest {
+
+    @Test
+    public void testAdapt() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout(1000, 6000);
+        assertEquals(6000, timeout.get());
+
+        // shortens as the quorum is reached quickly
+        for (int i = 0; i < 100; i++) {
+            timeout.onQuorum(500);
+        }
+        assertEquals(500, timeout.getEstimate());
+        assertEquals(1500, timeout.get());
+
+        for (int i = 0; i < 100; i++) {
+            timeout.onQuorum(10);
+        }
+        assertEquals(1000, timeout.get());
+
+        // backs off after timeouts, up to the max
+        long before = timeout.get();
+        for (int i = 0; i < 7; i++) {
+            timeout.onTimeout();
+        }
+        assertTrue(timeout.get() > before);
+        for (int i = 0; i < 10; i++) {
+            timeout.onTimeout();
+        }
+        assertEquals(6000, timeout.get());
+    }
+}
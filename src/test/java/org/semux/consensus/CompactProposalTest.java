@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.semux.TestUtils;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.core.BlockHeader;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionResult;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+import org.semux.util.MerkleUtil;
+import org.semux.util.TimeUtil;
+
+public class CompactProposalTest {
+
+    private final Config config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+
+    private final Transaction tx1 = TestUtils.createTransaction(config);
+    private final Transaction tx2 = TestUtils.createTransaction(config);
+    private final Transaction tx3 = TestUtils.createTransaction(config);
+
+    @Test
+    public void testRebuild() {
+        Proposal proposal = createProposal(Arrays.asList(tx1, tx2, tx3));
+
+        // include tx1 in full
+        CompactProposal cp = new CompactProposal(proposal, tx -> tx == tx1);
+        CompactProposal cp2 = new CompactProposal(cp.toBytes());
+        assertEquals(proposal.getHeight(), cp2.getHeight());
+        assertEquals(proposal.getView(), cp2.getView());
+        assertArrayEquals(proposal.getBlockHeader().getHash(), cp2.getBlockHash());
+        assertEquals(3, cp2.size());
+
+        // tx2 is in the pool, tx3 is missing
+        assertEquals(Collections.singletonList(2), cp2.fill(pool(tx2)::get));
+        assertFalse(cp2.fill(2, tx1));
+        assertTrue(cp2.fill(2, tx3));
+        assertTrue(cp2.getMissing().isEmpty());
+
+        Proposal p = cp2.toProposal();
+        assertTrue(p.validate());
+        assertArrayEquals(proposal.getEncoded(), p.getEncoded());
+    }
+
+    @Test
+    public void testShortIdCollision() {
+        Proposal proposal = createProposal(Arrays.asList(tx1, tx2));
+
+        CompactProposal cp = new CompactProposal(new CompactProposal(proposal, tx -> tx == tx1).toBytes());
+
+        // a different transaction with the same short ID
+        Map<Long, Transaction> pool = new HashMap<>();
+        pool.put(CompactProposal.shortId(tx2.getHash()), tx3);
+        assertTrue(cp.fill(pool::get).isEmpty());
+        assertFalse(cp.toProposal().validate());
+
+        assertEquals(Collections.singletonList(1), cp.discardPoolTransactions());
+        assertTrue(cp.fill(1, tx2));
+        assertTrue(cp.toProposal().validate());
+    }
+
+    private Map<Long, Transaction> pool(Transaction... txs) {
+        Map<Long, Transaction> pool = new HashMap<>();
+        for (Transaction tx : txs) {
+            pool.put(CompactProposal.shortId(tx.getHash()), tx);
+        }
+        return pool;
+    }
+
+    private Proposal createProposal(List<Transaction> txs) {
+        List<TransactionResult> results = Collections.nCopies(txs.size(), new TransactionResult());
+        BlockHeader header = new BlockHeader(1, Bytes.random(Key.ADDRESS_LEN), Bytes.random(32),
+                TimeUtil.currentTimeMillis(), MerkleUtil.computeTransactionsRoot(txs),
+                MerkleUtil.computeResultsRoot(results), Bytes.EMPTY_HASH, new byte[0]);
+
+        return new Proposal(new Proof(1, 0), header, txs).sign(new Key());
+    }
+}
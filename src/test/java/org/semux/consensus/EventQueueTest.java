@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.semux.consensus.SemuxBft.Event;
+import org.semux.consensus.SemuxBft.Event.Type;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+
+public class EventQueueTest {
+
+    private final Key key1 = new Key();
+    private final Key key2 = new Key();
+
+    @Test
+    public void testPriority() throws InterruptedException {
+        EventQueue queue = new EventQueue(16);
+        queue.update(10, 1);
+
+        Event futureVote = vote(key1, 10, 2);
+        Event vote = vote(key1, 10, 1);
+        Event newHeight = new Event(Type.NEW_HEIGHT, 11L);
+        Event timeout = new Event(Type.TIMEOUT);
+        assertTrue(queue.offer(futureVote));
+        assertTrue(queue.offer(vote));
+        assertTrue(queue.offer(newHeight));
+        assertTrue(queue.offer(timeout));
+        assertEquals(4, queue.size());
+
+        assertSame(timeout, queue.take());
+        assertSame(newHeight, queue.take());
+        assertSame(vote, queue.take());
+        assertSame(futureVote, queue.take());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDropStaleAndDuplicate() throws InterruptedException {
+        EventQueue queue = new EventQueue(16);
+        queue.update(10, 1);
+
+        assertFalse(queue.offer(vote(key1, 9, 5)));
+        assertFalse(queue.offer(vote(key1, 10, 0)));
+        assertFalse(queue.offer(new Event(Type.NEW_HEIGHT, 10L)));
+        assertEquals(3, queue.getStaleDropped());
+
+        assertTrue(queue.offer(vote(key1, 10, 1)));
+        assertFalse(queue.offer(vote(key1, 10, 1)));
+        assertTrue(queue.offer(vote(key2, 10, 1)));
+        assertEquals(1, queue.getDuplicateDropped());
+
+        // events which became stale while queued are dropped when taken
+        Event next = vote(key1, 11, 0);
+        assertTrue(queue.offer(next));
+        queue.update(11, 0);
+        assertSame(next, queue.take());
+        assertEquals(5, queue.getStaleDropped());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testOverflow() throws InterruptedException {
+        EventQueue queue = new EventQueue(2);
+        queue.update(10, 0);
+
+        Event vote1 = vote(key1, 10, 0);
+        Event vote2 = vote(key2, 10, 0);
+        Event newHeight = new Event(Type.NEW_HEIGHT, 11L);
+        assertTrue(queue.offer(vote1));
+        assertTrue(queue.offer(vote2));
+
+        // a lower or equal priority event is dropped, a higher one evicts a vote
+        assertFalse(queue.offer(vote(new Key(), 10, 0)));
+        assertTrue(queue.offer(newHeight));
+        assertEquals(2, queue.getOverflowDropped());
+
+        // control events are never dropped
+        assertTrue(queue.offer(new Event(Type.TIMEOUT)));
+        assertEquals(3, queue.size());
+
+        queue.removeIf(e -> e.getType() == Type.TIMEOUT);
+        assertSame(newHeight, queue.take());
+        assertSame(vote1, queue.take());
+        assertEquals(0, queue.size());
+    }
+
+    private Event vote(Key key, long height, int view) {
+        return new Event(Type.VOTE, Vote.newApprove(VoteType.VALIDATE, height, view, Bytes.random(32)).sign(key));
+    }
+}
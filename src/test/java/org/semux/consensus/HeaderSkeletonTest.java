@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semux.TestUtils;
+import org.semux.core.Block;
+import org.semux.crypto.Key;
+import org.semux.net.Channel;
+import org.semux.util.Bytes;
+
+public class HeaderSkeletonTest {
+
+    private final Key coinbase = new Key();
+    private final Channel honest = mock(Channel.class);
+    private final Channel forger = mock(Channel.class);
+
+    private HeaderSkeleton skeleton;
+    private List<Block> chain;
+
+    @Before
+    public void setUp() {
+        // block #0 is the local tip, and #10 is a pivot block with votes
+        chain = new ArrayList<>();
+        byte[] prevHash = Bytes.EMPTY_HASH;
+        for (int i = 0; i <= 10; i++) {
+            Block block = TestUtils.createBlock(prevHash, coinbase, i, Collections.emptyList(),
+                    Collections.emptyList());
+            if (i == 10) {
+                block = withVotes(block);
+            }
+            chain.add(block);
+            prevHash = block.getHash();
+        }
+
+        skeleton = new HeaderSkeleton();
+        skeleton.reset(0, chain.get(0).getHash());
+    }
+
+    @Test
+    public void testLinkAndVerify() {
+        // out of order
+        for (int i = 10; i >= 1; i--) {
+            assertTrue(skeleton.add(chain.get(i), honest));
+        }
+        assertFalse(skeleton.add(chain.get(5), honest));
+
+        assertTrue(skeleton.link(new ArrayList<>()).isEmpty());
+        assertEquals(10, skeleton.getTip());
+        assertNull(skeleton.get(5));
+
+        // the pivot is beyond the current validator period
+        assertNull(skeleton.verify(9, b -> true));
+        assertEquals(0, skeleton.getVerified());
+
+        assertNull(skeleton.verify(10, b -> true));
+        assertEquals(10, skeleton.getVerified());
+        assertNotNull(skeleton.get(5));
+
+        skeleton.prune(5);
+        assertNull(skeleton.get(5));
+        assertNotNull(skeleton.get(6));
+        assertEquals(5, skeleton.size());
+    }
+
+    @Test
+    public void testBrokenLinkToVerifiedTip() {
+        Block forged = TestUtils.createBlock(Bytes.random(32), coinbase, 1, Collections.emptyList(),
+                Collections.emptyList());
+        skeleton.add(forged, forger);
+        skeleton.add(chain.get(2), forger);
+
+        assertEquals(Collections.singletonList(forger), skeleton.link(new ArrayList<>()));
+        assertEquals(0, skeleton.getTip());
+        assertFalse(skeleton.contains(2));
+    }
+
+    @Test
+    public void testBrokenLinkToUnverifiedTip() {
+        skeleton.add(chain.get(1), honest);
+        skeleton.link(new ArrayList<>());
+
+        Block forged = TestUtils.createBlock(Bytes.random(32), coinbase, 2, Collections.emptyList(),
+                Collections.emptyList());
+        skeleton.add(forged, forger);
+
+        // it's unknown which side is forged, so the unverified headers are dropped,
+        // and the sender of the header which broke the link is only a suspect
+        List<Channel> suspects = new ArrayList<>();
+        assertTrue(skeleton.link(suspects).isEmpty());
+        assertEquals(Collections.singletonList(forger), suspects);
+        assertEquals(0, skeleton.getTip());
+        assertFalse(skeleton.contains(1));
+        assertFalse(skeleton.contains(2));
+    }
+
+    @Test
+    public void testInvalidVotes() {
+        for (int i = 1; i <= 9; i++) {
+            skeleton.add(chain.get(i), honest);
+        }
+        skeleton.add(chain.get(10), forger);
+        skeleton.link(new ArrayList<>());
+
+        assertEquals(forger, skeleton.verify(10, b -> false));
+        assertEquals(0, skeleton.getTip());
+        assertEquals(0, skeleton.getVerified());
+        assertEquals(0, skeleton.size());
+    }
+
+    private Block withVotes(Block block) {
+        Key.Signature vote = new Key().sign(block.getHash());
+        return new Block(block.getHeader(), block.getTransactions(), block.getResults(), 0,
+                Collections.singletonList(vote));
+    }
+}
@@ -9,18 +9,28 @@ package org.semux.consensus;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.semux.core.Fork.UNIFORM_DISTRIBUTION;
 import static org.semux.core.Unit.SEM;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Random;
 import java.util.stream.Collectors;
@@ -28,11 +38,13 @@ import java.util.stream.IntStream;
 
 import org.junit.Rule;
 import org.junit.Test;
+import org.semux.Kernel;
 import org.semux.TestUtils;
 import org.semux.config.Constants;
 import org.semux.config.MainnetConfig;
 import org.semux.core.Amount;
 import org.semux.core.Block;
+import org.semux.core.BlockHeader;
 import org.semux.core.Blockchain;
 import org.semux.core.BlockchainImpl;
 import org.semux.core.PendingManager;
@@ -40,13 +52,20 @@ import org.semux.core.Transaction;
 import org.semux.core.TransactionResult;
 import org.semux.core.TransactionType;
 import org.semux.crypto.Key;
+import org.semux.net.Channel;
+import org.semux.net.Peer;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.GetProposalTransactionsMessage;
 import org.semux.rules.KernelRule;
 import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.ByteArray;
 import org.semux.util.Bytes;
 import org.semux.util.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 public class SemuxBftTest {
 
     private static final Logger logger = LoggerFactory.getLogger(SemuxBftTest.class);
@@ -260,6 +279,193 @@ public class SemuxBftTest {
         assertEquals(timestamp + 1, block.getTimestamp());
     }
 
+    @Test
+    public void testBlockTemplate() {
+        Kernel kernel = kernelRule.getKernel();
+        Blockchain chain = spy(new BlockchainImpl(kernel.getConfig(), temporaryDBRule));
+        kernel.setBlockchain(chain);
+        doReturn(new ValidatorSet(Collections.singletonList(kernel.getCoinbase().toAddressString())))
+                .when(chain).getValidatorSet();
+
+        SemuxBft bft = new SemuxBft(kernel);
+        bft.metrics = mock(ConsensusMetrics.class);
+        BlockHeader parent = chain.getLatestBlock().getHeader();
+        assertNull(bft.builder.getBlock(parent));
+
+        bft.builder.refresh();
+        Block block = bft.builder.getBlock(parent);
+        assertNotNull(block);
+        assertEquals(parent.getNumber() + 1, block.getNumber());
+        assertArrayEquals(kernel.getCoinbase().toAddress(), block.getCoinbase());
+
+        // the templates built in the background are not measured as proposals
+        verify(bft.metrics, never()).onProposalBuilt(anyLong());
+
+        // the template is outdated once the chain advances
+        Block next = TestUtils.createBlock(
+                TimeUtil.currentTimeMillis(),
+                parent.getHash(),
+                new Key(),
+                parent.getNumber() + 1,
+                Collections.emptyList(),
+                Collections.emptyList());
+        chain.addBlock(next);
+        assertNull(bft.builder.getBlock(parent));
+        assertNull(bft.builder.getBlock(next.getHeader()));
+
+        bft.builder.refresh();
+        block = bft.builder.getBlock(next.getHeader());
+        assertNotNull(block);
+        assertArrayEquals(next.getHash(), block.getParentHash());
+    }
+
+    @Test
+    public void testBlockTemplateNotPrimary() {
+        Kernel kernel = kernelRule.getKernel();
+        Blockchain chain = spy(new BlockchainImpl(kernel.getConfig(), temporaryDBRule));
+        kernel.setBlockchain(chain);
+        long number = chain.getLatestBlockNumber() + 1;
+
+        // a validator which isn't the primary of the next height
+        List<String> validators;
+        do {
+            validators = Arrays.asList(kernel.getCoinbase().toAddressString(), new Key().toAddressString());
+        } while (kernel.getConfig().spec().getPrimaryValidator(validators, number, 0,
+                chain.isForkActivated(UNIFORM_DISTRIBUTION, number)).equals(kernel.getCoinbase().toAddressString()));
+        doReturn(new ValidatorSet(validators)).when(chain).getValidatorSet();
+
+        SemuxBft bft = new SemuxBft(kernel);
+        bft.builder.refresh();
+        assertNull(bft.builder.getBlock(chain.getLatestBlock().getHeader()));
+    }
+
+    @Test
+    public void testProposalTransactionsFallback() {
+        SemuxBft bft = mock(SemuxBft.class);
+        bft.compactProposals = Caffeine.newBuilder().build();
+        doCallRealMethod().when(bft).retryProposalTransactions(anyLong());
+        doCallRealMethod().when(bft).requestProposalTransactions(any(), any(), any());
+
+        CompactProposal cp = mock(CompactProposal.class);
+        when(cp.getBlockHash()).thenReturn(Bytes.random(32));
+        when(cp.getMissing()).thenReturn(Collections.singletonList(0));
+        SemuxBft.ProposalRebuild r = new SemuxBft.ProposalRebuild(cp);
+        bft.compactProposals.put(ByteArray.of(cp.getBlockHash()), r);
+
+        Channel origin = channel();
+        Channel relayer = channel();
+        Channel validator = channel();
+        bft.activeValidators = Arrays.asList(origin, relayer, validator);
+        r.addRelayer(relayer);
+
+        // the relayer of the compact proposal is asked first, then the other validators
+        bft.requestProposalTransactions(origin, r, cp.getMissing());
+        long now = TimeUtil.currentTimeMillis();
+        bft.retryProposalTransactions(now);
+        verify(relayer.getMessageQueue(), never()).sendMessage(any());
+
+        bft.retryProposalTransactions(now + 1000);
+        verify(relayer.getMessageQueue()).sendMessage(any(GetProposalTransactionsMessage.class));
+        bft.retryProposalTransactions(TimeUtil.currentTimeMillis() + 1000);
+        verify(validator.getMessageQueue()).sendMessage(any(GetProposalTransactionsMessage.class));
+        verify(origin.getMessageQueue(), times(1)).sendMessage(any());
+
+        // then it gives up
+        bft.retryProposalTransactions(TimeUtil.currentTimeMillis() + 1000);
+        assertFalse(r.isWaiting(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testAdvanceOnValidateQuorum() {
+        Key[] keys = { new Key(), new Key(), new Key(), new Key() };
+        SemuxBft bft = adaptiveBft(SemuxBft.State.VALIDATE, keys, true);
+        byte[] hash = Bytes.random(32);
+
+        // just below the quorum, the state waits for more votes or the timeout
+        int quorum = bft.validateVotes.getTwoThirds();
+        for (int i = 0; i < quorum - 1; i++) {
+            bft.validateVotes.addVote(Vote.newApprove(VoteType.VALIDATE, 1, 0, hash).sign(keys[i]));
+        }
+        bft.advance();
+        verify(bft, never()).enterPreCommit();
+
+        bft.validateVotes.addVote(Vote.newApprove(VoteType.VALIDATE, 1, 0, hash).sign(keys[quorum - 1]));
+        bft.advance();
+        verify(bft).enterPreCommit();
+    }
+
+    @Test
+    public void testAdvanceOnPreCommitQuorum() {
+        Key[] keys = { new Key(), new Key(), new Key(), new Key() };
+        byte[] hash = Bytes.random(32);
+
+        // +2/3 approvals commit the block
+        SemuxBft bft = adaptiveBft(SemuxBft.State.PRE_COMMIT, keys, true);
+        int quorum = bft.precommitVotes.getTwoThirds();
+        for (int i = 0; i < quorum - 1; i++) {
+            bft.precommitVotes.addVote(Vote.newApprove(VoteType.PRECOMMIT, 1, 0, hash).sign(keys[i]));
+        }
+        bft.advance();
+        verify(bft, never()).enterCommit();
+        verify(bft, never()).enterPropose();
+
+        bft.precommitVotes.addVote(Vote.newApprove(VoteType.PRECOMMIT, 1, 0, hash).sign(keys[quorum - 1]));
+        bft.advance();
+        verify(bft).enterCommit();
+
+        // +2/3 rejections move on to the next view
+        bft = adaptiveBft(SemuxBft.State.PRE_COMMIT, keys, true);
+        for (int i = 0; i < quorum - 1; i++) {
+            bft.precommitVotes.addVote(Vote.newReject(VoteType.PRECOMMIT, 1, 0).sign(keys[i]));
+        }
+        bft.advance();
+        verify(bft, never()).enterPropose();
+
+        bft.precommitVotes.addVote(Vote.newReject(VoteType.PRECOMMIT, 1, 0).sign(keys[quorum - 1]));
+        bft.advance();
+        verify(bft).enterPropose();
+        verify(bft, never()).enterCommit();
+    }
+
+    @Test
+    public void testNoAdvanceWithStaticTimeouts() {
+        Key[] keys = { new Key(), new Key(), new Key(), new Key() };
+        SemuxBft bft = adaptiveBft(SemuxBft.State.VALIDATE, keys, false);
+        byte[] hash = Bytes.random(32);
+
+        for (Key key : keys) {
+            bft.validateVotes.addVote(Vote.newApprove(VoteType.VALIDATE, 1, 0, hash).sign(key));
+        }
+        bft.advance();
+        verify(bft, never()).enterPreCommit();
+    }
+
+    private SemuxBft adaptiveBft(SemuxBft.State state, Key[] keys, boolean adaptive) {
+        List<String> validators = Arrays.stream(keys).map(Key::toAddressString).collect(Collectors.toList());
+
+        SemuxBft bft = mock(SemuxBft.class);
+        bft.state = state;
+        bft.height = 1;
+        bft.view = 0;
+        bft.timeouts = new EnumMap<>(SemuxBft.State.class);
+        if (adaptive) {
+            bft.timeouts.put(state, new AdaptiveTimeout(100, 1000));
+        }
+        bft.validateVotes = new VoteSet(VoteType.VALIDATE, 1, 0, validators);
+        bft.precommitVotes = new VoteSet(VoteType.PRECOMMIT, 1, 0, validators);
+        doCallRealMethod().when(bft).advance();
+        return bft;
+    }
+
+    private Channel channel() {
+        Channel channel = mock(Channel.class);
+        MessageQueue queue = mock(MessageQueue.class);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.getMessageQueue()).thenReturn(queue);
+        when(channel.getRemotePeer()).thenReturn(mock(Peer.class));
+        return channel;
+    }
+
     private Transaction createTransaction(Key to, Key from, long time, long nonce) {
         return new Transaction(
                 kernelRule.getKernel().getConfig().network(),
@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.semux.Kernel;
+import org.semux.TestUtils;
+import org.semux.config.ChainSpec;
+import org.semux.config.Config;
+import org.semux.core.Block;
+import org.semux.core.Blockchain;
+import org.semux.crypto.Key;
+import org.semux.net.Capability;
+import org.semux.net.Channel;
+import org.semux.net.ChannelManager;
+import org.semux.net.Peer;
+import org.semux.net.PeerStats;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.GetBlockMessage;
+import org.semux.net.msg.consensus.GetBlockRangeMessage;
+
+public class SemuxSyncTest {
+
+    private static final long INTERVAL = 4;
+    private static final long TARGET = 20;
+
+    private Blockchain chain;
+    private Channel channel;
+    private SemuxSync sync;
+
+    private final AtomicLong latest = new AtomicLong();
+    private final List<Long> imported = new CopyOnWriteArrayList<>();
+    private final Set<Long> invalid = ConcurrentHashMap.newKeySet();
+    private final List<Block> blocks = new ArrayList<>();
+    private final List<Channel> idle = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        ChainSpec spec = mock(ChainSpec.class);
+        when(spec.getValidatorUpdateInterval()).thenReturn(INTERVAL);
+
+        Config config = mock(Config.class);
+        when(config.spec()).thenReturn(spec);
+        when(config.syncDownloadTimeout()).thenReturn(10_000L);
+        when(config.syncMaxQueuedJobs()).thenReturn(100);
+        when(config.syncMaxPendingJobs()).thenReturn(100);
+        when(config.syncMaxPendingBlocks()).thenReturn(100);
+        when(config.syncMaxBlockRange()).thenReturn(4);
+
+        // blocks #1 to #19 linked by their hashes
+        Block genesis = TestUtils.createEmptyBlock(0);
+        Block prev = genesis;
+        Key coinbase = new Key();
+        blocks.add(genesis);
+        for (long n = 1; n < TARGET; n++) {
+            prev = TestUtils.createBlock(prev.getHash(), coinbase, n, Collections.emptyList(),
+                    Collections.emptyList());
+            blocks.add(prev);
+        }
+
+        // the chain imports any block but the invalid ones
+        chain = mock(Blockchain.class);
+        when(chain.getLatestBlock()).thenReturn(genesis);
+        when(chain.getLatestBlockNumber()).thenAnswer(invocation -> latest.get());
+        when(chain.validateBlockVotes(any())).thenReturn(true);
+        when(chain.importBlock(any(), eq(false), eq(false))).thenAnswer(invocation -> {
+            Block block = invocation.getArgument(0);
+            if (invalid.contains(block.getNumber())) {
+                return false;
+            }
+            imported.add(block.getNumber());
+            latest.set(block.getNumber());
+            return true;
+        });
+
+        Kernel kernel = mock(Kernel.class);
+        when(kernel.getConfig()).thenReturn(config);
+        when(kernel.getBlockchain()).thenReturn(chain);
+        ChannelManager channelMgr = mock(ChannelManager.class);
+        when(channelMgr.getIdleChannels()).thenAnswer(invocation -> new ArrayList<>(idle));
+        when(kernel.getChannelManager()).thenReturn(channelMgr);
+
+        channel = createChannel("peer", false, new CopyOnWriteArrayList<>());
+
+        sync = spy(new SemuxSync(kernel));
+        Thread t = new Thread(() -> sync.start(TARGET), "sync-test");
+        t.setDaemon(true);
+        t.start();
+        await().until(() -> sync.isRunning());
+    }
+
+    @After
+    public void tearDown() {
+        sync.stop();
+    }
+
+    @Test
+    public void testParallelValidation() {
+        // hold the validations until all the blocks are received
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger entered = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            entered.incrementAndGet();
+            latch.await();
+            return invocation.callRealMethod();
+        }).when(sync).validateBlock(any());
+
+        try {
+            for (long n = 1; n <= 8; n++) {
+                sync.addBlock(blocks.get((int) n), channel);
+            }
+
+            // the receiving thread is not held, and the blocks are validated by the pool
+            // threads, as many at a time as there are threads
+            int parallelism = Math.min(8, Runtime.getRuntime().availableProcessors());
+            await().until(() -> entered.get() == parallelism);
+            assertEquals(8, stage("validate").getBacklog());
+            assertTrue(threads.stream().allMatch(name -> name.startsWith("sync-validator-")));
+        } finally {
+            latch.countDown();
+        }
+        await().until(() -> latest.get() == 8);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), imported);
+    }
+
+    @Test
+    public void testBatchImport() {
+        for (long n = 1; n <= 3; n++) {
+            sync.addBlock(blocks.get((int) n), channel);
+        }
+
+        // nothing is imported before the checkpoint of the range is validated
+        await().until(() -> stage("import").getBacklog() == 3);
+        verify(chain, never()).importBlock(any(), eq(false), eq(false));
+
+        // the whole range is taken out at once, and only the votes of the checkpoint
+        // are validated
+        sync.addBlock(blocks.get(4), channel);
+        await().until(() -> latest.get() == 4);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), imported);
+        assertEquals(0, stage("import").getBacklog());
+        verify(chain, times(1)).validateBlockVotes(any());
+        verify(chain).validateBlockVotes(blocks.get(4));
+    }
+
+    @Test
+    public void testPutBackOnFailure() {
+        invalid.add(2L);
+        for (long n = 1; n <= 4; n++) {
+            sync.addBlock(blocks.get((int) n), channel);
+        }
+
+        // the blocks after the invalid one are put back, and the invalid one is
+        // downloaded again
+        await().until(() -> latest.get() == 1 && stage("import").getBacklog() == 2);
+        verify(sync).handleInvalidBlock(blocks.get(2), channel);
+
+        invalid.clear();
+        sync.addBlock(blocks.get(2), channel);
+        await().until(() -> latest.get() == 4);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), imported);
+        verify(chain, times(2)).importBlock(eq(blocks.get(2)), eq(false), eq(false));
+    }
+
+    @Test
+    public void testStageMetrics() {
+        assertEquals(Arrays.asList("receive", "validate", "import"),
+                sync.getStages().stream().map(SemuxSync.Stage::getName).collect(Collectors.toList()));
+
+        for (long n = 1; n <= 8; n++) {
+            sync.addBlock(blocks.get((int) n), channel);
+        }
+        await().until(() -> latest.get() == 8);
+
+        for (SemuxSync.Stage stage : sync.getStages()) {
+            assertEquals(8, stage.getProcessed());
+            assertEquals(0, stage.getBacklog());
+
+            // the throughput is sampled as the blocks processed since the last sample
+            assertEquals(8, stage.sample());
+            assertEquals(0, stage.sample());
+        }
+
+        // a block which is already imported is received, but not validated again
+        sync.addBlock(blocks.get(8), channel);
+        await().until(() -> stage("validate").getBacklog() == 0);
+        assertEquals(9, stage("receive").getProcessed());
+        assertEquals(8, stage("validate").getProcessed());
+        verify(sync, never()).handleInvalidBlock(any(), any());
+    }
+
+    @Test
+    public void testRequestRange() {
+        List<Message> sentA = new CopyOnWriteArrayList<>();
+        List<Message> sentB = new CopyOnWriteArrayList<>();
+        List<Message> sentC = new CopyOnWriteArrayList<>();
+        idle.add(createChannel("a", true, sentA));
+        idle.add(createChannel("b", true, sentB));
+        idle.add(createChannel("c", false, sentC));
+
+        // all the queued blocks are requested, each exactly once
+        await().until(() -> requested(sentA, sentB, sentC).size() == TARGET - 1);
+        List<Long> numbers = requested(sentA, sentB, sentC);
+        assertEquals(numbers.size(), new HashSet<>(numbers).size());
+
+        // the peers supporting RANGE_SYNC get ranges of up to the configured size, the
+        // others single blocks
+        assertFalse(sentA.isEmpty());
+        assertFalse(sentB.isEmpty());
+        List<Message> ranges = new ArrayList<>(sentA);
+        ranges.addAll(sentB);
+        for (Message m : ranges) {
+            assertTrue(m instanceof GetBlockRangeMessage);
+            assertTrue(((GetBlockRangeMessage) m).getCount() <= 4);
+        }
+        assertTrue(sentA.stream().anyMatch(m -> ((GetBlockRangeMessage) m).getCount() > 1));
+        assertTrue(sentC.stream().allMatch(m -> m instanceof GetBlockMessage));
+    }
+
+    @SafeVarargs
+    private final List<Long> requested(List<Message>... sent) {
+        List<Long> numbers = new ArrayList<>();
+        for (List<Message> list : sent) {
+            for (Message m : list) {
+                if (m instanceof GetBlockRangeMessage) {
+                    GetBlockRangeMessage r = (GetBlockRangeMessage) m;
+                    LongStream.range(r.getFrom(), r.getFrom() + r.getCount()).forEach(numbers::add);
+                } else if (m instanceof GetBlockMessage) {
+                    numbers.add(((GetBlockMessage) m).getNumber());
+                }
+            }
+        }
+        return numbers;
+    }
+
+    private Channel createChannel(String peerId, boolean rangeSync, List<Message> sent) {
+        Peer peer = mock(Peer.class);
+        when(peer.getPeerId()).thenReturn(peerId);
+        when(peer.getLatestBlockNumber()).thenReturn(TARGET);
+        when(peer.getStats()).thenReturn(new PeerStats());
+
+        MessageQueue queue = mock(MessageQueue.class);
+        when(queue.sendMessage(any())).thenAnswer(invocation -> sent.add(invocation.getArgument(0)));
+
+        Channel c = mock(Channel.class);
+        when(c.getRemotePeer()).thenReturn(peer);
+        when(c.getRemoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 5161));
+        when(c.getMessageQueue()).thenReturn(queue);
+        when(c.supports(Capability.RANGE_SYNC)).thenReturn(rangeSync);
+        return c;
+    }
+
+    private SemuxSync.Stage stage(String name) {
+        return sync.getStages().stream().filter(s -> s.getName().equals(name)).findFirst().get();
+    }
+}
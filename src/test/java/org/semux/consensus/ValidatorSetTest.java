@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.semux.crypto.Key;
+
+public class ValidatorSetTest {
+
+    private Key v1 = new Key();
+    private Key v2 = new Key();
+    private Key v3 = new Key();
+
+    @Test
+    public void testIndexOf() {
+        ValidatorSet set = new ValidatorSet(
+                Arrays.asList(v1.toAddressString(), v2.toAddressString(), v3.toAddressString()));
+
+        assertEquals(3, set.size());
+        assertEquals(2, set.getTwoThirds());
+        assertEquals(0, set.indexOf(v1.toAddress()));
+        assertEquals(2, set.indexOf(v3.toAddress()));
+        assertEquals(-1, set.indexOf(new Key().toAddress()));
+        assertTrue(set.contains(v2.toAddress()));
+        assertFalse(set.contains(new Key().toAddress()));
+        assertTrue(set.contains(v2.toAddressString()));
+        assertFalse(set.contains(new Key().toAddressString()));
+        assertFalse(set.contains("not hex"));
+        assertEquals(v2.toAddressString(), set.get(1));
+    }
+
+    @Test
+    public void testLimit() {
+        ValidatorSet set = new ValidatorSet(
+                Arrays.asList(v1.toAddressString(), v2.toAddressString(), v3.toAddressString()));
+
+        assertSame(set, set.limit(3));
+        ValidatorSet limited = set.limit(2);
+        assertEquals(2, limited.size());
+        assertFalse(limited.contains(v3.toAddress()));
+        assertEquals(Arrays.asList(v1.toAddressString(), v2.toAddressString()), limited.toList());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        new ValidatorSet(Arrays.asList(v1.toAddressString())).toList().add(v2.toAddressString());
+    }
+}
@@ -60,6 +60,26 @@ public class VoteTest {
         assertTrue(v.validate());
     }
 
+    @Test
+    public void testValidateBatch() {
+        List<Vote> votes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Vote v = Vote.newApprove(VoteType.VALIDATE, 1, 0, Bytes.EMPTY_HASH).sign(new Key());
+            votes.add(Vote.fromBytes(v.toBytes()));
+        }
+
+        // tamper with one signature
+        Vote v = Vote.newApprove(VoteType.VALIDATE, 2, 0, Bytes.EMPTY_HASH).sign(new Key());
+        Vote forged = new Vote(Vote.newApprove(VoteType.VALIDATE, 1, 0, Bytes.EMPTY_HASH).getEncoded(),
+                v.getSignature().toBytes());
+        votes.add(2, forged);
+
+        Vote.validateBatch(votes);
+        for (Vote vote : votes) {
+            assertEquals(vote != forged, vote.validate());
+        }
+    }
+
     @Test
     public void testVotesSerialization() {
         Key key1 = new Key();
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semux.TestUtils;
+import org.semux.config.Config;
+import org.semux.config.Constants;
+import org.semux.config.UnitTestnetConfig;
+import org.semux.crypto.Key;
+import org.semux.rules.TemporaryDatabaseRule;
+import org.semux.util.TimeUtil;
+
+public class BlockArchiveTest {
+
+    @Rule
+    public TemporaryDatabaseRule sourceDB = new TemporaryDatabaseRule();
+
+    @Rule
+    public TemporaryDatabaseRule targetDB = new TemporaryDatabaseRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Config config;
+    private BlockchainImpl source;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        config = new UnitTestnetConfig(Constants.DEFAULT_ROOT_DIR);
+        source = new BlockchainImpl(config, sourceDB);
+        file = temporaryFolder.newFile("blocks.bin");
+
+        long timestamp = TimeUtil.currentTimeMillis() - 60 * 1000;
+        for (int i = 1; i <= 10; i++) {
+            Block block = TestUtils.createBlock(timestamp + i, source.getLatestBlockHash(), new Key(), i,
+                    Collections.emptyList(), Collections.emptyList());
+            assertTrue(source.importBlock(block, false));
+        }
+    }
+
+    @Test
+    public void testExportAndImport() {
+        assertEquals(10, new BlockArchive(config, source).exportBlocks(file, 1, Long.MAX_VALUE));
+
+        BlockchainImpl target = new BlockchainImpl(config, targetDB);
+        assertEquals(10, new BlockArchive(config, target).importBlocks(file, false));
+        assertEquals(10, target.getLatestBlockNumber());
+        assertArrayEquals(source.getLatestBlockHash(), target.getLatestBlockHash());
+
+        // the blocks in the chain are skipped
+        assertEquals(0, new BlockArchive(config, target).importBlocks(file, false));
+    }
+
+    @Test
+    public void testExportRange() {
+        assertEquals(5, new BlockArchive(config, source).exportBlocks(file, 1, 5));
+
+        BlockchainImpl target = new BlockchainImpl(config, targetDB);
+        assertEquals(5, new BlockArchive(config, target).importBlocks(file, false));
+        assertArrayEquals(source.getBlock(5).getHash(), target.getLatestBlockHash());
+    }
+
+    @Test
+    public void testCorruptedArchive() throws IOException {
+        new BlockArchive(config, source).exportBlocks(file, 1, Long.MAX_VALUE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long pos = raf.length() - 10;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(~b);
+        }
+
+        BlockchainImpl target = new BlockchainImpl(config, targetDB);
+        assertEquals(-1, new BlockArchive(config, target).importBlocks(file, false));
+    }
+
+    @Test
+    public void testInvalidBlock() {
+        new BlockArchive(config, source).exportBlocks(file, 1, Long.MAX_VALUE);
+
+        // the target has another block #1, which block #2 doesn't link to
+        BlockchainImpl target = new BlockchainImpl(config, targetDB);
+        Block fork = TestUtils.createBlock(source.getBlock(1).getTimestamp(), target.getLatestBlockHash(), new Key(),
+                1, Collections.emptyList(), Collections.emptyList());
+        assertTrue(target.importBlock(fork, false));
+
+        assertEquals(-1, new BlockArchive(config, target).importBlocks(file, false));
+        assertArrayEquals(fork.getHash(), target.getLatestBlockHash());
+    }
+
+    @Test
+    public void testInvalidArchive() throws IOException {
+        BlockchainImpl target = new BlockchainImpl(config, targetDB);
+        assertEquals(-1, new BlockArchive(config, target).importBlocks(file, false));
+    }
+}
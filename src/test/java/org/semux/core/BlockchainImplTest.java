@@ -28,6 +28,7 @@ import org.semux.config.Constants;
 import org.semux.config.UnitTestnetConfig;
 import org.semux.core.BlockchainImpl.StatsType;
 import org.semux.crypto.Key;
+import org.semux.db.DatabaseName;
 import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
 import org.semux.util.MerkleUtil;
@@ -100,6 +101,43 @@ public class BlockchainImplTest {
         assertEquals(number, chain.getBlock(newBlock.getHash()).getNumber());
     }
 
+    @Test
+    public void testGetBlockParts() {
+        int all = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.RESULTS, BlockPart.VOTES);
+        assertNull(chain.getBlockParts(1, all));
+
+        Block newBlock = createBlock(1);
+        chain.addBlock(newBlock);
+
+        List<byte[]> parts = chain.getBlockParts(1, all);
+        assertEquals(4, parts.size());
+        assertArrayEquals(newBlock.toBytes(), Block.toBytes(parts.get(0), parts.get(1), parts.get(2), parts.get(3)));
+
+        // served from the cache
+        parts = chain.getBlockParts(1, BlockPart.encode(BlockPart.TRANSACTIONS, BlockPart.VOTES));
+        assertEquals(2, parts.size());
+        assertArrayEquals(newBlock.getEncodedTransactions(), parts.get(0));
+        assertArrayEquals(newBlock.getEncodedVotes(), parts.get(1));
+    }
+
+    @Test
+    public void testGetBlockPartsIncomplete() {
+        int all = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS, BlockPart.RESULTS, BlockPart.VOTES);
+        Block newBlock = createBlock(1);
+
+        // a block whose header is written, but not the other parts yet
+        temporaryDBFactory.getDB(DatabaseName.BLOCK).put(
+                Bytes.merge(BlockchainImpl.TYPE_BLOCK_HEADER_BY_NUMBER, Bytes.of(1L)),
+                newBlock.getEncodedHeader());
+        assertNull(chain.getBlockParts(1, all));
+
+        // and is not cached as such
+        chain.addBlock(newBlock);
+        List<byte[]> parts = chain.getBlockParts(1, all);
+        assertEquals(4, parts.size());
+        assertArrayEquals(newBlock.toBytes(), Block.toBytes(parts.get(0), parts.get(1), parts.get(2), parts.get(3)));
+    }
+
     @Test
     public void testHasBlock() {
         assertFalse(chain.hasBlock(-1));
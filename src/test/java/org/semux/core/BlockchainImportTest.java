@@ -6,6 +6,7 @@
  */
 package org.semux.core;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
@@ -28,12 +29,16 @@ import org.semux.config.Config;
 import org.semux.config.Constants;
 import org.semux.consensus.Vote;
 import org.semux.consensus.VoteType;
+import org.semux.core.state.AccountState;
+import org.semux.core.state.DelegateState;
 import org.semux.crypto.Hex;
 import org.semux.crypto.Key;
 import org.semux.rules.KernelRule;
 import org.semux.rules.TemporaryDatabaseRule;
 import org.semux.util.Bytes;
 import org.semux.util.TimeUtil;
+import org.semux.vm.client.SemuxBlock;
+import org.semux.vm.client.SemuxBlockStore;
 
 public class BlockchainImportTest {
 
@@ -86,6 +91,63 @@ public class BlockchainImportTest {
         assertFalse(kernelRule.getKernel().getBlockchain().importBlock(block2, false));
     }
 
+    @Test
+    public void testImportExecutedBlock() {
+        Config config = kernelRule.getKernel().getConfig();
+        BlockchainImpl chain = new BlockchainImpl(config, temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key from = new Key();
+        Key to = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1000, SEM));
+        Transaction tx = TestUtils.createTransaction(config, from, to, Amount.of(10, SEM));
+        BlockHeader parent = chain.getLatestBlock().getHeader();
+        Block block = kernelRule.createBlock(Collections.singletonList(tx));
+
+        // execute the block on top of the latest block
+        AccountState asTrack = chain.getAccountState().track();
+        DelegateState dsTrack = chain.getDelegateState().track();
+        TransactionExecutor exec = new TransactionExecutor(config, new SemuxBlockStore(chain), chain.isVMEnabled(),
+                chain.isVotingPrecompiledUpgraded());
+        block.setResults(exec.execute(block.getTransactions(), asTrack, dsTrack,
+                new SemuxBlock(block.getHeader(), config.spec().maxBlockGasLimit()), 0));
+
+        assertTrue(chain.importBlock(block, asTrack, dsTrack));
+        assertEquals(block.getNumber(), chain.getLatestBlockNumber());
+        assertEquals(Amount.of(10, SEM), chain.getAccountState().getAccount(to.toAddress()).getAvailable());
+
+        // the execution is rejected once the parent is no longer the latest block
+        Block block2 = kernelRule.createBlock(Collections.emptyList(), parent);
+        assertFalse(chain.importBlock(block2, chain.getAccountState().track(), chain.getDelegateState().track()));
+    }
+
+    @Test
+    public void testImportValidatedTransactions() {
+        Config config = kernelRule.getKernel().getConfig();
+        BlockchainImpl chain = new BlockchainImpl(config, temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key from = new Key();
+        Key to = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), Amount.of(1000, SEM));
+        Transaction tx = TestUtils.createTransaction(config, from, to, Amount.of(10, SEM));
+        Block valid = kernelRule.createBlock(Collections.singletonList(tx));
+
+        // a block whose transactions root doesn't match its transactions
+        BlockHeader h = valid.getHeader();
+        BlockHeader header = new BlockHeader(h.getNumber(), h.getCoinbase(), h.getParentHash(), h.getTimestamp(),
+                Bytes.random(32), h.getResultsRoot(), h.getStateRoot(), h.getData());
+        Block block = new Block(header, valid.getTransactions(), valid.getResults());
+
+        assertFalse(chain.importBlock(block, false, true));
+        assertEquals(valid.getNumber() - 1, chain.getLatestBlockNumber());
+
+        // the transactions are executed, but not validated again
+        assertTrue(chain.importBlock(block, false, false));
+        assertEquals(block.getNumber(), chain.getLatestBlockNumber());
+        assertEquals(Amount.of(10, SEM), chain.getAccountState().getAccount(to.toAddress()).getAvailable());
+    }
+
     @Test
     public void testValidateCoinbaseMagic() {
         BlockchainImpl blockchain = spy(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.semux.Network;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+
+public class FutureTransactionPoolTest {
+
+    private final Key key = new Key();
+    private final byte[] to = Bytes.random(20);
+
+    private Transaction tx(long nonce, long fee, long timestamp) {
+        return new Transaction(Network.DEVNET, TransactionType.TRANSFER, to, Amount.of(1), Amount.of(fee), nonce,
+                timestamp, Bytes.EMPTY_BYTES).sign(key);
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        FutureTransactionPool pool = new FutureTransactionPool(1024 * 1024);
+        Transaction tx = tx(5, 100, 1);
+
+        assertTrue(pool.add(tx));
+        assertEquals(1, pool.size());
+        assertEquals(1, pool.count(key.toAddress()));
+        assertEquals(FutureTransactionPool.weigh(tx), pool.getBytes());
+
+        assertNull(pool.remove(key.toAddress(), 4));
+        assertSame(tx, pool.remove(key.toAddress(), 5));
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.count(key.toAddress()));
+        assertEquals(0, pool.getBytes());
+    }
+
+    @Test
+    public void testEvictLowFeeAndOldest() {
+        Transaction low = tx(1, 100, 2);
+        Transaction oldest = tx(2, 200, 3);
+        Transaction newest = tx(3, 200, 1);
+        FutureTransactionPool pool = new FutureTransactionPool(3 * FutureTransactionPool.weigh(low));
+
+        assertTrue(pool.add(low));
+        assertTrue(pool.add(oldest));
+        assertTrue(pool.add(newest));
+
+        // the lowest fee goes first
+        assertTrue(pool.add(tx(4, 300, 4)));
+        assertNull(pool.remove(key.toAddress(), 1));
+
+        // then the earliest added among the same fee, whatever its timestamp
+        assertTrue(pool.add(tx(5, 300, 5)));
+        assertNull(pool.remove(key.toAddress(), 2));
+        assertEquals(3, pool.size());
+
+        // a transaction of lower priority than all the others is rejected
+        assertFalse(pool.add(tx(6, 50, 6)));
+        assertEquals(3, pool.size());
+    }
+
+    @Test
+    public void testEvictLowFeeRate() {
+        Transaction small = tx(1, 200, 1);
+        Transaction big = new Transaction(Network.DEVNET, TransactionType.TRANSFER, to, Amount.of(1),
+                Amount.of(200), 2, 2, Bytes.random(128)).sign(key);
+        FutureTransactionPool pool = new FutureTransactionPool(
+                FutureTransactionPool.weigh(small) + FutureTransactionPool.weigh(big));
+
+        assertTrue(pool.add(big));
+        assertTrue(pool.add(small));
+
+        // the same fee for more bytes goes first, even though added earlier
+        assertTrue(pool.add(tx(3, 200, 3)));
+        assertNull(pool.remove(key.toAddress(), 2));
+        assertSame(small, pool.remove(key.toAddress(), 1));
+    }
+
+    @Test
+    public void testReplace() {
+        Transaction original = tx(1, 200, 1);
+        Transaction other = tx(2, 300, 2);
+        FutureTransactionPool pool = new FutureTransactionPool(2 * FutureTransactionPool.weigh(original));
+        assertTrue(pool.add(original));
+        assertTrue(pool.add(other));
+
+        // a replacement without a fee bump is rejected, keeping the original
+        assertFalse(pool.add(tx(1, 200, 3)));
+        assertEquals(2, pool.size());
+
+        // so is one which doesn't fit, even with a fee bump
+        Transaction big = new Transaction(Network.DEVNET, TransactionType.TRANSFER, to, Amount.of(1),
+                Amount.of(250), 1, 4, Bytes.random(1024)).sign(key);
+        assertFalse(pool.add(big));
+        assertSame(original, pool.remove(key.toAddress(), 1));
+
+        // a fee bump replaces it
+        assertTrue(pool.add(original));
+        Transaction bumped = tx(1, 250, 5);
+        assertTrue(pool.add(bumped));
+        assertEquals(2, pool.size());
+        assertEquals(2, pool.count(key.toAddress()));
+        assertSame(bumped, pool.remove(key.toAddress(), 1));
+    }
+
+    @Test
+    public void testRemoveIf() {
+        FutureTransactionPool pool = new FutureTransactionPool(1024 * 1024);
+        for (long i = 0; i < 10; i++) {
+            pool.add(tx(i, 100, i));
+        }
+
+        assertEquals(4, pool.removeIf(tx -> tx.getNonce() < 4));
+        assertEquals(6, pool.size());
+        assertEquals(6, pool.getTransactions().size());
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semux.Network;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+import org.semux.util.TimeUtil;
+
+public class PendingJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private PendingJournal journal;
+
+    private Key key = new Key();
+
+    @Before
+    public void setUp() {
+        dir = new File(folder.getRoot(), "mempool");
+        journal = new PendingJournal(dir);
+        assertTrue(journal.open());
+    }
+
+    @Test
+    public void testAppendAndLoad() {
+        Transaction tx1 = createTransaction(0);
+        Transaction tx2 = createTransaction(1);
+        journal.append(tx1);
+        journal.append(tx2);
+        journal.append(tx1);
+        journal.close();
+
+        List<Transaction> txs = new PendingJournal(dir).load();
+        assertEquals(Arrays.asList(tx1, tx2), txs);
+    }
+
+    @Test
+    public void testCorruptedTail() throws IOException {
+        Transaction tx = createTransaction(0);
+        journal.append(tx);
+        journal.close();
+
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "journal"), true)) {
+            out.write(Bytes.of(64));
+            out.write(Bytes.random(20));
+        }
+
+        assertEquals(Collections.singletonList(tx), new PendingJournal(dir).load());
+    }
+
+    @Test
+    public void testCompact() {
+        Transaction tx1 = createTransaction(0);
+        Transaction tx2 = createTransaction(1);
+        Transaction tx3 = createTransaction(2);
+        journal.append(tx1);
+        journal.append(tx2);
+        journal.flush();
+
+        journal.rotate();
+        assertEquals(0, journal.getAppendedCount());
+        journal.append(tx3);
+        journal.compact(Collections.singletonList(tx2));
+        journal.close();
+
+        assertEquals(Arrays.asList(tx2, tx3), new PendingJournal(dir).load());
+        assertFalse(new File(dir, "journal.old").exists());
+    }
+
+    private Transaction createTransaction(long nonce) {
+        return new Transaction(Network.DEVNET, TransactionType.TRANSFER, new Key().toAddress(), Amount.ZERO,
+                Amount.ZERO, nonce, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(key);
+    }
+}
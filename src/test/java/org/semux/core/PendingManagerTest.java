@@ -10,14 +10,24 @@ import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.semux.core.PendingManager.ALLOWED_TIME_DRIFT;
 import static org.semux.core.TransactionResult.Code.INVALID_TIMESTAMP;
+import static org.semux.core.TransactionResult.Code.POOL_LIMIT_EXCEEDED;
 import static org.semux.core.Unit.MILLI_SEM;
 import static org.semux.core.Unit.SEM;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -33,7 +43,11 @@ import org.semux.config.Constants;
 import org.semux.core.state.AccountState;
 import org.semux.crypto.Key;
 import org.semux.db.LeveldbDatabase.LeveldbFactory;
+import org.semux.net.Channel;
 import org.semux.net.ChannelManager;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.p2p.GetTransactionsMessage;
 import org.semux.rules.KernelRule;
 import org.semux.util.ArrayUtil;
 import org.semux.util.Bytes;
@@ -105,6 +119,34 @@ public class PendingManagerTest {
         assertEquals(1, pendingMgr.getPendingTransactions().size());
     }
 
+    @Test
+    public void testRunBeforeStart() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        // validated on the calling thread
+        PendingManager pm = new PendingManager(kernel);
+        Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+        pm.addTransaction(tx);
+        pm.run();
+        assertEquals(1, pm.getPendingTransactions().size());
+    }
+
+    @Test
+    public void testAddTransactionInvalidFormat() {
+        Transaction tx = new Transaction(network, type, to, value, fee, 0, 0, Bytes.EMPTY_BYTES).sign(key);
+        pendingMgr.addTransaction(tx);
+
+        await().until(() -> pendingMgr.getInvalidCount() == 1);
+        assertEquals(1, pendingMgr.getReceivedCount());
+        assertEquals(0, pendingMgr.getQueueDepth());
+        assertEquals(0, pendingMgr.getPendingTransactions().size());
+
+        // re-submission of a rejected transaction is dropped immediately
+        pendingMgr.addTransaction(tx);
+        assertEquals(1, pendingMgr.getDroppedCount());
+    }
+
     @Test
     public void testAddTransactionSyncErrorInvalidFormat() {
         Transaction tx = new Transaction(network, type, to, value, fee, 0, 0, Bytes.EMPTY_BYTES).sign(key);
@@ -163,6 +205,79 @@ public class PendingManagerTest {
         assertEquals(3, pendingMgr.getPendingTransactions().size());
     }
 
+    @Test
+    public void testAddressIndex() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        for (int i = 0; i < 3; i++) {
+            pendingMgr.addTransaction(
+                    new Transaction(network, type, to, value, fee, nonce + i, now, Bytes.EMPTY_BYTES).sign(key));
+        }
+        await().until(() -> pendingMgr.getPendingTransactions().size() == 3);
+
+        assertEquals(nonce + 3, pendingMgr.getNonce(from));
+        assertEquals(3, pendingMgr.getPendingTransactionCount(from));
+        assertEquals(3, pendingMgr.getPendingTransactionCount(to));
+
+        List<PendingManager.PendingTransaction> page = pendingMgr.getPendingTransactions(to, 1, 3);
+        assertEquals(2, page.size());
+        assertEquals(nonce + 1, page.get(0).transaction.getNonce());
+        assertEquals(nonce + 2, pendingMgr.getPendingTransactionsBySender(from, 2, 10).get(0).transaction.getNonce());
+        assertTrue(pendingMgr.getPendingTransactions(new Key().toAddress(), 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testTransactionInventory() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+        byte[] unknown = Bytes.random(32);
+
+        // announced hashes are requested only once
+        Channel first = mock(Channel.class);
+        Channel second = mock(Channel.class);
+        assertEquals(2, pendingMgr.selectTransactionsToRequest(Arrays.asList(tx.getHash(), unknown), first).size());
+        assertTrue(pendingMgr.selectTransactionsToRequest(Arrays.asList(tx.getHash(), unknown), second).isEmpty());
+
+        pendingMgr.addTransaction(tx);
+        await().until(() -> pendingMgr.getTransaction(tx.getHash()) != null);
+        assertArrayEquals(tx.getHash(), pendingMgr.getTransaction(tx.getHash()).getHash());
+        assertNull(pendingMgr.getTransaction(unknown));
+    }
+
+    @Test
+    public void testTransactionRequestRetry() {
+        byte[] hash = Bytes.random(32);
+        MessageQueue queue = mock(MessageQueue.class);
+        Channel first = mock(Channel.class);
+        Channel second = mock(Channel.class);
+        Channel third = mock(Channel.class);
+        when(second.isActive()).thenReturn(false);
+        when(third.isActive()).thenReturn(true);
+        when(third.getMessageQueue()).thenReturn(queue);
+
+        assertEquals(1, pendingMgr.selectTransactionsToRequest(Collections.singletonList(hash), first).size());
+        assertTrue(pendingMgr.selectTransactionsToRequest(Collections.singletonList(hash), second).isEmpty());
+        assertTrue(pendingMgr.selectTransactionsToRequest(Collections.singletonList(hash), third).isEmpty());
+
+        // nothing is retried before the timeout
+        long now = TimeUtil.currentTimeMillis();
+        pendingMgr.retryTransactionRequests(now);
+        verify(queue, never()).sendMessage(any(Message.class));
+
+        // then the next active announcer is asked
+        pendingMgr.retryTransactionRequests(now + TimeUnit.MINUTES.toMillis(1));
+        verify(queue).sendMessage(any(GetTransactionsMessage.class));
+        verify(first, never()).getMessageQueue();
+        verify(second, never()).getMessageQueue();
+
+        // once all the announcers are exhausted, the hash may be requested again
+        pendingMgr.retryTransactionRequests(now + TimeUnit.MINUTES.toMillis(2));
+        assertEquals(1, pendingMgr.selectTransactionsToRequest(Collections.singletonList(hash), first).size());
+    }
+
     @Test
     public void testNonceJumpTimestampError() throws InterruptedException {
         long now = TimeUtil.currentTimeMillis();
@@ -249,6 +364,106 @@ public class PendingManagerTest {
         assertArrayEquals(tx3.getHash(), pendingMgr.getPendingTransactions().get(0).transaction.getHash());
     }
 
+    @Test
+    public void testNewBlockCarriesOverUntouchedSenders() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        Key key2 = new Key();
+        accountState.adjustAvailable(key2.toAddress(), Amount.of(1, SEM));
+
+        Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+        pendingMgr.addTransaction(tx);
+        Transaction tx2 = new Transaction(network, type, new Key().toAddress(), value, fee, 0, now,
+                Bytes.EMPTY_BYTES).sign(key2);
+        pendingMgr.addTransaction(tx2);
+
+        await().until(() -> pendingMgr.getPendingTransactions().size() == 2);
+        PendingManager.PendingTransaction untouched = pendingMgr.getPendingTransactions().stream()
+                .filter(p -> Arrays.equals(p.transaction.getHash(), tx2.getHash()))
+                .findFirst().get();
+
+        BlockHeader header = new BlockHeader(1, Bytes.random(20), Bytes.random(20), now, Bytes.random(32),
+                Bytes.random(32), Bytes.random(32), Bytes.EMPTY_BYTES);
+        Block block = new Block(header, Collections.singletonList(tx),
+                Collections.singletonList(new TransactionResult()));
+        kernel.getBlockchain().getAccountState().increaseNonce(from);
+        pendingMgr.onBlockAdded(block);
+
+        List<PendingManager.PendingTransaction> txs = pendingMgr.getPendingTransactions();
+        assertEquals(1, txs.size());
+        assertSame(untouched, txs.get(0));
+        assertEquals(1, pendingMgr.getNonce(key2.toAddress()));
+        assertEquals(nonce + 1, pendingMgr.getNonce(from));
+        assertTrue(pendingMgr.getMaxRebaseTime() >= pendingMgr.getLastRebaseTime());
+    }
+
+    @Test
+    public void testRestoreFromJournal() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        pendingMgr.stop();
+        doReturn(true).when(kernel.getConfig()).poolJournalEnabled();
+        try {
+            pendingMgr = new PendingManager(kernel);
+            pendingMgr.start();
+
+            Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+            pendingMgr.addTransaction(tx);
+            Transaction tx3 = new Transaction(network, type, to, value, fee, nonce + 2, now, Bytes.EMPTY_BYTES)
+                    .sign(key);
+            pendingMgr.addTransaction(tx3);
+            await().until(() -> pendingMgr.getPendingTransactions().size() == 1 && pendingMgr.getQueueDepth() == 0);
+            pendingMgr.stop();
+
+            // restart
+            pendingMgr = new PendingManager(kernel);
+            pendingMgr.start();
+            assertEquals(1, pendingMgr.getPendingTransactions().size());
+            assertArrayEquals(tx.getHash(), pendingMgr.getPendingTransactions().get(0).transaction.getHash());
+
+            // the large-nonce transaction is restored as well
+            Transaction tx2 = new Transaction(network, type, to, value, fee, nonce + 1, now, Bytes.EMPTY_BYTES)
+                    .sign(key);
+            pendingMgr.addTransaction(tx2);
+            await().until(() -> pendingMgr.getPendingTransactions().size() == 3);
+        } finally {
+            doReturn(false).when(kernel.getConfig()).poolJournalEnabled();
+        }
+    }
+
+    @Test
+    public void testSenderQuota() {
+        long now = TimeUtil.currentTimeMillis();
+        long nonce = accountState.getAccount(from).getNonce();
+
+        doReturn(2).when(kernel.getConfig()).poolMaxAccountTransactions();
+        try {
+            Transaction tx = new Transaction(network, type, to, value, fee, nonce, now, Bytes.EMPTY_BYTES).sign(key);
+            Transaction tx3 = new Transaction(network, type, to, value, fee, nonce + 2, now, Bytes.EMPTY_BYTES)
+                    .sign(key);
+            Transaction tx4 = new Transaction(network, type, to, value, fee, nonce + 3, now, Bytes.EMPTY_BYTES)
+                    .sign(key);
+            assertEquals(1, pendingMgr.addTransactionSync(tx).accepted);
+            synchronized (pendingMgr) {
+                assertEquals(0, pendingMgr.processTransaction(tx3, false, false).accepted);
+
+                // one pending and one large-nonce transaction reach the quota
+                assertEquals(POOL_LIMIT_EXCEEDED, pendingMgr.processTransaction(tx4, false, false).error);
+            }
+            assertTrue(pendingMgr.getMemoryUsage() > 0);
+
+            // filling the gap moves the large-nonce transaction into the pool
+            Transaction tx2 = new Transaction(network, type, to, value, fee, nonce + 1, now, Bytes.EMPTY_BYTES)
+                    .sign(key);
+            assertEquals(2, pendingMgr.addTransactionSync(tx2).accepted);
+            assertEquals(3, pendingMgr.getPendingTransactions().size());
+        } finally {
+            doReturn(2048).when(kernel.getConfig()).poolMaxAccountTransactions();
+        }
+    }
+
     @After
     public void stop() {
         pendingMgr.stop();
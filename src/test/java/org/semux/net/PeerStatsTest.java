@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PeerStatsTest {
+
+    @Test
+    public void testResponses() {
+        PeerStats stats = new PeerStats();
+        assertFalse(stats.isMeasured());
+        assertEquals(1000, stats.getTimeout(1000));
+
+        for (int i = 0; i < 10; i++) {
+            stats.onRequest(2);
+            stats.onResponse(200, 20_000, 2);
+        }
+        assertTrue(stats.isMeasured());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(20, stats.getReceived());
+        assertEquals(200, stats.getRtt());
+        assertEquals(100_000, stats.getBytesPerSecond());
+        assertEquals(10.0, stats.getBlocksPerSecond(), 0.001);
+
+        // a steady fast peer gets a shorter timeout, but not below half the default
+        assertEquals(500, stats.getTimeout(1000));
+    }
+
+    @Test
+    public void testSlowPeer() {
+        PeerStats stats = new PeerStats();
+        for (int i = 0; i < 10; i++) {
+            stats.onResponse(i % 2 == 0 ? 2000 : 6000, 1000, 1);
+        }
+
+        long timeout = stats.getTimeout(1000);
+        assertTrue(timeout > 4000);
+        assertTrue(timeout <= 8000);
+    }
+
+    @Test
+    public void testFailures() {
+        PeerStats stats = new PeerStats();
+        stats.onRequest(10);
+        stats.onTimeout(5);
+        stats.onCancel(2);
+
+        assertEquals(3, stats.getInFlight());
+        assertEquals(5, stats.getFailed());
+        assertTrue(stats.getFailureRate() > 0.4);
+
+        stats.onResponse(100, 1000, 3);
+        assertEquals(0, stats.getInFlight());
+        assertTrue(stats.getFailureRate() < 0.4);
+
+        // unusable blocks count as failures, but were never in flight
+        stats.onFailure(2);
+        assertEquals(0, stats.getInFlight());
+        assertEquals(7, stats.getFailed());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semux.config.Config;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.net.msg.p2p.NodesMessage;
+import org.semux.util.Bytes;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class SemuxMessageHandlerTest {
+
+    private Config config;
+
+    @Before
+    public void setUp() {
+        config = mock(Config.class);
+        when(config.netMaxFrameBodySize()).thenReturn(512);
+        when(config.netMaxPacketSize()).thenReturn(1024 * 1024);
+    }
+
+    @Test
+    public void testSingleFrame() {
+        Message msg = new NodesMessage(Collections.emptyList());
+
+        List<ByteBuf> frames = encode(msg);
+        assertEquals(1, frames.size());
+
+        Message decoded = decode(frames);
+        assertEquals(msg.getCode(), decoded.getCode());
+        assertArrayEquals(msg.getBody(), decoded.getBody());
+    }
+
+    @Test
+    public void testChunkedPacket() {
+        // random data is not compressible
+        List<byte[]> data = Arrays.asList(Bytes.random(2000), Bytes.random(2000));
+        Message msg = new BlockPartsMessage(1, 3, data);
+
+        List<ByteBuf> frames = encode(msg);
+        assertTrue(frames.size() > 1);
+        for (ByteBuf frame : frames) {
+            assertTrue(frame.readableBytes() <= Frame.HEADER_SIZE + config.netMaxFrameBodySize());
+        }
+
+        Message decoded = decode(frames);
+        assertEquals(msg.getCode(), decoded.getCode());
+        assertArrayEquals(msg.getBody(), decoded.getBody());
+
+        // the buffers are released once decoded
+        for (ByteBuf frame : frames) {
+            assertEquals(0, frame.refCnt());
+        }
+    }
+
+    @Test
+    public void testIncompletePacketsEviction() {
+        // one more chunked packet than the handler keeps track of
+        int n = 17;
+        List<Message> msgs = new ArrayList<>();
+        List<List<ByteBuf>> packets = new ArrayList<>();
+        EmbeddedChannel enc = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        for (int i = 0; i < n; i++) {
+            Message msg = new BlockPartsMessage(i, 1, Collections.singletonList(Bytes.random(2000)));
+            enc.writeOutbound(msg);
+            msgs.add(msg);
+            packets.add(readFrames(enc));
+        }
+        enc.finish();
+
+        // start all the packets
+        EmbeddedChannel ch = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        for (List<ByteBuf> frames : packets) {
+            assertTrue(frames.size() > 1);
+            ch.writeInbound(frames.get(0));
+        }
+
+        // the eldest is evicted and released, the others are kept
+        assertEquals(0, packets.get(0).get(0).refCnt());
+        for (int i = 1; i < n; i++) {
+            assertTrue(packets.get(i).get(0).refCnt() > 0);
+        }
+
+        // the latest, which caused the eviction, still completes
+        List<ByteBuf> last = packets.get(n - 1);
+        for (ByteBuf frame : last.subList(1, last.size())) {
+            ch.writeInbound(frame);
+        }
+        Message decoded = ch.readInbound();
+        assertArrayEquals(msgs.get(n - 1).getBody(), decoded.getBody());
+        for (ByteBuf frame : last) {
+            assertEquals(0, frame.refCnt());
+        }
+
+        // the remaining partial packets are released with the handler
+        ch.finishAndReleaseAll();
+        for (List<ByteBuf> frames : packets) {
+            assertEquals(0, frames.get(0).refCnt());
+            frames.subList(1, frames.size()).forEach(ByteBuf::release);
+        }
+    }
+
+    private List<ByteBuf> encode(Message msg) {
+        EmbeddedChannel ch = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        ch.writeOutbound(msg);
+
+        List<ByteBuf> frames = readFrames(ch);
+        ch.finish();
+
+        return frames;
+    }
+
+    private List<ByteBuf> readFrames(EmbeddedChannel ch) {
+        List<ByteBuf> frames = new ArrayList<>();
+        ByteBuf buf;
+        while ((buf = ch.readOutbound()) != null) {
+            if (buf.isReadable()) {
+                frames.add(buf);
+            } else {
+                buf.release();
+            }
+        }
+        return frames;
+    }
+
+    private Message decode(List<ByteBuf> frames) {
+        EmbeddedChannel ch = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        for (ByteBuf frame : frames) {
+            ch.writeInbound(frame);
+        }
+
+        Message msg = ch.readInbound();
+        assertNull(ch.readInbound());
+        ch.finish();
+
+        return msg;
+    }
+}
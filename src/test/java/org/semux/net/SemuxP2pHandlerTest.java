@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.semux.Kernel;
+import org.semux.TestUtils;
+import org.semux.config.Config;
+import org.semux.core.BlockPart;
+import org.semux.core.Blockchain;
+import org.semux.net.msg.Message;
+import org.semux.net.msg.MessageQueue;
+import org.semux.net.msg.consensus.BlockRangeMessage;
+import org.semux.net.msg.consensus.GetBlockRangeMessage;
+
+public class SemuxP2pHandlerTest {
+
+    private static final int PARTS = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS);
+
+    private Blockchain chain;
+    private MessageQueue msgQueue;
+    private SemuxP2pHandler handler;
+
+    @Before
+    public void setUp() {
+        chain = mock(Blockchain.class);
+        msgQueue = mock(MessageQueue.class);
+
+        Kernel kernel = mock(Kernel.class);
+        when(kernel.getConfig()).thenReturn(mock(Config.class));
+        when(kernel.getBlockchain()).thenReturn(chain);
+
+        Channel channel = mock(Channel.class);
+        when(channel.getMessageQueue()).thenReturn(msgQueue);
+
+        handler = new SemuxP2pHandler(channel, kernel);
+        TestUtils.setInternalState(handler, "isHandshakeDone", new AtomicBoolean(true), SemuxP2pHandler.class);
+    }
+
+    @Test
+    public void testBlockRangeChunks() {
+        // two blocks fill a chunk
+        when(chain.getLatestBlockNumber()).thenReturn(100L);
+        when(chain.getBlockParts(anyLong(), eq(PARTS)))
+                .thenReturn(Collections.singletonList(new byte[BlockRangeMessage.CHUNK_SIZE / 2]));
+
+        handler.onSync(new GetBlockRangeMessage(1, 5, PARTS));
+
+        List<BlockRangeMessage> messages = sentRanges(3);
+        assertEquals(1, messages.get(0).getFrom());
+        assertEquals(2, messages.get(0).getBlocks().size());
+        assertEquals(3, messages.get(1).getFrom());
+        assertEquals(2, messages.get(1).getBlocks().size());
+        assertEquals(5, messages.get(2).getFrom());
+        assertEquals(1, messages.get(2).getBlocks().size());
+        messages.forEach(m -> assertEquals(PARTS, m.getParts()));
+    }
+
+    @Test
+    public void testBlockRangeMaxCount() {
+        when(chain.getLatestBlockNumber()).thenReturn(10_000L);
+        when(chain.getBlockParts(anyLong(), eq(PARTS))).thenReturn(Collections.singletonList(new byte[8]));
+
+        handler.onSync(new GetBlockRangeMessage(1, GetBlockRangeMessage.MAX_COUNT * 2, PARTS));
+
+        List<BlockRangeMessage> messages = sentRanges(1);
+        assertEquals(1, messages.get(0).getFrom());
+        assertEquals(GetBlockRangeMessage.MAX_COUNT, messages.get(0).getBlocks().size());
+        verify(chain, never()).getBlockParts(eq(GetBlockRangeMessage.MAX_COUNT + 1L), anyInt());
+    }
+
+    @Test
+    public void testBlockRangeLatestBlock() {
+        when(chain.getLatestBlockNumber()).thenReturn(10L);
+        when(chain.getBlockParts(anyLong(), eq(PARTS))).thenReturn(Collections.singletonList(new byte[8]));
+
+        handler.onSync(new GetBlockRangeMessage(5, 100, PARTS));
+
+        List<BlockRangeMessage> messages = sentRanges(1);
+        assertEquals(5, messages.get(0).getFrom());
+        assertEquals(6, messages.get(0).getBlocks().size());
+        verify(chain, never()).getBlockParts(eq(11L), anyInt());
+    }
+
+    @Test
+    public void testBlockRangeMissingBlock() {
+        when(chain.getLatestBlockNumber()).thenReturn(10L);
+        when(chain.getBlockParts(anyLong(), eq(PARTS))).thenReturn(Collections.singletonList(new byte[8]));
+        when(chain.getBlockParts(3L, PARTS)).thenReturn(null);
+
+        handler.onSync(new GetBlockRangeMessage(1, 5, PARTS));
+
+        // the range stops at the first missing block, so that it stays contiguous
+        List<BlockRangeMessage> messages = sentRanges(1);
+        assertEquals(1, messages.get(0).getFrom());
+        assertEquals(2, messages.get(0).getBlocks().size());
+        verify(chain, never()).getBlockParts(eq(4L), anyInt());
+    }
+
+    @Test
+    public void testBlockRangeRequestLimit() {
+        when(chain.getLatestBlockNumber()).thenReturn(10L);
+        when(chain.getBlockParts(anyLong(), eq(PARTS))).thenReturn(Collections.singletonList(new byte[8]));
+
+        // hold the requests being served
+        AtomicInteger entered = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            entered.incrementAndGet();
+            latch.await();
+            return Collections.singletonList(new byte[8]);
+        }).when(chain).getBlockParts(1L, PARTS);
+
+        try {
+            for (int i = 0; i <= SemuxP2pHandler.MAX_RANGE_REQUESTS; i++) {
+                handler.onSync(new GetBlockRangeMessage(1, 1, PARTS));
+            }
+            await().until(() -> entered.get() == SemuxP2pHandler.MAX_RANGE_REQUESTS);
+        } finally {
+            latch.countDown();
+        }
+
+        // the request beyond the limit is dropped
+        sentRanges(SemuxP2pHandler.MAX_RANGE_REQUESTS);
+        assertEquals(SemuxP2pHandler.MAX_RANGE_REQUESTS, entered.get());
+
+        // and served again once the others are done
+        handler.onSync(new GetBlockRangeMessage(1, 1, PARTS));
+        await().until(() -> entered.get() == SemuxP2pHandler.MAX_RANGE_REQUESTS + 1);
+        sentRanges(SemuxP2pHandler.MAX_RANGE_REQUESTS + 1);
+    }
+
+    private List<BlockRangeMessage> sentRanges(int expected) {
+        // the ranges are served off the calling thread
+        AtomicInteger rangeRequests = TestUtils.getInternalState(handler, "rangeRequests", SemuxP2pHandler.class);
+        await().until(() -> rangeRequests.get() == 0);
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        verify(msgQueue, atLeast(0)).sendMessage(captor.capture());
+
+        List<BlockRangeMessage> messages = captor.getAllValues().stream()
+                .filter(m -> m instanceof BlockRangeMessage)
+                .map(m -> (BlockRangeMessage) m)
+                .collect(Collectors.toList());
+        assertEquals(expected, messages.size());
+        return messages;
+    }
+}
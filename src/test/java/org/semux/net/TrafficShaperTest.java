@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.semux.config.Config;
+import org.semux.net.msg.MessageCode;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class TrafficShaperTest {
+
+    private ScheduledExecutorService executor;
+    private TrafficShaper shaper;
+
+    @Before
+    public void setUp() {
+        Config config = mock(Config.class);
+        when(config.netGlobalWriteLimit()).thenReturn(1024L);
+        when(config.netChannelWriteLimit()).thenReturn(512L);
+        when(config.netPrioritizedMessages()).thenReturn(Collections.singleton(MessageCode.PING));
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        shaper = new TrafficShaper(config, executor);
+    }
+
+    @After
+    public void tearDown() {
+        shaper.release();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIsExempt() {
+        assertTrue(shaper.isExempt(frame(MessageCode.BFT_VOTE)));
+        assertTrue(shaper.isExempt(frame(MessageCode.BFT_PROPOSAL_TRANSACTIONS)));
+        assertTrue(shaper.isExempt(frame(MessageCode.PING)));
+
+        assertFalse(shaper.isExempt(frame(MessageCode.BLOCK_RANGE)));
+        assertFalse(shaper.isExempt(frame(MessageCode.TRANSACTION)));
+        assertFalse(shaper.isExempt(Unpooled.EMPTY_BUFFER));
+    }
+
+    @Test
+    public void testLimits() {
+        assertEquals(1024L, shaper.getWriteLimit());
+        assertEquals(512L, shaper.getWriteChannelLimit());
+        assertEquals(0L, shaper.getReadLimit());
+    }
+
+    private ByteBuf frame(MessageCode code) {
+        Frame frame = new Frame(Frame.VERSION, Frame.COMPRESS_SNAPPY, code.toByte(), 1, 8, 8, null);
+        ByteBuf buf = Unpooled.buffer();
+        frame.writeHeader(buf);
+        buf.writeBytes(new byte[8]);
+        return buf;
+    }
+}
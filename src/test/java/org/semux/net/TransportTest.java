@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+public class TransportTest {
+
+    @Test
+    public void testSelect() {
+        assertEquals(Transport.NIO, Transport.select(false));
+        assertEquals(Epoll.isAvailable() ? Transport.EPOLL : Transport.NIO, Transport.select(true));
+    }
+
+    @Test
+    public void testNio() {
+        EventLoopGroup group = Transport.NIO.newEventLoopGroup(1, Executors.defaultThreadFactory());
+        try {
+            assertTrue(group instanceof NioEventLoopGroup);
+            assertEquals(NioServerSocketChannel.class, Transport.NIO.serverChannelClass());
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void testEpoll() {
+        assumeTrue(Epoll.isAvailable());
+
+        Transport transport = Transport.select(true);
+        EventLoopGroup group = transport.newEventLoopGroup(1, Executors.defaultThreadFactory());
+        try {
+            assertTrue(group instanceof EpollEventLoopGroup);
+            assertEquals(EpollSocketChannel.class, transport.channelClass());
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+}
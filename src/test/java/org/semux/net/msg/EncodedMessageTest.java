@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semux.config.Config;
+import org.semux.net.Frame;
+import org.semux.net.SemuxFrameHandler;
+import org.semux.net.SemuxMessageHandler;
+import org.semux.net.msg.consensus.BlockPartsMessage;
+import org.semux.util.Bytes;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class EncodedMessageTest {
+
+    private Config config;
+
+    @Before
+    public void setUp() {
+        config = mock(Config.class);
+        when(config.netMaxFrameBodySize()).thenReturn(512);
+        when(config.netMaxPacketSize()).thenReturn(1024 * 1024);
+        when(config.netMaxMessageQueueSize()).thenReturn(16);
+    }
+
+    @Test
+    public void testBroadcast() {
+        Message msg = new BlockPartsMessage(1, 3, Arrays.asList(Bytes.random(2000), Bytes.random(2000)));
+        EncodedMessage encoded = EncodedMessage.of(msg);
+        assertNotNull(encoded.getPacket());
+        assertEquals(msg.getCode(), encoded.getCode());
+
+        for (int i = 0; i < 3; i++) {
+            Message decoded = sendAndReceive(encoded.retainedDuplicate());
+            assertEquals(msg.getCode(), decoded.getCode());
+            assertArrayEquals(msg.getBody(), decoded.getBody());
+        }
+
+        // only the reference of the broadcaster is left
+        assertEquals(1, encoded.refCnt());
+        encoded.release();
+        assertEquals(0, encoded.refCnt());
+    }
+
+    @Test
+    public void testCompressedOnce() {
+        EncodedMessage encoded = EncodedMessage.of(
+                new BlockPartsMessage(1, 3, Arrays.asList(Bytes.random(2000), Bytes.random(2000))));
+        ByteBuf packet = encoded.getPacket();
+        int limit = config.netMaxFrameBodySize();
+        int total = (packet.readableBytes() - 1) / limit + 1;
+        assertTrue(total > 1);
+
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel(new SemuxMessageHandler(config));
+            channel.writeOutbound(encoded.retainedDuplicate());
+
+            // the frames are slices of the shared packet, not of a new compression
+            Frame frame;
+            for (int j = 0; (frame = channel.readOutbound()) != null; j++) {
+                assertTrue(ByteBufUtil.equals(packet, j * limit, frame.getBody(), 0, frame.getBodySize()));
+                frames.add(frame);
+            }
+            channel.finish();
+        }
+        assertEquals(3 * total, frames.size());
+
+        // the duplicates are released once written, and each frame holds a reference
+        assertEquals(1 + frames.size(), encoded.refCnt());
+        frames.forEach(Frame::release);
+        assertEquals(1, encoded.refCnt());
+
+        encoded.release();
+        assertEquals(0, encoded.refCnt());
+    }
+
+    @Test
+    public void testDroppedMessage() {
+        EncodedMessage encoded = EncodedMessage.of(new BlockPartsMessage(1, 3, Arrays.asList(Bytes.random(100))));
+
+        MessageQueue queue = new MessageQueue(config);
+        assertTrue(queue.sendMessage(encoded.retainedDuplicate()));
+        assertEquals(2, encoded.refCnt());
+
+        // the queued message is released on deactivation, and new ones are refused
+        queue.deactivate();
+        assertEquals(1, encoded.refCnt());
+        assertFalse(queue.sendMessage(encoded.retainedDuplicate()));
+        assertEquals(1, encoded.refCnt());
+
+        encoded.release();
+    }
+
+    private Message sendAndReceive(Message msg) {
+        EmbeddedChannel sender = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+        EmbeddedChannel receiver = new EmbeddedChannel(new SemuxFrameHandler(config), new SemuxMessageHandler(config));
+
+        sender.writeOutbound(msg);
+        ByteBuf buf;
+        while ((buf = sender.readOutbound()) != null) {
+            receiver.writeInbound(buf);
+        }
+
+        Message received = receiver.readInbound();
+        sender.finish();
+        receiver.finish();
+        return received;
+    }
+}
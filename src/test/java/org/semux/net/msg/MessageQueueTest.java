@@ -6,25 +6,36 @@
  */
 package org.semux.net.msg;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.semux.KernelMock;
+import org.semux.config.Config;
 import org.semux.net.Channel;
 import org.semux.net.NodeManager.Node;
 import org.semux.net.PeerClient;
 import org.semux.net.PeerServerMock;
 import org.semux.net.SemuxChannelInitializer;
+import org.semux.net.msg.consensus.NewHeightMessage;
 import org.semux.net.msg.p2p.PingMessage;
 import org.semux.net.msg.p2p.PongMessage;
 import org.semux.rules.KernelRule;
 import org.semux.util.TimeUtil;
 
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
 public class MessageQueueTest {
 
     private PeerServerMock server1;
@@ -102,6 +113,53 @@ public class MessageQueueTest {
         assertTrue(ch.isActive());
     }
 
+    @Test
+    public void testQueueLatency() throws InterruptedException {
+        Channel ch = connect();
+        long count = ch.getMessageQueue().getLatency().getCount();
+
+        ch.getMessageQueue().sendMessage(new PingMessage());
+
+        Thread.sleep(200);
+        assertTrue(ch.getMessageQueue().isIdle());
+        assertTrue(ch.getMessageQueue().getLatency().getCount() > count);
+    }
+
+    @Test
+    public void testExemptWhenThrottled() {
+        Config config = mock(Config.class);
+        when(config.netMaxMessageQueueSize()).thenReturn(128);
+        when(config.netPrioritizedMessages()).thenReturn(Collections.singleton(MessageCode.PONG));
+
+        EmbeddedChannel ch = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        MessageQueue queue = new MessageQueue(config);
+        queue.activate(ch.pipeline().firstContext());
+
+        // throttled, as the traffic shaper does
+        ch.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        assertFalse(ch.isWritable());
+
+        queue.sendMessage(new PingMessage());
+        queue.sendMessage(new NewHeightMessage(1));
+        queue.sendMessage(new PongMessage());
+        ch.runPendingTasks();
+
+        // consensus and prioritized messages pass, the others wait
+        assertEquals(MessageCode.BFT_NEW_HEIGHT, ((Message) ch.readOutbound()).getCode());
+        assertEquals(MessageCode.PONG, ((Message) ch.readOutbound()).getCode());
+        assertNull(ch.readOutbound());
+        assertEquals(1, queue.size());
+
+        ch.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        queue.onWritabilityChanged();
+        ch.runPendingTasks();
+        assertEquals(MessageCode.PING, ((Message) ch.readOutbound()).getCode());
+        assertTrue(queue.isIdle());
+
+        queue.deactivate();
+        ch.finishAndReleaseAll();
+    }
+
     @Test
     public void testSendResponse() throws InterruptedException {
         Channel ch = connect();
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.consensus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.core.BlockPart;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+
+public class BlockRangeMessageTest {
+
+    @Test
+    public void testGetBlockRange() {
+        int parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS);
+
+        GetBlockRangeMessage m = new GetBlockRangeMessage(100, 64, parts);
+        assertThat(m.getCode()).isEqualTo(MessageCode.GET_BLOCK_RANGE);
+        assertThat(m.getResponseMessageClass()).isEqualTo(BlockRangeMessage.class);
+
+        GetBlockRangeMessage m2 = new GetBlockRangeMessage(m.getBody());
+        assertThat(m2.getFrom()).isEqualTo(100);
+        assertThat(m2.getCount()).isEqualTo(64);
+        assertThat(m2.getParts()).isEqualTo(parts);
+    }
+
+    @Test
+    public void testBlockRange() {
+        int parts = BlockPart.encode(BlockPart.HEADER, BlockPart.TRANSACTIONS);
+        List<List<byte[]>> blocks = Arrays.asList(
+                Arrays.asList(Bytes.random(32), Bytes.random(64)),
+                Arrays.asList(Bytes.random(32), Bytes.EMPTY_BYTES));
+
+        BlockRangeMessage m = new BlockRangeMessage(100, parts, blocks);
+        assertThat(m.getCode()).isEqualTo(MessageCode.BLOCK_RANGE);
+        assertThat(m.getResponseMessageClass()).isNull();
+
+        BlockRangeMessage m2 = new BlockRangeMessage(m.getBody());
+        assertThat(m2.getFrom()).isEqualTo(100);
+        assertThat(m2.getParts()).isEqualTo(parts);
+        assertThat(m2.getBlocks()).hasSize(2);
+        for (int i = 0; i < blocks.size(); i++) {
+            assertThat(m2.getBlocks().get(i)).containsExactlyElementsOf(blocks.get(i));
+        }
+    }
+}
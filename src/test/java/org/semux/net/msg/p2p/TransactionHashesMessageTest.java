@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.semux.net.msg.MessageCode;
+import org.semux.util.Bytes;
+
+public class TransactionHashesMessageTest {
+
+    @Test
+    public void testSerialization() {
+        List<byte[]> hashes = Arrays.asList(Bytes.random(32), Bytes.random(32));
+
+        TransactionHashesMessage msg = new TransactionHashesMessage(hashes);
+        TransactionHashesMessage msg2 = new TransactionHashesMessage(msg.getBody());
+        assertEquals(MessageCode.TRANSACTION_HASHES, msg2.getCode());
+        assertTrue(msg2.validate());
+        assertEquals(2, msg2.getHashes().size());
+        assertArrayEquals(hashes.get(1), msg2.getHashes().get(1));
+
+        GetTransactionsMessage req = new GetTransactionsMessage(msg2.getHashes());
+        GetTransactionsMessage req2 = new GetTransactionsMessage(req.getBody());
+        assertEquals(TransactionsMessage.class, req2.getResponseMessageClass());
+        assertArrayEquals(hashes.get(0), req2.getHashes().get(0));
+    }
+
+    @Test
+    public void testTooManyHashes() {
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < TransactionHashesMessage.MAX_HASHES + 10; i++) {
+            hashes.add(Bytes.random(32));
+        }
+
+        TransactionHashesMessage msg = new TransactionHashesMessage(hashes);
+        assertFalse(new TransactionHashesMessage(msg.getBody()).validate());
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.net.msg.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.semux.Network;
+import org.semux.core.Amount;
+import org.semux.core.Transaction;
+import org.semux.core.TransactionType;
+import org.semux.crypto.Key;
+import org.semux.util.Bytes;
+import org.semux.util.TimeUtil;
+
+public class TransactionsMessageTest {
+
+    @Test
+    public void testSerialization() {
+        Key key = new Key();
+        long now = TimeUtil.currentTimeMillis();
+        Transaction tx1 = new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20), Amount.of(1),
+                Amount.of(50_000_000L), 1, now, Bytes.EMPTY_BYTES).sign(key);
+        Transaction tx2 = new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20), Amount.of(2),
+                Amount.of(50_000_000L), 2, now, Bytes.of("data")).sign(key);
+
+        TransactionsMessage msg = new TransactionsMessage(Arrays.asList(tx1, tx2));
+        TransactionsMessage msg2 = new TransactionsMessage(msg.getBody());
+        assertTrue(msg2.validate());
+        assertEquals(2, msg2.getTransactions().size());
+        assertArrayEquals(tx1.getHash(), msg2.getTransactions().get(0).getHash());
+        assertArrayEquals(tx2.getHash(), msg2.getTransactions().get(1).getHash());
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2017-2020 The Semux Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.semux.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram h = new Histogram("test");
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getMean(), 0);
+        assertEquals(0, h.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram h = new Histogram("test");
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i);
+        }
+
+        assertEquals(10000, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(10000, h.getMax());
+        assertEquals(5000.5, h.getMean(), 0.001);
+
+        assertWithin(5000, h.getValueAtPercentile(50));
+        assertWithin(9000, h.getValueAtPercentile(90));
+        assertWithin(9900, h.getValueAtPercentile(99));
+        assertEquals(10000, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long v : new long[] { 0, 1, 127, 128, 129, 255, 256, 1000, 123456789L, Long.MAX_VALUE }) {
+            int index = Histogram.index(v);
+            assertTrue(Histogram.highestEquivalentValue(index) >= v);
+            assertTrue(index == 0 || Histogram.highestEquivalentValue(index - 1) < v);
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 50);
+    }
+}
@@ -10,14 +10,22 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Test;
@@ -78,6 +86,46 @@ public class IOUtilTest {
         in.close();
     }
 
+    @Test
+    public void testRecords() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        IOUtil.writeRecord(out, Bytes.of("abc"));
+        IOUtil.writeRecord(out, Bytes.of("de"));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.toByteArray()));
+        assertArrayEquals(Bytes.of("abc"), IOUtil.readRecord(in, 16));
+        assertArrayEquals(Bytes.of("de"), IOUtil.readRecord(in, 16));
+        assertNull(IOUtil.readRecord(in, 16));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRecordTooLarge() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        IOUtil.writeRecord(new DataOutputStream(buf), Bytes.of("abc"));
+
+        IOUtil.readRecord(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())), 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRecordChecksumMismatch() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        IOUtil.writeRecord(new DataOutputStream(buf), Bytes.of("abc"));
+        byte[] bytes = buf.toByteArray();
+        bytes[5] ^= 1;
+
+        IOUtil.readRecord(new DataInputStream(new ByteArrayInputStream(bytes)), 16);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testRecordTruncated() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        IOUtil.writeRecord(new DataOutputStream(buf), Bytes.of("abc"));
+        byte[] bytes = Arrays.copyOf(buf.toByteArray(), 9);
+
+        IOUtil.readRecord(new DataInputStream(new ByteArrayInputStream(bytes)), 16);
+    }
+
     @After
     public void deleteFiles() {
         f1.delete();